@@ -0,0 +1,394 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps an inverted index in step with a directory tree. Every directory is
+ * registered with a {@link WatchService}, and html pages that are created or
+ * modified are parsed again and swapped into the index with
+ * {@link InvertedIndex#replace(String, InvertedIndex)}, while pages that are
+ * deleted are dropped with {@link InvertedIndex#remove(String)}. Untouched
+ * pages are never read again.
+ *
+ * Editors and copies usually raise several events for one file, so events are
+ * gathered until the tree has been quiet for a moment and each changed path
+ * is handled once per batch.
+ */
+public class DirectoryWatcher implements AutoCloseable
+{
+	/** Milliseconds without new events before a batch is applied. */
+	private static final long SETTLE_MILLIS = 250;
+
+	private final InvertedIndex index;
+	private final WatchService watcher;
+
+	/** Manifest kept in step with the index, or null. */
+	private final IndexManifest manifest;
+
+	/** Test for the html pages that belong in the index. */
+	private final Predicate<Path> include;
+
+	/** Directory watched by each key. */
+	private final HashMap<WatchKey, Path> directories;
+
+	/** Directories passed to {@link #register(Path)}, rescanned if events are lost. */
+	private final ArrayList<Path> roots;
+
+	/**
+	 * Initializes a watcher that updates the given index
+	 * @param index
+	 * 			index to keep up to date
+	 * @throws IOException
+	 */
+	public DirectoryWatcher(InvertedIndex index) throws IOException
+	{
+		this(index, null);
+	}
+
+	/**
+	 * Initializes a watcher that updates the given index and the manifest of
+	 * its pages
+	 * @param index
+	 * 			index to keep up to date
+	 * @param manifest
+	 * 			manifest to keep up to date, or null
+	 * @throws IOException
+	 */
+	public DirectoryWatcher(InvertedIndex index, IndexManifest manifest) throws IOException
+	{
+		this(index, manifest, InvertedIndexBuilder::isHTML);
+	}
+
+	/**
+	 * Initializes a watcher that updates the given index and the manifest of
+	 * its pages, only indexing the pages that pass the test
+	 * @param index
+	 * 			index to keep up to date
+	 * @param manifest
+	 * 			manifest to keep up to date, or null
+	 * @param include
+	 * 			test for the html pages that belong in the index
+	 * @throws IOException
+	 */
+	public DirectoryWatcher(InvertedIndex index, IndexManifest manifest, Predicate<Path> include) throws IOException
+	{
+		this.index = index;
+		this.manifest = manifest;
+		this.include = include;
+		this.watcher = FileSystems.getDefault().newWatchService();
+		this.directories = new HashMap<WatchKey, Path>();
+		this.roots = new ArrayList<Path>();
+	}
+
+	/**
+	 * Starts watching the directory and every directory below it. Pages already
+	 * in the directory are not indexed; build the index first.
+	 * @param root
+	 * 			directory to watch
+	 * @throws IOException
+	 */
+	public void register(Path root) throws IOException
+	{
+		roots.add(root);
+		registerAll(root, null);
+	}
+
+	/**
+	 * Registers the directory and its subdirectories, collecting the html
+	 * pages found on the way
+	 * @param path
+	 * 			directory to register
+	 * @param pages
+	 * 			set to add html pages to, or null to skip them
+	 * @throws IOException
+	 */
+	private void registerAll(Path path, LinkedHashSet<Path> pages) throws IOException
+	{
+		if(Files.isDirectory(path))
+		{
+			WatchKey key = path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+			directories.put(key, path);
+
+			try(DirectoryStream<Path> listing = Files.newDirectoryStream(path))
+			{
+				for(Path extension : listing)
+					registerAll(extension, pages);
+			}
+		}
+		else if(pages != null && include.test(path))
+		{
+			pages.add(path);
+		}
+	}
+
+	/**
+	 * Applies changes to the index as they happen until the thread is
+	 * interrupted or the watcher is closed. The listener is called after each
+	 * batch of changes has been applied.
+	 * @param listener
+	 * 			called after each batch, or null
+	 * @throws IOException
+	 */
+	public void watch(Runnable listener) throws IOException
+	{
+		try
+		{
+			while(!directories.isEmpty())
+			{
+				LinkedHashSet<Path> changed = new LinkedHashSet<Path>();
+				WatchKey key = watcher.take();
+				while(key != null)
+				{
+					collect(key, changed);
+					key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+				}
+
+				if(apply(changed) && listener != null)
+					listener.run();
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch(ClosedWatchServiceException e)
+		{
+			return;
+		}
+	}
+
+	/**
+	 * Adds the paths touched by the events of the key to the set, and starts
+	 * watching any new directories
+	 * @param key
+	 * 			key with pending events
+	 * @param changed
+	 * 			set of changed paths
+	 * @throws IOException
+	 */
+	private void collect(WatchKey key, LinkedHashSet<Path> changed) throws IOException
+	{
+		Path directory = directories.get(key);
+
+		for(WatchEvent<?> event : key.pollEvents())
+		{
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+			{
+				// Events were lost, so look at every page again
+				rescanAll(changed);
+				continue;
+			}
+
+			if(directory == null)
+				continue;
+
+			Path path = directory.resolve((Path) event.context());
+			if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path))
+				registerAll(path, changed);
+			else
+				changed.add(path);
+		}
+
+		// Keys of deleted directories can no longer be reset
+		if(!key.reset())
+			directories.remove(key);
+	}
+
+	/**
+	 * Looks at every page again as if events were lost, and applies what
+	 * changed
+	 * @return
+	 * 		true if the index was modified
+	 * @throws IOException
+	 */
+	boolean resync() throws IOException
+	{
+		LinkedHashSet<Path> changed = new LinkedHashSet<Path>();
+		rescanAll(changed);
+		return apply(changed);
+	}
+
+	/**
+	 * Adds every html page under the watched directories to the set, along
+	 * with the pages of the index under them that were not found, since their
+	 * deletions may have been among the lost events
+	 * @param changed
+	 * 			set of changed paths
+	 * @throws IOException
+	 */
+	private void rescanAll(LinkedHashSet<Path> changed) throws IOException
+	{
+		HashSet<String> found = new HashSet<String>();
+		for(Path root : roots)
+		{
+			LinkedHashSet<Path> pages = new LinkedHashSet<Path>();
+			rescan(root, pages);
+			for(Path page : pages)
+				found.add(page.toString());
+			changed.addAll(pages);
+		}
+
+		DocumentTable documents = index.getDocuments();
+		for(int id = 0; id < documents.size(); id++)
+		{
+			String document = documents.getPath(id);
+			if(!found.contains(document) && isWatched(document))
+				changed.add(Paths.get(document));
+		}
+	}
+
+	/**
+	 * Returns whether the page is below one of the watched directories
+	 * @param html
+	 * 			path of the page
+	 * @return
+	 * 		true if the page is below a directory passed to {@link #register(Path)}
+	 */
+	private boolean isWatched(String html)
+	{
+		for(Path root : roots)
+		{
+			String prefix = root.toString();
+			if(!prefix.endsWith(File.separator))
+				prefix += File.separator;
+
+			if(html.startsWith(prefix))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds every html page under the directory to the set
+	 * @param path
+	 * 			directory to scan
+	 * @param changed
+	 * 			set of changed paths
+	 * @throws IOException
+	 */
+	private void rescan(Path path, LinkedHashSet<Path> changed) throws IOException
+	{
+		if(Files.isDirectory(path))
+		{
+			try(DirectoryStream<Path> listing = Files.newDirectoryStream(path))
+			{
+				for(Path extension : listing)
+					rescan(extension, changed);
+			}
+		}
+		else if(include.test(path))
+		{
+			changed.add(path);
+		}
+	}
+
+	/**
+	 * Parses changed pages again and removes deleted ones from the index
+	 * @param changed
+	 * 			paths that were created, modified, or deleted
+	 * @return
+	 * 		true if the index was modified
+	 */
+	private boolean apply(LinkedHashSet<Path> changed)
+	{
+		boolean modified = false;
+		for(Path path : changed)
+		{
+			if(Files.isRegularFile(path))
+			{
+				if(!include.test(path))
+					continue;
+
+				try
+				{
+					// Parse outside the index locks, then swap the page in at once
+					if(manifest != null)
+					{
+						BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+						CRC32C hash = new CRC32C();
+						index.replace(path.toString(), InvertedIndexBuilder.buildIndex(path, null, hash));
+						manifest.update(path, attributes, hash.getValue());
+					}
+					else
+						index.replace(path.toString(), InvertedIndexBuilder.buildIndex(path));
+					modified = true;
+				}
+				catch(NoSuchFileException e)
+				{
+					modified |= remove(path);
+				}
+				catch(IOException e)
+				{
+					System.out.println("Unable to read " + path);
+				}
+			}
+			else if(!Files.exists(path))
+			{
+				modified |= remove(path);
+			}
+		}
+		return modified;
+	}
+
+	/**
+	 * Removes the page, or every page below the directory, from the index
+	 * @param path
+	 * 			deleted file or directory
+	 * @return
+	 * 		true if the index was modified
+	 */
+	private boolean remove(Path path)
+	{
+		String html = path.toString();
+		if(manifest != null)
+			manifest.remove(path);
+
+		if(index.remove(html))
+			return true;
+
+		// A deleted directory only raises one event, so find its pages by path
+		boolean modified = false;
+		String prefix = html.endsWith(File.separator) ? html : html + File.separator;
+		DocumentTable documents = index.getDocuments();
+		for(int id = 0; id < documents.size(); id++)
+		{
+			String document = documents.getPath(id);
+			if(document.startsWith(prefix))
+			{
+				if(manifest != null)
+					manifest.remove(Paths.get(document));
+
+				modified |= index.remove(document);
+			}
+		}
+		return modified;
+	}
+
+	/**
+	 * Stops watching. A thread blocked in {@link #watch(Runnable)} returns.
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		watcher.close();
+	}
+}
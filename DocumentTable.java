@@ -0,0 +1,140 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe dictionary assigning every html page a dense integer id, so the
+ * index can key its postings by int instead of repeating the full path. Ids
+ * are handed out in the order pages are first seen, starting at 0. Looking up
+ * a path or an id never blocks; only adding a new page takes a lock.
+ */
+public class DocumentTable
+{
+	private final ConcurrentHashMap<String, Integer> ids;
+
+	/** Paths indexed by id. Replaced with a larger copy when full. */
+	private volatile String[] paths;
+
+	/** Number of ids handed out. Written after the path it publishes. */
+	private volatile int size;
+
+	/** Rank of each id when sorted by path, rebuilt when pages are added. */
+	private volatile int[] ranks;
+
+	/**
+	 * Initializes an empty document table
+	 */
+	public DocumentTable()
+	{
+		this.ids = new ConcurrentHashMap<String, Integer>();
+		this.paths = new String[16];
+		this.size = 0;
+		this.ranks = new int[0];
+	}
+
+	/**
+	 * Returns the id of the path, assigning the next free id if the path has
+	 * not been seen before
+	 * @param path
+	 * 			path of the html page
+	 * @return
+	 * 		id of the page
+	 */
+	public int add(String path)
+	{
+		Integer id = ids.get(path);
+		if(id != null)
+			return id;
+
+		synchronized(this)
+		{
+			id = ids.get(path);
+			if(id != null)
+				return id;
+
+			String[] current = paths;
+			if(size == current.length)
+			{
+				current = Arrays.copyOf(current, current.length + (current.length >> 1));
+				paths = current;
+			}
+
+			current[size] = path;
+			ids.put(path, size);
+			size++;
+			return size - 1;
+		}
+	}
+
+	/**
+	 * Returns the id of the path
+	 * @param path
+	 * 			path of the html page
+	 * @return
+	 * 		id of the page, or -1 if the page is not in the table
+	 */
+	public int getId(String path)
+	{
+		Integer id = ids.get(path);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the path with the given id
+	 * @param id
+	 * 			id of the html page
+	 * @return
+	 * 		path of the page
+	 */
+	public String getPath(int id)
+	{
+		if(id < 0 || id >= size)
+			throw new IndexOutOfBoundsException("No document with id " + id);
+
+		return paths[id];
+	}
+
+	/**
+	 * Returns the number of pages in the table
+	 * @return
+	 * 		number of pages
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the rank of every id when the pages are sorted by path, so that
+	 * ids can be put in path order by comparing ints. The array covers every
+	 * id handed out when it was built and is rebuilt once more are added.
+	 * @return
+	 * 		ranks indexed by id; must not be modified
+	 */
+	public int[] getRanks()
+	{
+		int[] current = ranks;
+		int count = size;
+		if(current.length == count)
+			return current;
+
+		String[] snapshot = paths;
+		Integer[] order = new Integer[count];
+		for(int i = 0; i < count; i++)
+			order[i] = i;
+
+		Arrays.sort(order, (a, b) -> snapshot[a].compareTo(snapshot[b]));
+
+		current = new int[count];
+		for(int rank = 0; rank < count; rank++)
+			current[order[rank]] = rank;
+
+		ranks = current;
+		return current;
+	}
+
+	@Override
+	public String toString()
+	{
+		return Arrays.toString(Arrays.copyOf(paths, size));
+	}
+}
@@ -1,64 +1,482 @@
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
 
 public class Driver 
 {
+	/**
+	 * Indexes a single html page found while walking the directory
+	 */
+	private interface FileIndexer
+	{
+		void index(Path path) throws IOException;
+	}
 	
-	private static void traverseDirectory(Path path, InvertedIndex indexMap) throws IOException
+	private static void traverseDirectory(Path path, Predicate<Path> include, Metrics metrics, FileIndexer indexer) throws IOException
 	{		
 		if(Files.isDirectory(path))
 		{
-			try(DirectoryStream<Path> listing = Files.newDirectoryStream(path))
-			{
-				for(Path extension : listing)	
-					traverseDirectory(extension, indexMap);
-			}
+			for(Path extension : list(path, metrics))	
+				traverseDirectory(extension, include, metrics, indexer);
+		}
+		else if(include.test(path))
+		{
+			indexer.index(path);
 		}
-		else if(path.toString().toLowerCase().endsWith("html") || path.toString().endsWith("htm"))
+	}
+
+	/**
+	 * Lists the entries of a directory, timing the listing as
+	 * {@link Metrics.Stage#TRAVERSE}
+	 * 
+	 * @param directory
+	 * 			directory to list
+	 * @param metrics
+	 * 			metrics to record into, or null
+	 * @return
+	 * 		paths of the entries
+	 * @throws IOException
+	 */
+	private static ArrayList<Path> list(Path directory, Metrics metrics) throws IOException
+	{
+		Metrics.Timer timer = new Metrics.Timer(metrics, Metrics.Stage.TRAVERSE);
+		ArrayList<Path> entries = new ArrayList<Path>();
+		try(DirectoryStream<Path> listing = Files.newDirectoryStream(directory))
 		{
-			InvertedIndexBuilder.buildIndex(path, indexMap);
+			for(Path entry : listing)
+				entries.add(entry);
+		}
+		timer.stop();
+		return entries;
+	}
+
+	/**
+	 * Returns the test for the html pages that belong in this index. With a
+	 * partition of the form index/count, only the pages whose path hashes to
+	 * that index are kept, so count processes given the same path split the
+	 * pages between them with no overlap.
+	 * 
+	 * @param partition
+	 * 			partition of the form index/count, or null to keep every page
+	 * @return
+	 * 		test for the pages to index, or null if the partition is not two
+	 * 		numbers with the index below the count
+	 */
+	private static Predicate<Path> pagesFor(String partition)
+	{
+		if(partition == null)
+			return InvertedIndexBuilder::isHTML;
+		
+		String[] parts = partition.split("/", -1);
+		if(parts.length != 2)
+			return null;
+		
+		int index;
+		int count;
+		try
+		{
+			index = Integer.parseInt(parts[0].trim());
+			count = Integer.parseInt(parts[1].trim());
+		}
+		catch(NumberFormatException e)
+		{
+			return null;
+		}
+		
+		if(count < 1 || index < 0 || index >= count)
+			return null;
+		
+		return path -> InvertedIndexBuilder.isHTML(path) && Math.floorMod(path.toString().hashCode(), count) == index;
+	}
+
+	/**
+	 * Indexes a single html page unless the manifest shows it has not changed
+	 * since it was last indexed. A page that was indexed before is parsed into
+	 * a private index and swapped in with
+	 * {@link InvertedIndex#replace(String, InvertedIndex)}, so its old
+	 * positions are dropped. The page is hashed as it is parsed, so it is only
+	 * read once.
+	 * 
+	 * @param path
+	 * 			html page to index
+	 * @param indexMap
+	 * 			shared index to add words to
+	 * @param manifest
+	 * 			manifest of the pages already in the index, or null to index
+	 * 			every page without keeping track of it
+	 * @param merge
+	 * 			true to build a private index and merge it, as workers do
+	 * @param metrics
+	 * 			metrics to record into, or null
+	 * @throws IOException
+	 */
+	private static void indexFile(Path path, InvertedIndex indexMap, IndexManifest manifest, boolean merge, Metrics metrics) throws IOException
+	{
+		if(manifest == null)
+		{
+			if(merge)
+				indexMap.addAll(InvertedIndexBuilder.buildIndex(path, metrics));
+			else
+				InvertedIndexBuilder.buildIndex(path, indexMap, metrics);
+			return;
+		}
+		
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		CRC32C hash = new CRC32C();
+		if(manifest.contains(path))
+		{
+			if(manifest.isUnchanged(path, attributes))
+				return;
+			
+			indexMap.replace(path.toString(), InvertedIndexBuilder.buildIndex(path, metrics, hash));
+		}
+		else if(merge)
+			indexMap.addAll(InvertedIndexBuilder.buildIndex(path, metrics, hash));
+		else
+			InvertedIndexBuilder.buildIndex(path, indexMap, metrics, hash);
+		
+		manifest.update(path, attributes, hash.getValue());
+	}
+
+	/**
+	 * Walks the directory like {@link #traverseDirectory(Path, Predicate, Metrics, FileIndexer)}
+	 * but hands every included file to the work queue, so the files are
+	 * indexed in parallel. Workers should build a private index for their file
+	 * and merge it into the shared index when done.
+	 * 
+	 * @param path
+	 * 			file or directory to index
+	 * @param include
+	 * 			html pages that belong in this index
+	 * @param metrics
+	 * 			metrics to record into, or null
+	 * @param indexer
+	 * 			indexes each page on a worker
+	 * @param queue
+	 * 			work queue that parses the files
+	 * @throws IOException
+	 */
+	private static void traverseDirectory(Path path, Predicate<Path> include, Metrics metrics, FileIndexer indexer, WorkQueue queue) throws IOException
+	{
+		if(Files.isDirectory(path))
+		{
+			for(Path extension : list(path, metrics))	
+				traverseDirectory(extension, include, metrics, indexer, queue);
+		}
+		else if(include.test(path))
+		{
+			queue.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						indexer.index(path);
+					}
+					catch(IOException e)
+					{
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
 		}
 	}
 
 	public static void main(String[] args) throws IOException
 	{
 		ArgumentMap commdLine = new ArgumentMap(args);
-		InvertedIndex indexMap = new InvertedIndex();	
 		
-		// Building inverted index from files in subdirectory of the current working directory
-		if(commdLine.hasFlag("-path") && commdLine.hasValue("-path"))
-			traverseDirectory(Paths.get(commdLine.getString("-path")), indexMap);
+		// Only index this shard's share of the pages if command line contains '-partition index/count'
+		// A partition that cannot be used stops the run, since indexing every page would overlap the other shards
+		Predicate<Path> include = pagesFor(commdLine.hasFlag("-partition") ? commdLine.getString("-partition", "") : null);
+		if(include == null)
+		{
+			System.out.println("Unable to use -partition " + commdLine.getString("-partition", "") + ": expected index/count with the index below the count, such as 0/3");
+			return;
+		}
+		
+		// Time each stage if command line contains '-stats'; processes that keep running also publish the numbers over JMX
+		Metrics metrics = commdLine.hasFlag("-stats") ? new Metrics() : null;
+		if(metrics != null && (commdLine.hasFlag("-serve") || commdLine.hasFlag("-shard") || commdLine.hasFlag("-watch")))
+			metrics.register();
+		
+		InvertedIndex indexMap;
+		
+		// Only keep track of the indexed pages when a manifest will be loaded or saved
+		IndexManifest manifest = commdLine.hasFlag("-load") || commdLine.hasFlag("-save") ? new IndexManifest() : null;
+		
+		// Start from a saved binary index if command line contains '-load', with its manifest if there is one
+		if(commdLine.hasFlag("-load") && commdLine.hasValue("-load"))
+		{
+			Path segment = Paths.get(commdLine.getString("-load"));
+			indexMap = InvertedIndex.load(segment);
+			
+			if(Files.exists(IndexManifest.pathFor(segment)))
+				manifest = IndexManifest.read(IndexManifest.pathFor(segment));
+		}
+		else
+			indexMap = new InvertedIndex();
+		
+		// Rebuild an index from JSON written by '-index' if command line contains '-load-json'
+		if(commdLine.hasFlag("-load-json") && commdLine.hasValue("-load-json"))
+			JSONIndexReader.read(Paths.get(commdLine.getString("-load-json")), indexMap);
+		
+		// Rebuild an index from JSON written before strings were escaped if command line contains '-load-json-legacy'
+		if(commdLine.hasFlag("-load-json-legacy") && commdLine.hasValue("-load-json-legacy"))
+			JSONIndexReader.read(Paths.get(commdLine.getString("-load-json-legacy")), indexMap, true);
+		
+		// Work queue shared by indexing and searching, defaulting to 5 workers if the count is missing or invalid
+		WorkQueue queue = null;
+		ShardCoordinator coordinator = null;
+		if(commdLine.hasFlag("-threads"))
+		{
+			int threads = commdLine.getInteger("-threads", 5);
+			queue = new WorkQueue(threads < 1 ? 5 : threads);
+		}
+		
+		// Index with a bounded heap if command line contains '-memory megabytes', defaulting to 256
+		// Sorted runs are spilled next to the JSON output and merged into it, so nothing else can use the index
+		SpillingIndex spill = null;
+		if(commdLine.hasFlag("-memory") && commdLine.hasFlag("-path") && commdLine.hasFlag("-index"))
+		{
+			String[] inMemory = {"-load", "-load-json", "-load-json-legacy", "-save", "-query", "-shard", "-serve", "-watch"};
+			boolean needsIndex = false;
+			for(String flag : inMemory)
+				needsIndex |= commdLine.hasFlag(flag);
+			
+			if(needsIndex)
+				System.out.println("Ignoring -memory: loading, saving, searching, and watching need the whole index in memory");
+			else
+			{
+				long budget = Math.max(1, commdLine.getInteger("-memory", 256)) * 1024L * 1024L;
+				Path output = Paths.get(commdLine.getString("-index", "index.json")).toAbsolutePath();
+				spill = new SpillingIndex(budget, output.getParent(), metrics);
+			}
+		}
 		
-		// Write that index as JSON
-		if(commdLine.hasFlag("-index"))
+		// Keep the words and positions outside the heap if command line contains '-offheap'
+		// That index only ever grows and has no binary form, so it cannot be loaded, saved, or kept in sync with a directory
+		OffHeapIndex offHeap = null;
+		if(commdLine.hasFlag("-offheap"))
 		{
-			// Getting JSON file if command line contains '-index'
-			String jsonFile = commdLine.getString("-index", "index.json");
-			JSONWriter.asInvertedIndexObject(indexMap.getIndex(), Paths.get(jsonFile));
+			String[] onHeap = {"-load", "-load-json", "-load-json-legacy", "-save", "-watch", "-memory"};
+			boolean needsHeap = false;
+			for(String flag : onHeap)
+				needsHeap |= commdLine.hasFlag(flag);
+			
+			if(needsHeap)
+				System.out.println("Ignoring -offheap: loading, saving, watching, and spilling need the index on the heap");
+			else
+				offHeap = new OffHeapIndex();
 		}
 		
-		// Do query search, partial or exact
-		QuerySearch query = new QuerySearch(indexMap);
-		if(commdLine.hasFlag("-query") && commdLine.hasValue("-query"))
+		try
 		{
-			try
+			// Building inverted index from files in subdirectory of the current working directory
+			// Pages the manifest shows unchanged are skipped, and pages that are gone are removed
+			if(commdLine.hasFlag("-path") && commdLine.hasValue("-path"))
+			{
+				Metrics.Timer timer = new Metrics.Timer(metrics, Metrics.Stage.BUILD);
+				Path root = Paths.get(commdLine.getString("-path"));
+				IndexManifest indexed = manifest;
+				SpillingIndex spilled = spill;
+				OffHeapIndex offHeaped = offHeap;
+				
+				FileIndexer indexer;
+				if(spilled != null)
+					indexer = file -> spilled.addAll(InvertedIndexBuilder.buildIndex(file, metrics));
+				else if(offHeaped != null)
+					indexer = file -> offHeaped.addAll(InvertedIndexBuilder.buildIndex(file, metrics));
+				else if(queue != null)
+					indexer = file -> indexFile(file, indexMap, indexed, true, metrics);
+				else
+					indexer = file -> indexFile(file, indexMap, indexed, false, metrics);
+				
+				if(queue != null)
+				{
+					traverseDirectory(root, include, metrics, indexer, queue);
+					queue.finish();
+				}
+				else
+					traverseDirectory(root, include, metrics, indexer);
+				
+				if(manifest != null)
+				{
+					for(String html : manifest.removeUnseen(root))
+						indexMap.remove(html);
+				}
+				timer.stop();
+			}
+			
+			// Write that index as JSON
+			if(commdLine.hasFlag("-index"))
+			{
+				// Getting JSON file if command line contains '-index'
+				Metrics.Timer timer = new Metrics.Timer(metrics, Metrics.Stage.INDEX);
+				String jsonFile = commdLine.getString("-index", "index.json");
+				if(spill != null)
+					spill.toJSON(Paths.get(jsonFile), commdLine.hasFlag("-compact"));
+				else if(offHeap != null)
+					offHeap.toJSON(Paths.get(jsonFile), commdLine.hasFlag("-compact"));
+				else
+					indexMap.toJSON(Paths.get(jsonFile), commdLine.hasFlag("-compact"));
+				timer.stop();
+			}
+			
+			// Save the index in binary form with its manifest so later runs can '-load' it
+			if(commdLine.hasFlag("-save"))
+			{
+				Metrics.Timer timer = new Metrics.Timer(metrics, Metrics.Stage.SAVE);
+				Path segment = Paths.get(commdLine.getString("-save", "index.bin"));
+				indexMap.save(segment);
+				manifest.write(IndexManifest.pathFor(segment));
+				timer.stop();
+			}
+			
+			// Do query search, partial or exact
+			// Cache repeated queries if command line contains '-cache', defaulting to 10000 queries
+			QueryCache cache = null;
+			if(commdLine.hasFlag("-cache"))
+				cache = new QueryCache(commdLine.getInteger("-cache", 10000));
+			
+			// Keep only the best results of each query if command line contains '-limit'
+			int limit = commdLine.hasFlag("-limit") ? commdLine.getInteger("-limit", 0) : 0;
+			// Search shard servers instead of the local index if command line contains '-shards host:port,...'
+			Searchable local = offHeap != null ? offHeap : indexMap;
+			Searchable searcher = local;
+			if(commdLine.hasFlag("-shards") && commdLine.hasValue("-shards"))
+			{
+				coordinator = ShardCoordinator.parse(commdLine.getString("-shards"));
+				searcher = coordinator;
+			}
+			
+			// Only return pages matching every query word if command line contains '-and'
+			QuerySearch query = new QuerySearch(searcher, cache, limit, commdLine.hasFlag("-and"), metrics);
+			
+			// Search quoted lines as phrases and 'word NEAR/k word' lines by proximity if command line contains '-phrases'
+			query.setPhrases(commdLine.hasFlag("-phrases"));
+			if(commdLine.hasFlag("-query") && commdLine.hasValue("-query"))
 			{
-				query.parseQuery(Paths.get(commdLine.getValue("-query")), commdLine.hasFlag("-exact"));
+				// Write each query's results as a JSON line once it is answered if command line contains '-results-stream', defaulting to results.jsonl
+				// Nothing is kept for '-results', so memory stays flat however many queries there are
+				Writer stream = null;
+				if(commdLine.hasFlag("-results-stream"))
+				{
+					stream = Files.newBufferedWriter(Paths.get(commdLine.getString("-results-stream", "results.jsonl")), StandardCharsets.UTF_8);
+					query.streamTo(stream);
+				}
+				
+				try
+				{
+					if(queue != null)
+						query.parseQuery(Paths.get(commdLine.getValue("-query")), commdLine.hasFlag("-exact"), queue);
+					else
+						query.parseQuery(Paths.get(commdLine.getValue("-query")), commdLine.hasFlag("-exact"));
+				}
+				catch(IOException e)
+				{
+					System.out.println("Unable to read query file");
+				}
+				finally
+				{
+					if(stream != null)
+					{
+						query.streamTo(null);
+						stream.close();
+					}
+				}
 			}
-			catch(IOException e)
+			
+			// Search results
+			if(commdLine.hasFlag("-results") && commdLine.hasFlag("-results-stream"))
+				System.out.println("Ignoring -results: results were streamed to " + commdLine.getString("-results-stream", "results.jsonl"));
+			else if(commdLine.hasFlag("-results"))
 			{
-				System.out.println("Unable to read query file");
+				Metrics.Timer timer = new Metrics.Timer(metrics, Metrics.Stage.RESULTS);
+				String searchResult = commdLine.getString("-results", "results.json");
+				query.toJSON(Paths.get(searchResult), commdLine.hasFlag("-compact"));			
+				timer.stop();
+			}
+			
+			// Write the metrics gathered so far; servers keep them current over JMX and /metrics
+			if(metrics != null)
+				JSONWriter.toMetricsFormat(metrics, Paths.get(commdLine.getString("-stats", "stats.json")), commdLine.hasFlag("-compact"));
+			
+			// Serve this index to a coordinator if command line contains '-shard port'; runs until the process is killed
+			if(commdLine.hasFlag("-shard"))
+			{
+				ShardServer server = new ShardServer(local, commdLine.getInteger("-shard", 0));
+				server.start();
+				System.out.println("Serving shard on port " + server.getPort());
+			}
+			
+			// Answer searches over HTTP if command line contains '-serve port'; runs until the process is killed
+			if(commdLine.hasFlag("-serve"))
+			{
+				SearchServer server = new SearchServer(searcher, commdLine.getInteger("-serve", 8080), cache, limit, commdLine.hasFlag("-and"), commdLine.hasFlag("-compact"), queue != null ? queue.size() : Runtime.getRuntime().availableProcessors(), metrics);
+				server.start();
+				System.out.println("Serving search on port " + server.getPort());
+			}
+			
+			// Keep the index up to date with the directory if command line contains '-watch'
+			if(commdLine.hasFlag("-watch") && commdLine.hasFlag("-path") && commdLine.hasValue("-path"))
+			{
+				IndexManifest watched = manifest;
+				try(DirectoryWatcher watcher = new DirectoryWatcher(indexMap, watched, include))
+				{
+					watcher.register(Paths.get(commdLine.getString("-path")));
+					watcher.watch(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							// Rewrite the index outputs after every batch of changes
+							try
+							{
+								if(commdLine.hasFlag("-index"))
+									indexMap.toJSON(Paths.get(commdLine.getString("-index", "index.json")), commdLine.hasFlag("-compact"));
+								
+								if(commdLine.hasFlag("-save"))
+								{
+									Path segment = Paths.get(commdLine.getString("-save", "index.bin"));
+									indexMap.save(segment);
+									watched.write(IndexManifest.pathFor(segment));
+								}
+							}
+							catch(IOException e)
+							{
+								throw new UncheckedIOException(e);
+							}
+						}
+					});
+				}
 			}
 		}
-		
-		// Search results
-		if(commdLine.hasFlag("-results"))
+		catch(UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+		finally
 		{
-			String searchResult = commdLine.getString("-results", "results.json");
-			query.toJSON(Paths.get(searchResult));			
+			if(queue != null)
+				queue.shutdown();
+			
+			if(spill != null)
+				spill.close();
+			
+			// A search server keeps using the shards after main returns
+			if(coordinator != null && !commdLine.hasFlag("-serve"))
+				coordinator.close();
 		}
 	}
 }
@@ -1,3 +1,4 @@
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,6 +16,30 @@ import java.util.regex.Pattern;
  */
 public class HTMLCleaner 
 {
+	private static final Pattern ENTITY = Pattern.compile("((?m)&[^\\s].*?;)");
+	private static final Pattern COMMENT = Pattern.compile("((?s)(<!--).*?(-->))");
+	private static final Pattern TAG = Pattern.compile("(?ms)(<.*?>)");
+
+	/** Element patterns by element name, starting with the elements stripHTML removes. */
+	private static final ConcurrentHashMap<String, Pattern> ELEMENTS = new ConcurrentHashMap<String, Pattern>();
+
+	static
+	{
+		for(String name : new String[] {"head", "style", "script"})
+			ELEMENTS.put(name, elementPattern(name));
+	}
+
+	/**
+	 * Compiles the pattern matching an element, its contents, and its end tag
+	 *
+	 * @param name
+	 *            name of the HTML element
+	 * @return pattern matching the whole element
+	 */
+	private static Pattern elementPattern(String name)
+	{
+		return Pattern.compile("(?is)<" + name + ".*?</" + name + "(\\s)*.*?>");
+	}
 
 	/**
 	 * Replaces all HTML entities with a single space. For example,
@@ -26,9 +51,7 @@ public class HTMLCleaner
 	 */
 	public static String stripEntities(String html) 
 	{
-		String regex = "((?m)&[^\\s].*?;)";
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(html);
+		Matcher matcher = ENTITY.matcher(html);
 		return matcher.replaceAll(" ");
 	}
 
@@ -42,9 +65,7 @@ public class HTMLCleaner
 	 */
 	public static String stripComments(String html) 
 	{
-		String regex = "((?s)(<!--).*?(-->))";
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(html);
+		Matcher matcher = COMMENT.matcher(html);
 		return matcher.replaceAll(" ");
 	}
 
@@ -58,9 +79,7 @@ public class HTMLCleaner
 	 */
 	public static String stripTags(String html) 
 	{
-		String regex = "(?ms)(<.*?>)";
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(html);
+		Matcher matcher = TAG.matcher(html);
 		return matcher.replaceAll(" ");
 	}
 
@@ -83,14 +102,14 @@ public class HTMLCleaner
 	 */
 	public static String stripElement(String html, String name) 
 	{
-		String regex = "(?is)<" + name + ".*?</" + name + "(\\s)*.*?>";
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(html);
+		Matcher matcher = ELEMENTS.computeIfAbsent(name, HTMLCleaner::elementPattern).matcher(html);
 		return matcher.replaceAll(" ");
 	}
 
 	/**
-	 * Removes all HTML (including any CSS and JavaScript).
+	 * Removes all HTML (including any CSS and JavaScript). Produces the same
+	 * text as stripping comments, then the head, style, and script elements,
+	 * then tags, then entities.
 	 *
 	 * @param html
 	 *            text including HTML to remove
@@ -98,15 +117,7 @@ public class HTMLCleaner
 	 */
 	public static String stripHTML(String html) 
 	{
-		html = stripComments(html);
-
-		html = stripElement(html, "head");
-		html = stripElement(html, "style");
-		html = stripElement(html, "script");
-
-		html = stripTags(html);
-		html = stripEntities(html);
-
-		return html;
+		// Same result as the strip methods above, applied in a single pass
+		return HTMLStreamCleaner.clean(html);
 	}
 }
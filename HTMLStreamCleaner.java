@@ -0,0 +1,456 @@
+/**
+ * Single-pass, character at a time HTML cleaner. Produces the same text as
+ * the regular expressions of {@link HTMLCleaner}, but reads the html once and
+ * hands the cleaned characters straight to a {@link Sink} instead of building
+ * a new String for every pass.
+ *
+ * Each regular expression of the old chain becomes a small state machine, and
+ * the machines are chained in the same order, each feeding its output to the
+ * next one character at a time:
+ *
+ * <ol>
+ * <li>comments are replaced by a single space</li>
+ * <li>head, then style, then script elements are replaced by a single
+ * space</li>
+ * <li>remaining tags are replaced by a single space</li>
+ * <li>entities are replaced by a single space</li>
+ * </ol>
+ *
+ * Text that might still turn out to be a comment, element, tag, or entity is
+ * held back until it is known. If its closing delimiter never comes, the held
+ * text is passed on unchanged, just like a regular expression that fails to
+ * match.
+ */
+public class HTMLStreamCleaner
+{
+	/**
+	 * Receives the cleaned text one character at a time
+	 */
+	public interface Sink
+	{
+		/**
+		 * Accepts the next character of cleaned text
+		 * @param c
+		 * 			next character
+		 */
+		void accept(char c);
+	}
+
+	/** First stage of the chain; every other stage is reached through it. */
+	private final Stage first;
+
+	/**
+	 * Initializes a cleaner that sends cleaned text to the sink
+	 * @param sink
+	 * 			receiver of the cleaned text
+	 */
+	public HTMLStreamCleaner(Sink sink)
+	{
+		Stage entities = new EntityStage(sink);
+		Stage tags = new TagStage(entities);
+		Stage script = new ElementStage("script", tags);
+		Stage style = new ElementStage("style", script);
+		Stage head = new ElementStage("head", style);
+		this.first = new CommentStage(head);
+	}
+
+	/**
+	 * Cleans the html and returns the remaining text
+	 * @param html
+	 * 			text including HTML to remove
+	 * @return
+	 * 		text without any HTML, CSS, or JavaScript
+	 */
+	public static String clean(String html)
+	{
+		StringBuilder text = new StringBuilder(html.length());
+		HTMLStreamCleaner cleaner = new HTMLStreamCleaner(c -> text.append(c));
+		cleaner.accept(html);
+		cleaner.finish();
+		return text.toString();
+	}
+
+	/**
+	 * Feeds every character of the text to the cleaner
+	 * @param html
+	 * 			next part of the html
+	 */
+	public void accept(CharSequence html)
+	{
+		for(int i = 0; i < html.length(); i++)
+			first.accept(html.charAt(i));
+	}
+
+	/**
+	 * Feeds a range of characters to the cleaner
+	 * @param html
+	 * 			buffer holding the next part of the html
+	 * @param offset
+	 * 			first character to feed
+	 * @param length
+	 * 			number of characters to feed
+	 */
+	public void accept(char[] html, int offset, int length)
+	{
+		for(int i = offset; i < offset + length; i++)
+			first.accept(html[i]);
+	}
+
+	/**
+	 * Feeds the next character of html to the cleaner
+	 * @param c
+	 * 			next character
+	 */
+	public void accept(char c)
+	{
+		first.accept(c);
+	}
+
+	/**
+	 * Signals the end of the document, passing on any held back text that
+	 * never found its closing delimiter. The cleaner is then ready for the
+	 * next document.
+	 */
+	public void finish()
+	{
+		first.finish();
+	}
+
+	/**
+	 * Lowercases ASCII letters only, like a case-insensitive regular expression
+	 * @param c
+	 * 			character to lowercase
+	 * @return
+	 * 		lowercase character
+	 */
+	private static char toLower(char c)
+	{
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	/**
+	 * One regular expression of the old chain. Characters that are not part of
+	 * a match are passed on to the next stage, and each match is replaced by a
+	 * single space.
+	 */
+	private static abstract class Stage
+	{
+		/** Text held back while a possible match is in progress. */
+		protected final StringBuilder pending = new StringBuilder();
+
+		protected final Stage next;
+
+		protected Stage(Stage next)
+		{
+			this.next = next;
+		}
+
+		protected abstract void accept(char c);
+
+		/**
+		 * Passes on the held back text as is, then finishes the next stage
+		 */
+		protected void finish()
+		{
+			release();
+			next.finish();
+		}
+
+		/**
+		 * Passes the held back text on unchanged and forgets it
+		 */
+		protected void release()
+		{
+			for(int i = 0; i < pending.length(); i++)
+				next.accept(pending.charAt(i));
+
+			pending.setLength(0);
+		}
+
+		/**
+		 * Drops the held back text and passes on a single space instead
+		 */
+		protected void replace()
+		{
+			pending.setLength(0);
+			next.accept(' ');
+		}
+	}
+
+	/**
+	 * Replaces "&lt;!--" up to the next "--&gt;" with a single space
+	 */
+	private static class CommentStage extends Stage
+	{
+		private static final String OPEN = "<!--";
+
+		/** Characters of the opening matched so far; 4 once inside a comment. */
+		private int matched;
+
+		/** Dashes seen in a row inside a comment, up to 2. */
+		private int dashes;
+
+		private CommentStage(Stage next)
+		{
+			super(next);
+		}
+
+		@Override
+		protected void accept(char c)
+		{
+			if(matched == OPEN.length())
+			{
+				pending.append(c);
+
+				if(c == '>' && dashes == 2)
+				{
+					matched = 0;
+					dashes = 0;
+					replace();
+				}
+				else if(c == '-')
+					dashes = Math.min(2, dashes + 1);
+				else
+					dashes = 0;
+
+				return;
+			}
+
+			if(matched > 0 && c == OPEN.charAt(matched))
+			{
+				pending.append(c);
+				matched++;
+				return;
+			}
+
+			if(matched > 0)
+			{
+				matched = 0;
+				release();
+			}
+
+			if(c == '<')
+			{
+				pending.append(c);
+				matched = 1;
+			}
+			else
+				next.accept(c);
+		}
+
+		@Override
+		protected void finish()
+		{
+			// An unclosed comment means no later comment can close either
+			matched = 0;
+			dashes = 0;
+			super.finish();
+		}
+	}
+
+	/**
+	 * Replaces "&lt;name" up to the first "&gt;" after the next
+	 * "&lt;/name", ignoring case, with a single space
+	 */
+	private static class ElementStage extends Stage
+	{
+		private final String open;
+		private final String close;
+
+		/** Characters of the opening matched so far. */
+		private int opened;
+
+		/** Characters of the closing matched so far, once opened. */
+		private int closed;
+
+		private ElementStage(String name, Stage next)
+		{
+			super(next);
+			this.open = "<" + name;
+			this.close = "</" + name;
+		}
+
+		@Override
+		protected void accept(char c)
+		{
+			char lower = toLower(c);
+
+			if(opened == open.length())
+			{
+				pending.append(c);
+
+				if(closed == close.length())
+				{
+					if(c == '>')
+					{
+						opened = 0;
+						closed = 0;
+						replace();
+					}
+				}
+				else if(lower == close.charAt(closed))
+					closed++;
+				else
+					closed = c == '<' ? 1 : 0;
+
+				return;
+			}
+
+			if(opened > 0 && lower == open.charAt(opened))
+			{
+				pending.append(c);
+				opened++;
+				return;
+			}
+
+			if(opened > 0)
+			{
+				opened = 0;
+				release();
+			}
+
+			if(c == '<')
+			{
+				pending.append(c);
+				opened = 1;
+			}
+			else
+				next.accept(c);
+		}
+
+		@Override
+		protected void finish()
+		{
+			// An unclosed element means no later element can close either
+			opened = 0;
+			closed = 0;
+			super.finish();
+		}
+	}
+
+	/**
+	 * Replaces "&lt;" up to the next "&gt;" with a single space
+	 */
+	private static class TagStage extends Stage
+	{
+		private TagStage(Stage next)
+		{
+			super(next);
+		}
+
+		@Override
+		protected void accept(char c)
+		{
+			if(pending.length() > 0)
+			{
+				pending.append(c);
+				if(c == '>')
+					replace();
+			}
+			else if(c == '<')
+				pending.append(c);
+			else
+				next.accept(c);
+		}
+	}
+
+	/**
+	 * Replaces "&amp;" followed by a non-space character and anything up to
+	 * the next ";" on the same line with a single space
+	 */
+	private static class EntityStage extends Stage
+	{
+		private final Sink sink;
+
+		private EntityStage(Sink sink)
+		{
+			super(null);
+			this.sink = sink;
+		}
+
+		@Override
+		protected void accept(char c)
+		{
+			int length = pending.length();
+
+			if(length == 0)
+			{
+				if(c == '&')
+					pending.append(c);
+				else
+					sink.accept(c);
+			}
+			else if(length == 1)
+			{
+				if(isSpace(c))
+				{
+					release();
+					sink.accept(c);
+				}
+				else
+					pending.append(c);
+			}
+			else if(c == ';')
+			{
+				pending.setLength(0);
+				sink.accept(' ');
+			}
+			else if(isLineTerminator(c))
+			{
+				if(pending.charAt(length - 1) == '&' && !isSpace(c))
+				{
+					// A trailing "&" may still start an entity with this character
+					pending.setLength(length - 1);
+					release();
+					pending.append('&').append(c);
+				}
+				else
+				{
+					release();
+					sink.accept(c);
+				}
+			}
+			else
+				pending.append(c);
+		}
+
+		@Override
+		protected void finish()
+		{
+			release();
+		}
+
+		@Override
+		protected void release()
+		{
+			for(int i = 0; i < pending.length(); i++)
+				sink.accept(pending.charAt(i));
+
+			pending.setLength(0);
+		}
+
+		/**
+		 * Checks if the character is whitespace as matched by "\s"
+		 * @param c
+		 * 			character to check
+		 * @return
+		 * 		true if the character is whitespace
+		 */
+		private static boolean isSpace(char c)
+		{
+			return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+		}
+
+		/**
+		 * Checks if the character ends a line as far as "." is concerned
+		 * @param c
+		 * 			character to check
+		 * @return
+		 * 		true if the character is a line terminator
+		 */
+		private static boolean isLineTerminator(char c)
+		{
+			return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+		}
+	}
+}
@@ -0,0 +1,270 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Thread-safe record of the size, modification time, and content hash of
+ * every html page in an index, saved next to a binary segment so that a later
+ * run can tell which pages changed. A page whose size and modification time
+ * match is assumed unchanged without being read. A page whose modification
+ * time changed but whose content hash still matches, for example after a
+ * copy or a touch, is not parsed again either.
+ *
+ * Numbers are big-endian and strings are a length followed by UTF8.
+ *
+ * <pre>
+ * magic, version, entry count
+ * each entry: path, size, modification time in milliseconds, CRC32C hash
+ * </pre>
+ */
+public class IndexManifest
+{
+	/** Marks the start of a manifest file: "IMAN". */
+	private static final int MAGIC = 0x494D414E;
+	private static final int VERSION = 1;
+
+	/** Size of the buffer files are hashed through. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final ConcurrentHashMap<String, Entry> entries;
+
+	/** Pages checked or updated since the manifest was created or read. */
+	private final Set<String> seen;
+
+	/**
+	 * Initializes an empty manifest
+	 */
+	public IndexManifest()
+	{
+		this.entries = new ConcurrentHashMap<String, Entry>();
+		this.seen = ConcurrentHashMap.newKeySet();
+	}
+
+	/**
+	 * Returns the path of the manifest kept next to a binary segment
+	 * @param segment
+	 * 			path of the segment
+	 * @return
+	 * 		path of its manifest
+	 */
+	public static Path pathFor(Path segment)
+	{
+		return segment.resolveSibling(segment.getFileName() + ".manifest");
+	}
+
+	/**
+	 * Checks if the page was recorded in the manifest
+	 * @param path
+	 * 			path of the html page
+	 * @return
+	 * 		true if the page has an entry
+	 */
+	public boolean contains(Path path)
+	{
+		return entries.containsKey(path.toString());
+	}
+
+	/**
+	 * Checks if the page still matches its entry, reading it to compare hashes
+	 * only if its size matches but its modification time does not. The page
+	 * is marked as seen either way.
+	 * @param path
+	 * 			path of the html page
+	 * @param attributes
+	 * 			attributes of the page, read before it is indexed
+	 * @return
+	 * 		true if the page has an entry and has not changed
+	 * @throws IOException
+	 */
+	public boolean isUnchanged(Path path, BasicFileAttributes attributes) throws IOException
+	{
+		String html = path.toString();
+		seen.add(html);
+
+		Entry entry = entries.get(html);
+		if(entry == null)
+			return false;
+
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+
+		if(entry.size != size)
+			return false;
+
+		if(entry.modified == modified)
+			return true;
+
+		if(entry.hash != hash(path))
+			return false;
+
+		entries.put(html, new Entry(size, modified, entry.hash));
+		return true;
+	}
+
+	/**
+	 * Records the size, modification time, and hash of the page as it was
+	 * indexed and marks it as seen. The attributes should be read before the
+	 * page is, so a change made while it is being indexed is caught next time.
+	 * @param path
+	 * 			path of the html page
+	 * @param attributes
+	 * 			attributes of the page, read before it was indexed
+	 * @param hash
+	 * 			CRC32C hash of the bytes that were indexed
+	 */
+	public void update(Path path, BasicFileAttributes attributes, long hash)
+	{
+		String html = path.toString();
+		seen.add(html);
+		entries.put(html, new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), hash));
+	}
+
+	/**
+	 * Removes the entry of the page
+	 * @param path
+	 * 			path of the html page
+	 */
+	public void remove(Path path)
+	{
+		entries.remove(path.toString());
+	}
+
+	/**
+	 * Removes and returns every entry at or below the root that has not been
+	 * seen, which are the pages deleted since the manifest was written
+	 * @param root
+	 * 			file or directory that was traversed
+	 * @return
+	 * 		paths of the pages that were not seen
+	 */
+	public ArrayList<String> removeUnseen(Path root)
+	{
+		String html = root.toString();
+		String prefix = html.endsWith(File.separator) ? html : html + File.separator;
+
+		ArrayList<String> unseen = new ArrayList<String>();
+		for(String path : entries.keySet())
+		{
+			if(!seen.contains(path) && (path.equals(html) || path.startsWith(prefix)))
+			{
+				entries.remove(path);
+				unseen.add(path);
+			}
+		}
+		return unseen;
+	}
+
+	/**
+	 * Returns the number of pages in the manifest
+	 * @return
+	 * 		number of entries
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Hashes the contents of the file with CRC32C
+	 * @param path
+	 * 			path of the file
+	 * @return
+	 * 		hash of the file
+	 * @throws IOException
+	 */
+	private static long hash(Path path) throws IOException
+	{
+		CRC32C crc = new CRC32C();
+		try(InputStream in = Files.newInputStream(path))
+		{
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int length;
+			while((length = in.read(buffer)) != -1)
+				crc.update(buffer, 0, length);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Writes the manifest to the path
+	 * @param path
+	 * 			path to write file
+	 * @throws IOException
+	 */
+	public void write(Path path) throws IOException
+	{
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE)))
+		{
+			ArrayList<String> paths = new ArrayList<String>(entries.keySet());
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(paths.size());
+			for(String html : paths)
+			{
+				Entry entry = entries.get(html);
+				byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.writeLong(entry.size);
+				out.writeLong(entry.modified);
+				out.writeLong(entry.hash);
+			}
+		}
+	}
+
+	/**
+	 * Reads a manifest written by {@link #write(Path)}
+	 * @param path
+	 * 			path to manifest file
+	 * @return
+	 * 		manifest read from the file
+	 * @throws IOException
+	 */
+	public static IndexManifest read(Path path) throws IOException
+	{
+		IndexManifest manifest = new IndexManifest();
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)))
+		{
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not an index manifest: " + path);
+
+			int count = in.readInt();
+			for(int i = 0; i < count; i++)
+			{
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				manifest.entries.put(new String(bytes, StandardCharsets.UTF_8), new Entry(in.readLong(), in.readLong(), in.readLong()));
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * Size, modification time, and hash of a page when it was indexed
+	 */
+	private static class Entry
+	{
+		private final long size;
+		private final long modified;
+		private final long hash;
+
+		private Entry(long size, long modified, long hash)
+		{
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+}
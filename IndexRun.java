@@ -0,0 +1,422 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Reads and writes sorted runs: part of an inverted index written to disk so
+ * the memory holding it can be reused, as done by {@link SpillingIndex}. A run
+ * is only ever written from start to end and read from start to end, so both
+ * go through a plain buffer with no seeking. Numbers are variable-byte encoded
+ * like the deltas of a {@link PositionList}, and strings are a length
+ * followed by UTF8.
+ *
+ * <pre>
+ * magic, version
+ * document count, then each document path in id order
+ * for each word in sorted order:
+ *     1, word, page count
+ *     for each page in path order: document id, position count, position deltas
+ * 0
+ * </pre>
+ */
+public class IndexRun
+{
+	/** Marks the start of a run file: "IRUN". */
+	private static final int MAGIC = 0x4952554E;
+	private static final int VERSION = 1;
+
+	/** Size of the read and write buffers. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Writes every word of the index to the path as a sorted run
+	 * @param index
+	 * 			index to write
+	 * @param path
+	 * 			path to write file
+	 * @throws IOException
+	 */
+	public static void write(InvertedIndex index, Path path) throws IOException
+	{
+		try(Output out = new Output(Files.newOutputStream(path)))
+		{
+			out.writeNumber(MAGIC);
+			out.writeNumber(VERSION);
+
+			DocumentTable documents = index.getDocuments();
+			int count = documents.size();
+			out.writeNumber(count);
+			for(int id = 0; id < count; id++)
+				out.writeString(documents.getPath(id));
+
+			PageWriter pages = new PageWriter(out, documents);
+			for(String word : index.getWords())
+			{
+				out.write(1);
+				out.writeString(word);
+				out.writeNumber(index.numLocations(word));
+				index.visitLocations(word, pages);
+			}
+			out.write(0);
+		}
+	}
+
+	/**
+	 * Writes each page of a word to a run as its id and encoded positions
+	 */
+	private static class PageWriter implements InvertedIndex.LocationVisitor
+	{
+		private final Output out;
+		private final DocumentTable documents;
+
+		private PageWriter(Output out, DocumentTable documents)
+		{
+			this.out = out;
+			this.documents = documents;
+		}
+
+		@Override
+		public void visit(String html, int[] positions, int count) throws IOException
+		{
+			out.writeNumber(documents.getId(html));
+			out.writeNumber(count);
+
+			int previous = 0;
+			for(int i = 0; i < count; i++)
+			{
+				out.writeNumber(positions[i] - previous);
+				previous = positions[i];
+			}
+		}
+	}
+
+	/**
+	 * Reads a run one word at a time. Only the document table and the pages
+	 * of the current word are held in memory.
+	 */
+	public static class Reader implements AutoCloseable
+	{
+		private final Input in;
+		private final String[] paths;
+
+		private String word;
+		private int pages;
+		private int[] documents;
+		private int[] counts;
+		private int[][] positions;
+
+		/**
+		 * Opens the run at the path and reads its document table. The reader is
+		 * not on a word until {@link #next()} is called.
+		 * @param path
+		 * 			path to run file
+		 * @throws IOException
+		 */
+		public Reader(Path path) throws IOException
+		{
+			this.in = new Input(Files.newInputStream(path));
+			try
+			{
+				if(in.readNumber() != MAGIC || in.readNumber() != VERSION)
+					throw new IOException("Not an index run: " + path);
+
+				this.paths = new String[in.readNumber()];
+				for(int id = 0; id < paths.length; id++)
+					paths[id] = in.readString();
+			}
+			catch(IOException e)
+			{
+				in.close();
+				throw e;
+			}
+
+			this.word = null;
+			this.pages = 0;
+			this.documents = new int[16];
+			this.counts = new int[16];
+			this.positions = new int[16][];
+		}
+
+		/**
+		 * Moves to the next word and reads its pages
+		 * @return
+		 * 		true if there was another word, false at the end of the run
+		 * @throws IOException
+		 */
+		public boolean next() throws IOException
+		{
+			int marker = in.read();
+			if(marker < 0)
+				throw new IOException("Index run ends before its last word");
+
+			if(marker == 0)
+			{
+				word = null;
+				pages = 0;
+				return false;
+			}
+
+			word = in.readString();
+			pages = in.readNumber();
+			if(pages > documents.length)
+			{
+				int length = Math.max(pages, documents.length * 2);
+				documents = Arrays.copyOf(documents, length);
+				counts = Arrays.copyOf(counts, length);
+				positions = Arrays.copyOf(positions, length);
+			}
+
+			for(int i = 0; i < pages; i++)
+			{
+				documents[i] = in.readNumber();
+				int count = in.readNumber();
+				counts[i] = count;
+
+				// Position arrays are kept from word to word and only grow
+				int[] list = positions[i];
+				if(list == null || list.length < count)
+				{
+					list = new int[Math.max(count, 16)];
+					positions[i] = list;
+				}
+
+				int position = 0;
+				for(int j = 0; j < count; j++)
+				{
+					position += in.readNumber();
+					list[j] = position;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the current word
+		 * @return
+		 * 		current word, or null before the first or after the last
+		 */
+		public String getWord()
+		{
+			return word;
+		}
+
+		/**
+		 * Returns the number of pages of the current word
+		 * @return
+		 * 		number of pages
+		 */
+		public int size()
+		{
+			return pages;
+		}
+
+		/**
+		 * Returns the path of a page of the current word. Pages are in path
+		 * order.
+		 * @param index
+		 * 			index of the page, below {@link #size()}
+		 * @return
+		 * 		path of the page
+		 */
+		public String getPath(int index)
+		{
+			return paths[documents[index]];
+		}
+
+		/**
+		 * Passes a page of the current word and its positions to the visitor
+		 * @param index
+		 * 			index of the page, below {@link #size()}
+		 * @param visitor
+		 * 			visitor to call
+		 * @throws IOException
+		 * 			if the visitor throws one
+		 */
+		public void visit(int index, InvertedIndex.LocationVisitor visitor) throws IOException
+		{
+			visitor.visit(getPath(index), positions[index], counts[index]);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Buffered output of bytes, numbers, and strings
+	 */
+	private static class Output implements AutoCloseable
+	{
+		private final OutputStream out;
+		private final byte[] buffer;
+		private int length;
+
+		private Output(OutputStream out)
+		{
+			this.out = out;
+			this.buffer = new byte[BUFFER_SIZE];
+			this.length = 0;
+		}
+
+		private void write(int b) throws IOException
+		{
+			if(length == buffer.length)
+				flush();
+
+			buffer[length++] = (byte) b;
+		}
+
+		/**
+		 * Writes a number that is not negative, 7 bits per byte, low bits first
+		 */
+		private void writeNumber(int value) throws IOException
+		{
+			if(length + 5 > buffer.length)
+				flush();
+
+			length = PositionList.writeNumber(buffer, length, value);
+		}
+
+		private void writeString(String text) throws IOException
+		{
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+			writeNumber(bytes.length);
+			if(length + bytes.length > buffer.length)
+			{
+				flush();
+				if(bytes.length > buffer.length)
+				{
+					out.write(bytes);
+					return;
+				}
+			}
+
+			System.arraycopy(bytes, 0, buffer, length, bytes.length);
+			length += bytes.length;
+		}
+
+		private void flush() throws IOException
+		{
+			out.write(buffer, 0, length);
+			length = 0;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				flush();
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Buffered input of bytes, numbers, and strings written by {@link Output}
+	 */
+	private static class Input implements AutoCloseable
+	{
+		private final InputStream in;
+		private final byte[] buffer;
+		private int position;
+		private int length;
+
+		private Input(InputStream in)
+		{
+			this.in = in;
+			this.buffer = new byte[BUFFER_SIZE];
+			this.position = 0;
+			this.length = 0;
+		}
+
+		/**
+		 * Reads the next byte
+		 * @return
+		 * 		next byte, or -1 at the end of the file
+		 */
+		private int read() throws IOException
+		{
+			if(!fill(1))
+				return -1;
+
+			return buffer[position++] & 0xFF;
+		}
+
+		/**
+		 * Refills the buffer until it holds the needed number of unread
+		 * bytes, moving the unread bytes to its start first
+		 * @param needed
+		 * 			number of unread bytes wanted, at most the buffer size
+		 * @return
+		 * 		true if there are that many, false if the file ends first
+		 */
+		private boolean fill(int needed) throws IOException
+		{
+			if(length - position >= needed)
+				return true;
+
+			System.arraycopy(buffer, position, buffer, 0, length - position);
+			length -= position;
+			position = 0;
+			while(length < needed)
+			{
+				int read = in.read(buffer, length, buffer.length - length);
+				if(read < 0)
+					return false;
+
+				length += read;
+			}
+			return true;
+		}
+
+		private int readNumber() throws IOException
+		{
+			// A number takes at most 5 bytes, though fewer may be left at the end of the file
+			fill(5);
+			int end = position;
+			while(end < length && end - position < 5 && buffer[end] < 0)
+				end++;
+
+			if(end == length || end - position == 5)
+				throw new IOException("Index run ends in the middle of a number");
+
+			int value = PositionList.readNumber(buffer, position);
+			position += PositionList.numberSize(value);
+			return value;
+		}
+
+		private String readString() throws IOException
+		{
+			byte[] bytes = new byte[readNumber()];
+			int read = 0;
+			while(read < bytes.length)
+			{
+				if(!fill(1))
+					throw new IOException("Index run ends in the middle of a string");
+
+				int available = Math.min(length - position, bytes.length - read);
+
+				System.arraycopy(buffer, position, bytes, read, available);
+				position += available;
+				read += available;
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			in.close();
+		}
+	}
+}
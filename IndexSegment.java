@@ -0,0 +1,206 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads and writes an inverted index as a compact binary segment file. All
+ * numbers are big-endian ints except the trailing offset, which is a long, and
+ * strings are a length followed by UTF8.
+ *
+ * <pre>
+ * magic, version
+ * postings of every word, one after another
+ * document count, then each document path in id order
+ * word count, then each word and the offset of its postings
+ * offset of the document table (last 8 bytes of the file)
+ * </pre>
+ *
+ * Loading maps the file with {@link FileChannel#map}. The document table and
+ * words are read up front, but postings stay in the mapped file until a word
+ * is first used, so the operating system pages them in on demand.
+ *
+ * The mapping only saves work until the postings are needed:
+ * <ul>
+ * <li>A word's postings are copied out of the mapping into the heap the
+ * first time the word is used, and stay there.</li>
+ * <li>The first page removed or replaced lists the words of every page, which
+ * decodes the postings of every word at once.</li>
+ * <li>A segment is one mapping with int offsets, so segments over 2GB can be
+ * neither written nor loaded.</li>
+ * </ul>
+ * The heap must therefore still fit every postings list that gets used, and
+ * the whole index once pages are removed.
+ */
+public class IndexSegment
+{
+	/** Marks the start of a segment file: "IIDX". */
+	private static final int MAGIC = 0x49494458;
+	private static final int VERSION = 1;
+
+	/**
+	 * Writes the index to the path as a binary segment. The segment is written
+	 * to a temporary file first and then moved over the path, so an index
+	 * loaded from that same path keeps reading its old mapping.
+	 * @param index
+	 * 			index to write
+	 * @param path
+	 * 			path to write file
+	 * @throws IOException
+	 */
+	public static void write(InvertedIndex index, Path path) throws IOException
+	{
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try
+		{
+			writeSegment(index, temporary);
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Writes the index to the path as a binary segment, replacing the file
+	 * @param index
+	 * 			index to write
+	 * @param path
+	 * 			path to write file
+	 * @throws IOException
+	 */
+	private static void writeSegment(InvertedIndex index, Path path) throws IOException
+	{
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			// Postings come first so the offset of each word is known before the dictionary
+			ArrayList<String> dictionary = new ArrayList<String>();
+			int[] offsets = new int[1024];
+			for(String word : index.getWords())
+			{
+				if(dictionary.size() == offsets.length)
+					offsets = Arrays.copyOf(offsets, offsets.length * 2);
+
+				offsets[dictionary.size()] = out.size();
+				dictionary.add(word);
+				index.writePostings(word, out);
+				checkSize(out);
+			}
+
+			long tableOffset = out.size();
+			DocumentTable documents = index.getDocuments();
+			int count = documents.size();
+			out.writeInt(count);
+			for(int id = 0; id < count; id++)
+				writeString(documents.getPath(id), out);
+
+			out.writeInt(dictionary.size());
+			for(int i = 0; i < dictionary.size(); i++)
+			{
+				writeString(dictionary.get(i), out);
+				out.writeInt(offsets[i]);
+			}
+
+			out.writeLong(tableOffset);
+			checkSize(out);
+		}
+	}
+
+	/**
+	 * Maps the segment at the path and reads it into a new index
+	 * @param path
+	 * 			path to segment file
+	 * @return
+	 * 		index backed by the segment
+	 * @throws IOException
+	 */
+	public static InvertedIndex read(Path path) throws IOException
+	{
+		MappedByteBuffer segment;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Index segment exceeds 2GB: " + path);
+			if(channel.size() < 16)
+				throw new IOException("Not an index segment: " + path);
+
+			segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if(segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION)
+			throw new IOException("Not an index segment: " + path);
+
+		ByteBuffer in = segment.duplicate();
+		in.position((int) segment.getLong(segment.limit() - 8));
+
+		InvertedIndex index = new InvertedIndex();
+		DocumentTable documents = index.getDocuments();
+		int count = in.getInt();
+		for(int id = 0; id < count; id++)
+			documents.add(readString(in));
+
+		int words = in.getInt();
+		for(int i = 0; i < words; i++)
+		{
+			String word = readString(in);
+			index.putPostings(word, new Postings(segment, in.getInt()));
+		}
+
+		return index;
+	}
+
+	/**
+	 * Writes a string as its UTF8 length followed by its UTF8 bytes
+	 * @param text
+	 * 			text to write
+	 * @param out
+	 * 			output to write to
+	 * @throws IOException
+	 */
+	private static void writeString(String text, DataOutputStream out) throws IOException
+	{
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(String, DataOutputStream)}
+	 * @param in
+	 * 			buffer positioned at the string
+	 * @return
+	 * 		string read from the buffer
+	 */
+	private static String readString(ByteBuffer in)
+	{
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Makes sure the segment still fits in a single mapped buffer
+	 * @param out
+	 * 			output being written
+	 * @throws IOException
+	 */
+	private static void checkSize(DataOutputStream out) throws IOException
+	{
+		// DataOutputStream stops counting at Integer.MAX_VALUE
+		if(out.size() == Integer.MAX_VALUE)
+			throw new IOException("Index segment exceeds 2GB");
+	}
+}
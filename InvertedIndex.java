@@ -1,23 +1,138 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
-public class InvertedIndex 
+/**
+ * Thread-safe inverted index mapping each word to the html pages it was found
+ * in, and each page to the positions of the word within it. Pages are stored
+ * by the dense ids of a {@link DocumentTable} and only resolved back to paths
+ * for output, and positions are kept as compact {@link PositionList}s.
+ *
+ * The word dictionary is a concurrent skip list, so walking words never
+ * blocks. The locations of each word are guarded by one of a fixed set of
+ * read/write locks picked by the word's hash, so readers and writers only
+ * contend when they touch words on the same stripe.
+ *
+ * Pages can be removed or replaced as a whole. Those updates touch many words
+ * at once, so they hold a separate update lock that searches share, and a
+ * search sees either the old or the new version of a page, never a mix. Once
+ * a page has been removed, the index also keeps the words of every page, so
+ * later removals only visit the words of the page removed.
+ *
+ * Partial search looks prefixes up in a front-coded copy of the dictionary,
+ * built the first time it is needed. Words added after that are kept aside
+ * in a small sorted set until there are enough of them to rebuild it.
+ */
+public class InvertedIndex implements Searchable
 {
-	private TreeMap<String, TreeMap<String, TreeSet<Integer>>> invertedIndex;
+	/** Number of lock stripes; must be a power of two. */
+	private static final int STRIPES = 64;
 	
+	/** Words added or removed before the prefix snapshot is rebuilt, at the least. */
+	private static final int PREFIX_CHANGES = 1024;
+
+	private final ConcurrentSkipListMap<String, Postings> invertedIndex;
+	private final DocumentTable documents;
+	private final ReentrantReadWriteLock[] locks;
+	
+	/** Held exclusively while a page is removed or replaced, and shared by searches. */
+	private final ReentrantReadWriteLock updateLock;
+	
+	/** Bumped on every modification so cached search results can tell they are stale. */
+	private final AtomicLong version;
+	
+	/** Front-coded copy of the dictionary for partial search, with the words added since; null until first needed. */
+	private volatile PrefixSnapshot prefixes;
+	
+	/** Words added to the dictionary since the prefix snapshot was last built; null until it is first built. */
+	private volatile ConcurrentSkipListSet<String> addedWords;
+	
+	/** Number of words added or removed since the prefix snapshot was last built. */
+	private final AtomicInteger wordChanges;
+	
+	/** Held while the prefix snapshot is built. */
+	private final ReentrantLock prefixLock;
+	
+	/** Words found in each page, by document id; null until a page is first removed. */
+	private volatile ConcurrentHashMap<Integer, ArrayList<String>> pageWords;
+
 	public InvertedIndex()
 	{
-		this.invertedIndex = new TreeMap<String, TreeMap<String, TreeSet<Integer>>>();
+		this.invertedIndex = new ConcurrentSkipListMap<String, Postings>();
+		this.documents = new DocumentTable();
+		this.locks = new ReentrantReadWriteLock[STRIPES];
+
+		for(int i = 0; i < STRIPES; i++)
+			locks[i] = new ReentrantReadWriteLock();
+		
+		this.updateLock = new ReentrantReadWriteLock();
+		this.version = new AtomicLong();
+		this.wordChanges = new AtomicInteger();
+		this.prefixLock = new ReentrantLock();
 	}
 	
-	public TreeMap<String,TreeMap<String,TreeSet<Integer>>> getIndex()
+	/**
+	 * Returns the current version of the index. The version changes whenever
+	 * words are added, so results computed at an older version may be stale.
+	 * @return
+	 * 		current version of the index
+	 */
+	@Override
+	public long getVersion()
 	{
-		return this.invertedIndex;
+		return version.get();
 	}
 	
+	/**
+	 * Changes the version once for the words added with
+	 * {@link #addWord(String, String, int)} or
+	 * {@link #addWord(String, String, PositionList)} since the last call
+	 */
+	void markModified()
+	{
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Returns the lock guarding the locations of the word
+	 * @param word
+	 * 			word to find the lock for
+	 * @return
+	 * 		lock stripe for the word
+	 */
+	private ReentrantReadWriteLock lockFor(String word)
+	{
+		return locks[stripeFor(word)];
+	}
+
+	/**
+	 * Returns the index of the lock stripe guarding the word
+	 * @param word
+	 * 			word to find the stripe for
+	 * @return
+	 * 		index into the locks
+	 */
+	private static int stripeFor(String word)
+	{
+		int hash = word.hashCode();
+		return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+	}
+
 	/**
 	 * Adds the array of words at once, assuming the first word in the array is
 	 * at the provided starting position
@@ -29,14 +144,34 @@ public class InvertedIndex
 	 */
 	public void addAll(String[] words, String html) 
 	{
-		int position = 1;
+		addAll(words, html, 1);
+	}
+	
+	/**
+	 * Adds the array of words at once, assuming the first word in the array is
+	 * at the provided starting position. Lets a page be added a piece at a time.
+	 * @param words
+	 * 			array of words to add
+	 * @param html
+	 * 			html page the words were found in
+	 * @param start
+	 * 			position of the first word
+	 * @return
+	 * 		position of the word following the last one added
+	 */
+	public int addAll(String[] words, String html, int start)
+	{
+		int document = documents.add(html);
+		int position = start;
 		for(String w : words)
 		{
-			add(w, html, position);
+			add(w, document, position);
 			position++;
 		}
+		version.incrementAndGet();
+		return position;
 	}
-	
+
 	/**
 	 * Adds the word, the html page, and the position it was found to the index.
 	 *
@@ -47,89 +182,1440 @@ public class InvertedIndex
 	 */
 	public void add(String word, String html, int position)
 	{
-		if(invertedIndex.get(word) == null)
-			invertedIndex.put(word, new TreeMap<String, TreeSet<Integer>>());
+		addWord(word, html, position);
+		version.incrementAndGet();
+	}
+	
+	/**
+	 * Adds the word like {@link #add(String, String, int)} but leaves the
+	 * version alone, so that a page parsed a word at a time changes it once
+	 * rather than once per word. Callers must call {@link #markModified()}
+	 * once they are done.
+	 * @param word
+	 * 			word to add to index
+	 * @param html
+	 * 			html page the word was found in
+	 * @param position
+	 * 			position word was found
+	 */
+	void addWord(String word, String html, int position)
+	{
+		add(word, documents.add(html), position);
+	}
+	
+	/**
+	 * Adds every position of the word in the html page at once. The positions
+	 * are copied, so the caller may reuse the list afterwards.
+	 * @param word
+	 * 			word to add to index
+	 * @param html
+	 * 			html page the word was found in
+	 * @param positions
+	 * 			positions the word was found at
+	 */
+	public void add(String word, String html, PositionList positions)
+	{
+		if(positions.isEmpty())
+			return;
 		
-		if(invertedIndex.get(word).get(html) == null)
-			invertedIndex.get(word).put(html, new TreeSet<Integer>());
+		addWord(word, html, positions);
+		version.incrementAndGet();
+	}
+	
+	/**
+	 * Adds every position of the word like
+	 * {@link #add(String, String, PositionList)} but leaves the version alone.
+	 * Callers must call {@link #markModified()} once they are done.
+	 * @param word
+	 * 			word to add to index
+	 * @param html
+	 * 			html page the word was found in
+	 * @param positions
+	 * 			positions the word was found at
+	 */
+	void addWord(String word, String html, PositionList positions)
+	{
+		if(positions.isEmpty())
+			return;
 		
-		invertedIndex.get(word).get(html).add(position);
+		int document = documents.add(html);
+		ReentrantReadWriteLock lock = lockFor(word);
+		lock.writeLock().lock();
+		try
+		{
+			Postings postings = postingsFor(word);
+			boolean added = pageWords != null && postings.get(document) == null;
+			postings.merge(document, positions);
+			if(added)
+				recordPage(word, document);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
 	}
 	
 	/**
-	 * searchHelper for the searching method
+	 * Adds the word, the id of the html page, and the position it was found to
+	 * the index.
 	 * @param word
-	 * 			word to input
-	 * @param searchResults
-	 * 			SearchResults arrayList 
-	 * @param searchMap
-	 * 			SearchResults hashmap
+	 * 			word to add to index
+	 * @param document
+	 * 			id of the html page in the document table
+	 * @param position
+	 * 			position word was found
 	 */
-	private void searchHelper(String word, ArrayList<SearchResult> searchResults, HashMap<String, SearchResult> searchMap)
+	private void add(String word, int document, int position)
 	{
-		TreeMap<String, TreeSet<Integer>> pathAndPositions = invertedIndex.get(word);
-		for(String path : pathAndPositions.keySet())
+		ReentrantReadWriteLock lock = lockFor(word);
+		lock.writeLock().lock();
+		try
 		{
-			int count = pathAndPositions.get(path).size();
-			int position = pathAndPositions.get(path).first();
-			
-			if(searchMap.containsKey(path))
-				searchMap.get(path).update(count, position);
-			else
+			Postings postings = postingsFor(word);
+			boolean added = pageWords != null && postings.get(document) == null;
+			postings.getOrCreate(document).add(position);
+			if(added)
+				recordPage(word, document);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Merges every word, html page, and position from another index into this
+	 * one. Lets a worker build a private index for a single file and publish it
+	 * with one lock acquisition per word instead of one per position. The other
+	 * index should not be modified while it is being merged.
+	 *
+	 * @param other
+	 *            index to merge into this index
+	 */
+	public void addAll(InvertedIndex other)
+	{
+		// Translate the other index's document ids into ids in this index
+		int[] remap = new int[other.documents.size()];
+		for(int i = 0; i < remap.length; i++)
+			remap[i] = documents.add(other.documents.getPath(i));
+		
+		for(String word : other.invertedIndex.keySet())
+		{
+			Postings source = other.invertedIndex.get(word);
+			ReentrantReadWriteLock lock = lockFor(word);
+			lock.writeLock().lock();
+			try
+			{
+				Postings postings = postingsFor(word);
+				for(int i = 0; i < source.size(); i++)
+				{
+					int document = remap[source.getDocument(i)];
+					boolean added = pageWords != null && postings.get(document) == null;
+					postings.merge(document, source.getPositions(i));
+					if(added)
+						recordPage(word, document);
+				}
+			}
+			finally
 			{
-				searchMap.put(path, new SearchResult(count, position, path));
-				searchResults.add(searchMap.get(path));
+				lock.writeLock().unlock();
 			}
 		}
+		
+		version.incrementAndGet();
 	}
-	
+
 	/**
-	 * Takes in a query and searches through the index for an exact match
-	 * @param words
-	 * 			each individual word
+	 * Removes the html page and all of its positions from the index. Words
+	 * that were only found in that page are removed as well. Only the words of
+	 * that page are visited, though the first removal pays for one pass over
+	 * the whole index to list the words of every page.
+	 * @param html
+	 * 			html page to remove
 	 * @return
-	 * 		returns a list of sorted exact search results
+	 * 		true if the page was in the index
 	 */
-	public ArrayList<SearchResult> exactSearch(String[] words)
+	public boolean remove(String html)
 	{
-		ArrayList<SearchResult> exactSearchResults = new ArrayList<SearchResult>();
-		// Map used for multiple-word queries
-		HashMap<String, SearchResult> searchMap = new HashMap<String, SearchResult>();
-		for(String w : words)
+		int document = documents.getId(html);
+		if(document < 0)
+			return false;
+		
+		updateLock.writeLock().lock();
+		try
 		{
-			if(invertedIndex.containsKey(w))
-				searchHelper(w, exactSearchResults, searchMap);
+			return remove(document);
+		}
+		finally
+		{
+			updateLock.writeLock().unlock();
 		}
-		
-		Collections.sort(exactSearchResults);
-		return exactSearchResults;
 	}
 	
 	/**
-	 * Takes in a query and searches through the index for a partial match
-	 * @param words
-	 * 			each individual word
+	 * Replaces everything the index holds for the html page with the contents
+	 * of another index, usually one built from the new version of the page by
+	 * {@link InvertedIndexBuilder#buildIndex(Path)}. Searches running at the
+	 * same time see either the old or the new version of the page.
+	 * @param html
+	 * 			html page to replace
+	 * @param page
+	 * 			index holding the new version of the page
+	 */
+	public void replace(String html, InvertedIndex page)
+	{
+		updateLock.writeLock().lock();
+		try
+		{
+			int document = documents.getId(html);
+			if(document >= 0)
+				remove(document);
+			
+			addAll(page);
+		}
+		finally
+		{
+			updateLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Removes the page with the given id from the postings of every word it
+	 * was found in. The caller must hold the update lock.
+	 * @param document
+	 * 			id of the page in the document table
 	 * @return
-	 * 		returns a list of sorted exact search results
+	 * 		true if the page was found in any word
 	 */
-	public ArrayList<SearchResult> partialSearch(String[] words)
+	private boolean remove(int document)
 	{
-		ArrayList<SearchResult> partialSearchResults = new ArrayList<SearchResult>();
+		if(pageWords == null)
+			trackPages();
+		
+		ArrayList<String> found = pageWords.remove(document);
+		if(found == null)
+			return false;
+		
+		String[] words;
+		synchronized(found)
+		{
+			words = found.toArray(new String[found.size()]);
+		}
 		
-		// Map used for multiple-word queries
-		HashMap<String, SearchResult> searchMap = new HashMap<String, SearchResult>();
-		for(String partialWord : words)
+		boolean removed = false;
+		for(String word : words)
 		{
-			for(String w : invertedIndex.tailMap(partialWord).keySet())
+			ReentrantReadWriteLock lock = lockFor(word);
+			lock.writeLock().lock();
+			try
 			{
-				if(w.startsWith(partialWord))
-					searchHelper(w, partialSearchResults, searchMap);
-				else
-					break;
-			}	
+				Postings postings = invertedIndex.get(word);
+				if(postings != null && postings.remove(document))
+				{
+					removed = true;
+					if(postings.size() == 0)
+					{
+						invertedIndex.remove(word);
+						wordRemoved();
+					}
+				}
+			}
+			finally
+			{
+				lock.writeLock().unlock();
+			}
+		}
+		
+		if(removed)
+			version.incrementAndGet();
+		
+		return removed;
+	}
+
+	/**
+	 * Lists the words of every page, so pages can be removed without visiting
+	 * every word, and keeps the lists up to date from then on. Pages are
+	 * rarely removed at all, so the lists are only kept once one is. Every
+	 * lock stripe is held while the index is walked, and words are added under
+	 * their stripe's lock, so no page can be added without being listed.
+	 */
+	private void trackPages()
+	{
+		for(ReentrantReadWriteLock lock : locks)
+			lock.writeLock().lock();
+		try
+		{
+			if(pageWords != null)
+				return;
+			
+			ConcurrentHashMap<Integer, ArrayList<String>> pages = new ConcurrentHashMap<Integer, ArrayList<String>>();
+			for(Map.Entry<String, Postings> entry : invertedIndex.entrySet())
+			{
+				Postings postings = entry.getValue();
+				for(int i = 0; i < postings.size(); i++)
+					pages.computeIfAbsent(postings.getDocument(i), id -> new ArrayList<String>()).add(entry.getKey());
+			}
+			pageWords = pages;
+		}
+		finally
+		{
+			for(ReentrantReadWriteLock lock : locks)
+				lock.writeLock().unlock();
 		}
+	}
+	
+	/**
+	 * Lists the word under a page it was just found in for the first time, if
+	 * the words of each page are being kept. The caller must hold the write
+	 * lock of the word.
+	 * @param word
+	 * 			word added to the page
+	 * @param document
+	 * 			id of the page
+	 */
+	private void recordPage(String word, int document)
+	{
+		ConcurrentHashMap<Integer, ArrayList<String>> pages = pageWords;
+		if(pages == null)
+			return;
 		
-		Collections.sort(partialSearchResults);
-		return partialSearchResults;
+		// Keep the dictionary's own copy of the word rather than the caller's
+		String key = invertedIndex.ceilingKey(word);
+		ArrayList<String> words = pages.computeIfAbsent(document, id -> new ArrayList<String>());
+		synchronized(words)
+		{
+			words.add(key);
+		}
+	}
+
+	/**
+	 * Returns the postings of the word, creating them if needed. The caller
+	 * must hold the write lock for the word.
+	 * @param word
+	 * 			word to find postings for
+	 * @return
+	 * 		mutable postings of the word
+	 */
+	private Postings postingsFor(String word)
+	{
+		Postings postings = invertedIndex.get(word);
+		if(postings == null)
+		{
+			postings = new Postings();
+			invertedIndex.put(word, postings);
+			wordAdded(word);
+		}
+		return postings;
+	}
+	
+	/**
+	 * Keeps aside a word that was just added to the dictionary, once there is
+	 * a prefix snapshot it is missing from. The caller must hold the write
+	 * lock of the word.
+	 * @param word
+	 * 			word added
+	 */
+	private void wordAdded(String word)
+	{
+		ConcurrentSkipListSet<String> added = addedWords;
+		if(added != null)
+		{
+			added.add(word);
+			wordChanges.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Counts a word that was just removed from the dictionary towards
+	 * rebuilding the prefix snapshot, which still lists its emptied postings
+	 */
+	private void wordRemoved()
+	{
+		if(addedWords != null)
+			wordChanges.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the number of html pages in the index. Pages that were removed
+	 * keep their id, so they are still counted.
+	 * @return
+	 * 		number of pages
+	 */
+	public int numDocuments()
+	{
+		return documents.size();
+	}
+
+	/**
+	 * Returns a live, read-only view of the words in the index, in sorted order.
+	 * Iterating the view is safe while other threads add words.
+	 * @return
+	 * 		sorted words in the index
+	 */
+	public NavigableSet<String> getWords()
+	{
+		return Collections.unmodifiableNavigableSet(invertedIndex.keySet());
+	}
+
+	/**
+	 * Returns a sorted snapshot of the html pages the word was found in
+	 * @param word
+	 * 			word to look up
+	 * @return
+	 * 		html pages containing the word, or an empty set
+	 */
+	public NavigableSet<String> getLocations(String word)
+	{
+		ReentrantReadWriteLock lock = lockFor(word);
+		lock.readLock().lock();
+		try
+		{
+			Postings postings = invertedIndex.get(word);
+			if(postings == null)
+				return Collections.emptyNavigableSet();
+
+			TreeSet<String> locations = new TreeSet<String>();
+			for(int i = 0; i < postings.size(); i++)
+				locations.add(documents.getPath(postings.getDocument(i)));
+
+			return Collections.unmodifiableNavigableSet(locations);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a sorted snapshot of the positions of the word in the html page
+	 * @param word
+	 * 			word to look up
+	 * @param html
+	 * 			html page to look up
+	 * @return
+	 * 		positions of the word in the page, or an empty set
+	 */
+	public NavigableSet<Integer> getPositions(String word, String html)
+	{
+		ReentrantReadWriteLock lock = lockFor(word);
+		lock.readLock().lock();
+		try
+		{
+			PositionList list = find(word, html);
+			if(list == null)
+				return Collections.emptyNavigableSet();
+
+			TreeSet<Integer> positions = new TreeSet<Integer>();
+			for(int position : list.toArray())
+				positions.add(position);
+			
+			return Collections.unmodifiableNavigableSet(positions);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the positions of the word in the html page. The caller must hold
+	 * the lock for the word.
+	 * @param word
+	 * 			word to look up
+	 * @param html
+	 * 			html page to look up
+	 * @return
+	 * 		positions of the word in the page, or null if not found
+	 */
+	private PositionList find(String word, String html)
+	{
+		Postings postings = invertedIndex.get(word);
+		int document = documents.getId(html);
+
+		if(postings == null || document < 0)
+			return null;
+
+		return postings.get(document);
+	}
+
+	/**
+	 * Passes every html page containing the word to the visitor in path order,
+	 * together with the positions of the word in that page. The word's read
+	 * lock is held throughout, and the positions array is reused between
+	 * calls, so the visitor should not keep it.
+	 * @param word
+	 * 			word to look up
+	 * @param visitor
+	 * 			visitor to call for each page
+	 * @throws IOException
+	 * 			if the visitor throws one
+	 */
+	public void visitLocations(String word, LocationVisitor visitor) throws IOException
+	{
+		ReentrantReadWriteLock lock = lockFor(word);
+		lock.readLock().lock();
+		try
+		{
+			Postings postings = invertedIndex.get(word);
+			if(postings == null)
+				return;
+
+			// Sort the postings by path rank, keeping the posting index in the low bits
+			int[] ranks = documents.getRanks();
+			long[] order = new long[postings.size()];
+			for(int i = 0; i < order.length; i++)
+			{
+				int document = postings.getDocument(i);
+				if(document >= ranks.length)
+					ranks = documents.getRanks();
+
+				order[i] = ((long) ranks[document] << 32) | i;
+			}
+			Arrays.sort(order);
+
+			int[] positions = new int[16];
+			for(long key : order)
+			{
+				int i = (int) key;
+				PositionList list = postings.getPositions(i);
+				positions = list.toArray(positions);
+				visitor.visit(documents.getPath(postings.getDocument(i)), positions, list.size());
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Receives the pages and positions of a word from
+	 * {@link InvertedIndex#visitLocations(String, LocationVisitor)}
+	 */
+	public interface LocationVisitor
+	{
+		/**
+		 * Visits one html page containing the word
+		 * @param html
+		 * 			path of the page
+		 * @param positions
+		 * 			sorted positions of the word; only the first count are valid
+		 * @param count
+		 * 			number of positions
+		 * @throws IOException
+		 */
+		void visit(String html, int[] positions, int count) throws IOException;
+	}
+
+	/**
+	 * Checks if the word is in the index
+	 * @param word
+	 * 			word to look up
+	 * @return
+	 * 		true if the word was found in any html page
+	 */
+	public boolean contains(String word)
+	{
+		return invertedIndex.containsKey(word);
+	}
+
+	/**
+	 * Checks if the word was found in the html page
+	 * @param word
+	 * 			word to look up
+	 * @param html
+	 * 			html page to look up
+	 * @return
+	 * 		true if the word was found in the page
+	 */
+	public boolean contains(String word, String html)
+	{
+		ReentrantReadWriteLock lock = lockFor(word);
+		lock.readLock().lock();
+		try
+		{
+			return find(word, html) != null;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of html pages the word was found in
+	 * @param word
+	 * 			word to look up
+	 * @return
+	 * 		number of pages containing the word
+	 */
+	public int numLocations(String word)
+	{
+		ReentrantReadWriteLock lock = lockFor(word);
+		lock.readLock().lock();
+		try
+		{
+			Postings postings = invertedIndex.get(word);
+			return postings == null ? 0 : postings.size();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of times the word was found in the html page
+	 * @param word
+	 * 			word to look up
+	 * @param html
+	 * 			html page to look up
+	 * @return
+	 * 		number of positions of the word in the page
+	 */
+	public int numPositions(String word, String html)
+	{
+		ReentrantReadWriteLock lock = lockFor(word);
+		lock.readLock().lock();
+		try
+		{
+			PositionList list = find(word, html);
+			return list == null ? 0 : list.size();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the table of html pages in the index
+	 * @return
+	 * 		document table of the index
+	 */
+	DocumentTable getDocuments()
+	{
+		return documents;
+	}
+
+	/**
+	 * Writes the postings of the word to the output while holding its read lock
+	 * @param word
+	 * 			word to write
+	 * @param out
+	 * 			output to write to
+	 * @throws IOException
+	 */
+	void writePostings(String word, DataOutput out) throws IOException
+	{
+		ReentrantReadWriteLock lock = lockFor(word);
+		lock.readLock().lock();
+		try
+		{
+			invertedIndex.get(word).write(out);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Sets the postings of a word that is not yet in the index
+	 * @param word
+	 * 			word to add
+	 * @param postings
+	 * 			postings of the word
+	 */
+	void putPostings(String word, Postings postings)
+	{
+		ReentrantReadWriteLock lock = lockFor(word);
+		lock.writeLock().lock();
+		try
+		{
+			if(invertedIndex.putIfAbsent(word, postings) == null)
+			{
+				wordAdded(word);
+				if(pageWords != null)
+				{
+					for(int i = 0; i < postings.size(); i++)
+						recordPage(word, postings.getDocument(i));
+				}
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+			version.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes the index as a binary segment that can be loaded back later
+	 * @param path
+	 * 			path to output
+	 * @throws IOException
+	 *
+	 * @see IndexSegment
+	 */
+	public void save(Path path) throws IOException
+	{
+		IndexSegment.write(this, path);
+	}
+
+	/**
+	 * Loads an index from a binary segment written by {@link #save(Path)}
+	 * @param path
+	 * 			path to segment file
+	 * @return
+	 * 		index backed by the segment
+	 * @throws IOException
+	 */
+	public static InvertedIndex load(Path path) throws IOException
+	{
+		return IndexSegment.read(path);
+	}
+
+	/**
+	 * Writes the index to JSON format
+	 * @param path
+	 * 			path to output
+	 * @throws IOException
+	 */
+	public void toJSON(Path path) throws IOException
+	{
+		JSONWriter.asInvertedIndexObject(this, path);
+	}
+
+	/**
+	 * Writes the index to JSON format, optionally without any whitespace
+	 * @param path
+	 * 			path to output
+	 * @param compact
+	 * 			true to leave out all whitespace
+	 * @throws IOException
+	 */
+	public void toJSON(Path path, boolean compact) throws IOException
+	{
+		JSONWriter.asInvertedIndexObject(this, path, compact);
+	}
+
+	/**
+	 * searchHelper for the searching method
+	 * @param word
+	 * 			word to input
+	 * @param searchResults
+	 * 			SearchResults arrayList
+	 * @param searchMap
+	 * 			SearchResults indexed by document id
+	 */
+	private void searchHelper(String word, ArrayList<SearchResult> searchResults, SearchResult[] searchMap)
+	{
+		ReentrantReadWriteLock lock = lockFor(word);
+		lock.readLock().lock();
+		try
+		{
+			Postings postings = invertedIndex.get(word);
+			if(postings != null)
+				searchHelper(postings, searchResults, searchMap);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the pages of the postings to the search results. The caller must
+	 * hold the read lock of the word the postings belong to.
+	 * @param postings
+	 * 			postings of a matching word
+	 * @param searchResults
+	 * 			SearchResults arrayList
+	 * @param searchMap
+	 * 			SearchResults indexed by document id
+	 */
+	private void searchHelper(Postings postings, ArrayList<SearchResult> searchResults, SearchResult[] searchMap)
+	{
+		for(int i = 0; i < postings.size(); i++)
+		{
+			int document = postings.getDocument(i);
+			int count = postings.getPositions(i).size();
+			int position = postings.getPositions(i).first();
+
+			// Pages added after the search started have no slot and are skipped
+			if(document >= searchMap.length)
+				break;
+
+			if(searchMap[document] != null)
+				searchMap[document].update(count, position);
+			else
+			{
+				searchMap[document] = new SearchResult(count, position, documents.getPath(document));
+				searchResults.add(searchMap[document]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the front-coded dictionary for partial search, building it the
+	 * first time. Words added after it was built are kept aside in a sorted
+	 * set that searches go through as well, so the dictionary is only rebuilt
+	 * once the words added or removed since outnumber an eighth of it. The
+	 * search that finds it due rebuilds it, while other searches keep using
+	 * the old one with the words kept aside.
+	 * @return
+	 * 		current prefix snapshot
+	 */
+	private PrefixSnapshot prefixSnapshot()
+	{
+		PrefixSnapshot current = prefixes;
+		if(current == null)
+		{
+			prefixLock.lock();
+			try
+			{
+				current = prefixes;
+				if(current == null)
+					current = buildPrefixes(null);
+			}
+			finally
+			{
+				prefixLock.unlock();
+			}
+		}
+		else if(prefixesDue(current) && prefixLock.tryLock())
+		{
+			try
+			{
+				current = prefixes;
+				if(prefixesDue(current))
+					current = buildPrefixes(current);
+			}
+			finally
+			{
+				prefixLock.unlock();
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Checks if enough words were added or removed since the snapshot was
+	 * built that it should be rebuilt
+	 * @param snapshot
+	 * 			current prefix snapshot
+	 * @return
+	 * 		true if the snapshot should be rebuilt
+	 */
+	private boolean prefixesDue(PrefixSnapshot snapshot)
+	{
+		return wordChanges.get() > Math.max(PREFIX_CHANGES, snapshot.terms.size() / 8);
+	}
+
+	/**
+	 * Builds the front-coded dictionary from the words in the index. Words
+	 * added from the start of the walk on go into a new set, which searches
+	 * check alongside the old snapshot's until the new one is ready, so no
+	 * word is missed in between. The caller must hold the prefix lock.
+	 * @param previous
+	 * 			snapshot being replaced, or null if there is none
+	 * @return
+	 * 		new prefix snapshot
+	 */
+	private PrefixSnapshot buildPrefixes(PrefixSnapshot previous)
+	{
+		ConcurrentSkipListSet<String> added = new ConcurrentSkipListSet<String>();
+		addedWords = added;
+		wordChanges.set(0);
+		if(previous != null)
+			prefixes = new PrefixSnapshot(previous.terms, previous.postings, previous.stripes, added, previous.added);
+		
+		ArrayList<String> words = new ArrayList<String>();
+		ArrayList<Postings> postings = new ArrayList<Postings>();
+		for(Map.Entry<String, Postings> entry : invertedIndex.entrySet())
+		{
+			words.add(entry.getKey());
+			postings.add(entry.getValue());
+		}
+		
+		byte[] stripes = new byte[words.size()];
+		for(int i = 0; i < stripes.length; i++)
+			stripes[i] = (byte) stripeFor(words.get(i));
+		
+		PrefixSnapshot current = new PrefixSnapshot(new TermDictionary(words), postings.toArray(new Postings[postings.size()]), stripes, added, null);
+		prefixes = current;
+		return current;
+	}
+
+	/**
+	 * Hands the postings of every word starting with the prefix to the
+	 * action, holding the read lock of each word while it runs. Words the
+	 * snapshot's dictionary is missing are looked up in the index itself.
+	 * @param snapshot
+	 * 			current prefix snapshot
+	 * @param prefix
+	 * 			prefix to look up
+	 * @param action
+	 * 			action to run on the postings of each word
+	 */
+	private void visitPrefix(PrefixSnapshot snapshot, String prefix, Consumer<Postings> action)
+	{
+		// Every word of the dictionary starting with the prefix is in one range of ids
+		int start = snapshot.terms.startOf(prefix);
+		int end = snapshot.terms.endOf(prefix);
+		for(int id = start; id < end; id++)
+		{
+			ReentrantReadWriteLock lock = locks[snapshot.stripes[id]];
+			lock.readLock().lock();
+			try
+			{
+				action.accept(snapshot.postings[id]);
+			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
+		
+		TreeSet<String> added = new TreeSet<String>();
+		PrefixSnapshot.addedWith(prefix, snapshot.added, added);
+		PrefixSnapshot.addedWith(prefix, snapshot.earlier, added);
+		for(String word : added)
+		{
+			ReentrantReadWriteLock lock = lockFor(word);
+			lock.readLock().lock();
+			try
+			{
+				// A word in the dictionary already was visited, unless it was removed and added again since
+				Postings postings = invertedIndex.get(word);
+				int id = snapshot.terms.startOf(word);
+				if(postings != null && (id >= end || snapshot.postings[id] != postings))
+					action.accept(postings);
+			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Words of the index when the snapshot was built, with the postings and
+	 * lock stripe of each word indexed by its id in the dictionary, and the
+	 * words added to the index since
+	 */
+	private static class PrefixSnapshot
+	{
+		private final TermDictionary terms;
+		private final Postings[] postings;
+		private final byte[] stripes;
+		
+		/** Words added since the dictionary was built. */
+		private final ConcurrentSkipListSet<String> added;
+		
+		/** Words added before a rebuild of the snapshot began, while it runs, or null. */
+		private final ConcurrentSkipListSet<String> earlier;
+
+		private PrefixSnapshot(TermDictionary terms, Postings[] postings, byte[] stripes, ConcurrentSkipListSet<String> added, ConcurrentSkipListSet<String> earlier)
+		{
+			this.terms = terms;
+			this.postings = postings;
+			this.stripes = stripes;
+			this.added = added;
+			this.earlier = earlier;
+		}
+		
+		/**
+		 * Copies the words of the set that start with the prefix
+		 * @param prefix
+		 * 			prefix to look up
+		 * @param words
+		 * 			set of words added since the dictionary was built, or null
+		 * @param found
+		 * 			set to copy the words into
+		 */
+		private static void addedWith(String prefix, ConcurrentSkipListSet<String> words, TreeSet<String> found)
+		{
+			if(words == null)
+				return;
+			
+			for(String word : words.tailSet(prefix))
+			{
+				if(!word.startsWith(prefix))
+					break;
+				found.add(word);
+			}
+		}
+	}
+
+	/**
+	 * Returns the best results in sorted order. When only some of the results
+	 * are wanted they are picked with a heap bounded to the limit, so the rest
+	 * are never sorted.
+	 * @param results
+	 * 			unsorted search results
+	 * @param limit
+	 * 			maximum number of results to keep, or 0 to keep all
+	 * @return
+	 * 		sorted list of at most limit results
+	 */
+	static ArrayList<SearchResult> topResults(ArrayList<SearchResult> results, int limit)
+	{
+		if(limit <= 0 || results.size() <= limit)
+		{
+			Collections.sort(results);
+			return results;
+		}
+		
+		// The head of the heap is the worst of the results kept so far
+		PriorityQueue<SearchResult> heap = new PriorityQueue<SearchResult>(limit, Collections.reverseOrder());
+		for(SearchResult result : results)
+		{
+			if(heap.size() < limit)
+				heap.add(result);
+			else if(result.compareTo(heap.peek()) < 0)
+			{
+				heap.poll();
+				heap.add(result);
+			}
+		}
+		
+		ArrayList<SearchResult> top = new ArrayList<SearchResult>(heap);
+		Collections.sort(top);
+		return top;
+	}
+
+	/**
+	 * Takes in a query and searches through the index for an exact match
+	 * @param words
+	 * 			each individual word
+	 * @return
+	 * 		returns a list of sorted exact search results
+	 */
+	public ArrayList<SearchResult> exactSearch(String[] words)
+	{
+		return exactSearch(words, 0);
+	}
+
+	/**
+	 * Takes in a query and searches through the index for an exact match,
+	 * keeping only the best results
+	 * @param words
+	 * 			each individual word
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		returns a list of at most limit sorted exact search results
+	 */
+	@Override
+	public ArrayList<SearchResult> exactSearch(String[] words, int limit)
+	{
+		ArrayList<SearchResult> exactSearchResults = new ArrayList<SearchResult>();
+		updateLock.readLock().lock();
+		try
+		{
+			// Results by document id, used for multiple-word queries
+			SearchResult[] searchMap = new SearchResult[documents.size()];
+			for(String w : words)
+			{
+				if(invertedIndex.containsKey(w))
+					searchHelper(w, exactSearchResults, searchMap);
+			}
+		}
+		finally
+		{
+			updateLock.readLock().unlock();
+		}
+
+		return topResults(exactSearchResults, limit);
+	}
+
+	/**
+	 * Takes in a query and searches through the index for a partial match
+	 * @param words
+	 * 			each individual word
+	 * @return
+	 * 		returns a list of sorted exact search results
+	 */
+	public ArrayList<SearchResult> partialSearch(String[] words)
+	{
+		return partialSearch(words, 0);
+	}
+
+	/**
+	 * Takes in a query and searches through the index for a partial match,
+	 * keeping only the best results
+	 * @param words
+	 * 			each individual word
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		returns a list of at most limit sorted partial search results
+	 */
+	@Override
+	public ArrayList<SearchResult> partialSearch(String[] words, int limit)
+	{
+		ArrayList<SearchResult> partialSearchResults = new ArrayList<SearchResult>();
+
+		updateLock.readLock().lock();
+		try
+		{
+			// Results by document id, used for multiple-word queries
+			SearchResult[] searchMap = new SearchResult[documents.size()];
+			PrefixSnapshot snapshot = prefixSnapshot();
+			for(String partialWord : words)
+				visitPrefix(snapshot, partialWord, postings -> searchHelper(postings, partialSearchResults, searchMap));
+		}
+		finally
+		{
+			updateLock.readLock().unlock();
+		}
+
+		return topResults(partialSearchResults, limit);
+	}
+
+	/**
+	 * Takes in a query and searches for the pages that match every one of its
+	 * words, rather than any of them. Exact queries intersect the postings of
+	 * the words from the rarest word up, galloping through the longer lists,
+	 * so the cost follows the rarest word. Partial queries go through the
+	 * prefixes in turn and only keep counting a page while it has matched
+	 * every prefix so far.
+	 * @param words
+	 * 			each individual word
+	 * @param exact
+	 * 			true to match whole words, false to match prefixes
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		returns a list of at most limit sorted search results
+	 */
+	@Override
+	public ArrayList<SearchResult> conjunctiveSearch(String[] words, boolean exact, int limit)
+	{
+		return exact ? exactConjunctiveSearch(words, limit) : partialConjunctiveSearch(words, limit);
+	}
+
+	/**
+	 * Searches for the pages containing every word
+	 * @param words
+	 * 			each individual word
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		sorted search results
+	 * @see #conjunctiveSearch(String[], boolean, int)
+	 */
+	private ArrayList<SearchResult> exactConjunctiveSearch(String[] words, int limit)
+	{
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+		if(words.length == 0)
+			return results;
+		
+		ArrayList<ReentrantReadWriteLock> held = locksFor(words);
+		updateLock.readLock().lock();
+		for(ReentrantReadWriteLock lock : held)
+			lock.readLock().lock();
+		try
+		{
+			Postings[] postings = new Postings[words.length];
+			for(int i = 0; i < words.length; i++)
+			{
+				postings[i] = invertedIndex.get(words[i]);
+				if(postings[i] == null)
+					return results;
+			}
+			
+			int[] order = rarestFirst(postings);
+			int[] cursors = new int[words.length];
+			while(intersect(postings, order, cursors))
+			{
+				int count = 0;
+				int position = Integer.MAX_VALUE;
+				for(int i = 0; i < words.length; i++)
+				{
+					PositionList list = postings[i].getPositions(cursors[i]);
+					count += list.size();
+					position = Math.min(position, list.first());
+				}
+				
+				String html = documents.getPath(postings[0].getDocument(cursors[0]));
+				results.add(new SearchResult(count, position, html));
+				cursors[order[0]]++;
+			}
+		}
+		finally
+		{
+			for(ReentrantReadWriteLock lock : held)
+				lock.readLock().unlock();
+			updateLock.readLock().unlock();
+		}
+		
+		return topResults(results, limit);
+	}
+
+	/**
+	 * Searches for the pages containing a word starting with every prefix
+	 * @param words
+	 * 			each individual prefix
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		sorted search results
+	 * @see #conjunctiveSearch(String[], boolean, int)
+	 */
+	private ArrayList<SearchResult> partialConjunctiveSearch(String[] words, int limit)
+	{
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+
+		updateLock.readLock().lock();
+		try
+		{
+			// Results by document id, and how many prefixes in a row each page has matched
+			SearchResult[] searchMap = new SearchResult[documents.size()];
+			int[] matched = new int[searchMap.length];
+			PrefixSnapshot snapshot = prefixSnapshot();
+			for(int q = 0; q < words.length; q++)
+			{
+				int prefix = q;
+				visitPrefix(snapshot, words[q], postings ->
+				{
+					for(int i = 0; i < postings.size(); i++)
+					{
+						int document = postings.getDocument(i);
+						if(document >= searchMap.length)
+							break;
+						
+						// Pages that missed an earlier prefix can no longer match
+						if(matched[document] < prefix)
+							continue;
+						
+						matched[document] = prefix + 1;
+						PositionList positions = postings.getPositions(i);
+						if(searchMap[document] != null)
+							searchMap[document].update(positions.size(), positions.first());
+						else
+							searchMap[document] = new SearchResult(positions.size(), positions.first(), documents.getPath(document));
+					}
+				});
+			}
+			
+			for(int document = 0; document < searchMap.length; document++)
+			{
+				if(searchMap[document] != null && matched[document] == words.length)
+					results.add(searchMap[document]);
+			}
+		}
+		finally
+		{
+			updateLock.readLock().unlock();
+		}
+
+		return topResults(results, limit);
+	}
+
+	/**
+	 * Searches for pages where the words appear one right after the other, in
+	 * order. Each result counts how many times the phrase was found and
+	 * starts at the position of its first word.
+	 * @param words
+	 * 			words of the phrase, in order
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		returns a list of at most limit sorted phrase search results
+	 */
+	@Override
+	public ArrayList<SearchResult> phraseSearch(String[] words, int limit)
+	{
+		return positionalSearch(words, 0, limit);
+	}
+
+	/**
+	 * Searches for pages where the second word is found at most the given
+	 * distance before or after the first word. Each result counts the
+	 * positions of the first word that have the second word nearby.
+	 * @param first
+	 * 			first word
+	 * @param second
+	 * 			second word
+	 * @param distance
+	 * 			largest allowed gap between the words
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		returns a list of at most limit sorted proximity search results
+	 */
+	@Override
+	public ArrayList<SearchResult> proximitySearch(String first, String second, int distance, int limit)
+	{
+		return positionalSearch(new String[] {first, second}, Math.max(1, distance), limit);
+	}
+
+	/**
+	 * Intersects the pages of every word, rarest word first, and matches the
+	 * positions of the words within each page found in all of them. The read
+	 * locks of every word are held together, taken in stripe order so that two
+	 * searches can never wait on each other.
+	 * @param words
+	 * 			words to match
+	 * @param distance
+	 * 			0 to match a phrase, or the largest gap between two words
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		sorted search results
+	 */
+	private ArrayList<SearchResult> positionalSearch(String[] words, int distance, int limit)
+	{
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+		if(words.length == 0)
+			return results;
+		
+		ArrayList<ReentrantReadWriteLock> held = locksFor(words);
+		updateLock.readLock().lock();
+		for(ReentrantReadWriteLock lock : held)
+			lock.readLock().lock();
+		try
+		{
+			Postings[] postings = new Postings[words.length];
+			for(int i = 0; i < words.length; i++)
+			{
+				postings[i] = invertedIndex.get(words[i]);
+				if(postings[i] == null)
+					return results;
+			}
+			
+			int[] order = rarestFirst(postings);
+			int[] cursors = new int[words.length];
+			int[][] positions = new int[words.length][16];
+			int[] sizes = new int[words.length];
+			PositionMatcher matcher = new PositionMatcher();
+			
+			while(intersect(postings, order, cursors))
+			{
+				for(int i = 0; i < words.length; i++)
+				{
+					PositionList list = postings[i].getPositions(cursors[i]);
+					positions[i] = list.toArray(positions[i]);
+					sizes[i] = list.size();
+				}
+				
+				boolean found = distance == 0 ? matcher.phrase(positions, sizes) : matcher.near(positions[0], sizes[0], positions[1], sizes[1], distance);
+				if(found)
+				{
+					String html = documents.getPath(postings[0].getDocument(cursors[0]));
+					results.add(new SearchResult(matcher.getCount(), matcher.getFirst(), html));
+				}
+				
+				cursors[order[0]]++;
+			}
+		}
+		finally
+		{
+			for(ReentrantReadWriteLock lock : held)
+				lock.readLock().unlock();
+			updateLock.readLock().unlock();
+		}
+		
+		return topResults(results, limit);
+	}
+
+	/**
+	 * Returns the locks guarding the words, each once, in stripe order
+	 * @param words
+	 * 			words to lock
+	 * @return
+	 * 		locks to take, in the order to take them
+	 */
+	private ArrayList<ReentrantReadWriteLock> locksFor(String[] words)
+	{
+		boolean[] needed = new boolean[STRIPES];
+		for(String word : words)
+			needed[stripeFor(word)] = true;
+		
+		ArrayList<ReentrantReadWriteLock> held = new ArrayList<ReentrantReadWriteLock>();
+		for(int i = 0; i < STRIPES; i++)
+		{
+			if(needed[i])
+				held.add(locks[i]);
+		}
+		return held;
+	}
+
+	/**
+	 * Returns the indexes of the postings ordered from the fewest pages to the
+	 * most
+	 * @param postings
+	 * 			postings to order
+	 * @return
+	 * 		indexes into the postings, rarest first
+	 */
+	private static int[] rarestFirst(Postings[] postings)
+	{
+		int[] order = new int[postings.length];
+		for(int i = 0; i < order.length; i++)
+			order[i] = i;
+		
+		// Queries are only a few words long
+		for(int i = 1; i < order.length; i++)
+		{
+			int index = order[i];
+			int j = i - 1;
+			while(j >= 0 && postings[order[j]].size() > postings[index].size())
+			{
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = index;
+		}
+		return order;
+	}
+
+	/**
+	 * Moves the cursors to the next page found in every one of the postings,
+	 * starting from where they are. The rarest postings propose each page and
+	 * the others gallop forward to it; when one of them has skipped past it,
+	 * the rarest postings gallop forward to the page it landed on.
+	 * @param postings
+	 * 			postings to intersect
+	 * @param order
+	 * 			indexes of the postings, rarest first
+	 * @param cursors
+	 * 			index into each of the postings, moved to the page found
+	 * @return
+	 * 		true if a page was found, false once the rarest postings run out
+	 */
+	private static boolean intersect(Postings[] postings, int[] order, int[] cursors)
+	{
+		Postings rarest = postings[order[0]];
+		while(cursors[order[0]] < rarest.size())
+		{
+			int document = rarest.getDocument(cursors[order[0]]);
+			boolean found = true;
+			
+			for(int k = 1; k < order.length && found; k++)
+			{
+				int i = order[k];
+				cursors[i] = postings[i].seek(document, cursors[i]);
+				if(cursors[i] == postings[i].size())
+				{
+					cursors[order[0]] = rarest.size();
+					return false;
+				}
+				
+				int next = postings[i].getDocument(cursors[i]);
+				if(next != document)
+				{
+					cursors[order[0]] = rarest.seek(next, cursors[order[0]] + 1);
+					found = false;
+				}
+			}
+			
+			if(found)
+				return true;
+		}
+		return false;
 	}
 }
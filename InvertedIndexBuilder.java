@@ -1,11 +1,29 @@
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
 
 public class InvertedIndexBuilder 
 {
+	/** Size of the buffer the file is read through. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Checks if the path names an html page that should be indexed
+	 * @param path
+	 * 			path to check
+	 * @return
+	 * 		true if the path ends in html or htm
+	 */
+	public static boolean isHTML(Path path)
+	{
+		return path.toString().toLowerCase().endsWith("html") || path.toString().endsWith("htm");
+	}
 
 	/**
 	 * Creates and returns a new word index built from the file located at the
@@ -19,15 +37,58 @@ public class InvertedIndexBuilder
 	 * @see {@link #buildIndex(Path, WordIndex)}
 	 */
 	public static InvertedIndex buildIndex(Path path) throws IOException 
+	{
+		return buildIndex(path, (Metrics) null);
+	}
+	
+	/**
+	 * Creates and returns a new word index built from the file located at the
+	 * path provided, recording the work in the metrics
+	 *
+	 * @param path
+	 *            path to file to parse
+	 * @param metrics
+	 *            metrics to record into, or null
+	 * @return inverted index containing words from the path
+	 * @throws IOException
+	 *
+	 * @see #buildIndex(Path, InvertedIndex, Metrics)
+	 */
+	public static InvertedIndex buildIndex(Path path, Metrics metrics) throws IOException 
+	{
+		return buildIndex(path, metrics, null);
+	}
+	
+	/**
+	 * Creates and returns a new word index built from the file located at the
+	 * path provided, recording the work in the metrics and passing the bytes
+	 * that were parsed through the checksum
+	 *
+	 * @param path
+	 *            path to file to parse
+	 * @param metrics
+	 *            metrics to record into, or null
+	 * @param checksum
+	 *            checksum to update with the contents of the file, or null
+	 * @return inverted index containing words from the path
+	 * @throws IOException
+	 *
+	 * @see #buildIndex(Path, InvertedIndex, Metrics, Checksum)
+	 */
+	public static InvertedIndex buildIndex(Path path, Metrics metrics, Checksum checksum) throws IOException 
 	{
 		InvertedIndex index = new InvertedIndex();
-		buildIndex(path, index);
+		buildIndex(path, index, metrics, checksum);
 		return index;
 	}
 	
 	/**
 	 * Opens the file located at the path provided, parses each line in the file
-	 * into words, and stores those words in an inverted index.
+	 * into words, and stores those words in an inverted index. The file is read
+	 * through a fixed-size buffer, cleaned and split into words as it is read,
+	 * and each word is added as soon as it ends, so the whole file is never
+	 * held in memory.
+	 * Positions are numbered exactly as if the file had been read whole.
 	 *
 	 * @param path
 	 *            path to file to parse
@@ -35,24 +96,176 @@ public class InvertedIndexBuilder
 	 *            word index to add words
 	 * @throws IOException
 	 *
-	 * @see WordParser#parseWords(String, int)
+	 * @see HTMLStreamCleaner
+	 * @see WordTokenizer
 	 *
 	 * @see Files#newBufferedReader(Path, java.nio.charset.Charset)
 	 * @see StandardCharsets#UTF_8
 	 */
 	public static void buildIndex(Path path, InvertedIndex indexMap) throws IOException 
 	{
-		List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
-		String result = String.join(" ", lines);
+		buildIndex(path, indexMap, null);
+	}
+	
+	/**
+	 * Builds the index like {@link #buildIndex(Path, InvertedIndex)}, and if
+	 * given metrics, times reading each buffer, adding each word, and the whole
+	 * file. Whatever time is left over went to cleaning and tokenizing, which
+	 * run interleaved with the rest one character at a time.
+	 *
+	 * @param path
+	 *            path to file to parse
+	 * @param index
+	 *            word index to add words
+	 * @param metrics
+	 *            metrics to record into, or null
+	 * @throws IOException
+	 */
+	public static void buildIndex(Path path, InvertedIndex indexMap, Metrics metrics) throws IOException 
+	{
+		buildIndex(path, indexMap, metrics, null);
+	}
+	
+	/**
+	 * Builds the index like {@link #buildIndex(Path, InvertedIndex, Metrics)},
+	 * and if given a checksum, updates it with every byte of the file as it is
+	 * read, so the hash describes exactly the contents that were indexed
+	 * without reading the file a second time.
+	 *
+	 * @param path
+	 *            path to file to parse
+	 * @param index
+	 *            word index to add words
+	 * @param metrics
+	 *            metrics to record into, or null
+	 * @param checksum
+	 *            checksum to update with the contents of the file, or null
+	 * @throws IOException
+	 */
+	public static void buildIndex(Path path, InvertedIndex indexMap, Metrics metrics, Checksum checksum) throws IOException 
+	{
+		long started = metrics == null ? 0 : System.nanoTime();
+		long reading = 0;
+		long readingCPU = 0;
+		long reads = 0;
+		
+		WordAdder adder = new WordAdder(indexMap, path.toString(), metrics != null);
+		WordTokenizer words = new WordTokenizer(adder);
+		HTMLStreamCleaner cleaner = new HTMLStreamCleaner(words);
+		
+		try(Reader reader = open(path, checksum))
+		{
+			char[] buffer = new char[BUFFER_SIZE];
+			boolean carriageReturn = false;
+			int length;
+			
+			while(true)
+			{
+				if(metrics != null)
+				{
+					long wall = System.nanoTime();
+					long cpu = Metrics.threadCPUTime();
+					length = reader.read(buffer, 0, buffer.length);
+					reading += System.nanoTime() - wall;
+					readingCPU += Metrics.threadCPUTime() - cpu;
+					reads++;
+				}
+				else
+					length = reader.read(buffer, 0, buffer.length);
+				
+				if(length == -1)
+					break;
+				
+				for(int i = 0; i < length; i++)
+				{
+					char c = buffer[i];
+					
+					// Lines are joined by a single space, with "\r\n" counting as one line break
+					if(c == '\n' && carriageReturn)
+					{
+						carriageReturn = false;
+						continue;
+					}
+					
+					carriageReturn = c == '\r';
+					cleaner.accept(c == '\n' || c == '\r' ? ' ' : c);
+				}
+			}
+		}
+		
+		cleaner.finish();
+		words.finish();
+		indexMap.markModified();
+		
+		if(metrics != null)
+		{
+			long total = System.nanoTime() - started;
+			metrics.record(Metrics.Stage.READ, reads, reading, readingCPU);
+			metrics.record(Metrics.Stage.INSERT, adder.position - 1, adder.inserting, 0);
+			metrics.record(Metrics.Stage.PARSE, Math.max(0, total - reading - adder.inserting), 0);
+			metrics.recordFile(Files.size(path), adder.position - 1);
+		}
+	}
+	
+	/**
+	 * Opens the file for reading as UTF8, reporting malformed input the way
+	 * {@link Files#newBufferedReader(Path, java.nio.charset.Charset)} does
+	 * @param path
+	 * 			path to file to read
+	 * @param checksum
+	 * 			checksum to pass the bytes read through, or null
+	 * @return
+	 * 		reader of the file
+	 * @throws IOException
+	 */
+	private static Reader open(Path path, Checksum checksum) throws IOException
+	{
+		if(checksum == null)
+			return Files.newBufferedReader(path, StandardCharsets.UTF_8);
+		
+		return new BufferedReader(new InputStreamReader(new CheckedInputStream(Files.newInputStream(path), checksum), StandardCharsets.UTF_8.newDecoder()));
+	}
+	
+	/**
+	 * Adds each word handed over by the tokenizer to the index at the next
+	 * position
+	 */
+	private static class WordAdder implements WordTokenizer.Consumer
+	{
+		private final InvertedIndex index;
+		private final String html;
+		
+		/** True to time each word added. */
+		private final boolean timed;
+		
+		/** Position of the next word. */
+		private int position;
 		
-		// Strip html/htm to get all words
-		String cleanRegex = HTMLCleaner.stripHTML(result);
+		/** Nanoseconds spent adding words, if timed. */
+		private long inserting;
 		
-		// Parse text (not HTML) into words, including converting that text to lowercase, replacing
-		// special characters and digits with a space, and finally splitting that text by spaces
-		String[] allWords = WordParser.parseWords(cleanRegex);
+		private WordAdder(InvertedIndex index, String html, boolean timed)
+		{
+			this.index = index;
+			this.html = html;
+			this.timed = timed;
+			this.position = 1;
+			this.inserting = 0;
+		}
 		
-		// Add those words to the index
-		indexMap.addAll(allWords, path.toString());
+		@Override
+		public void accept(char[] word, int length)
+		{
+			if(timed)
+			{
+				long start = System.nanoTime();
+				index.addWord(new String(word, 0, length), html, position);
+				inserting += System.nanoTime() - start;
+			}
+			else
+				index.addWord(new String(word, 0, length), html, position);
+			
+			position++;
+		}
 	}
 }
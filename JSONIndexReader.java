@@ -0,0 +1,365 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Rebuilds an inverted index from the JSON written by
+ * {@link JSONWriter#asInvertedIndexObject(InvertedIndex, Path)}. The file is
+ * read through a fixed-size buffer by a small hand-written tokenizer, so no
+ * tree of the whole document is built; only one word, one path, and the
+ * positions of that path are held at a time.
+ *
+ * Strings are read with the standard JSON escapes. JSON written before
+ * strings were escaped holds paths such as {@code C:\new\a.html} as they
+ * are, and must be read in legacy mode, where a backslash is just a
+ * character and a string ends at the next double quote.
+ */
+public class JSONIndexReader
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Reader reader;
+	private final char[] buffer;
+	private final StringBuilder text;
+	private final PositionList positions;
+
+	/** True if strings hold no escapes, as written before escaping. */
+	private final boolean legacy;
+
+	/** Next unread character in the buffer. */
+	private int offset;
+
+	/** Number of characters in the buffer. */
+	private int limit;
+
+	/** Number of characters consumed before the current buffer, for errors. */
+	private long consumed;
+
+	/**
+	 * Initializes a reader over the JSON text
+	 * @param reader
+	 * 			source of the JSON text
+	 * @param legacy
+	 * 			true if strings hold no escapes
+	 */
+	private JSONIndexReader(Reader reader, boolean legacy)
+	{
+		this.reader = reader;
+		this.legacy = legacy;
+		this.buffer = new char[BUFFER_SIZE];
+		this.text = new StringBuilder();
+		this.positions = new PositionList();
+		this.offset = 0;
+		this.limit = 0;
+		this.consumed = 0;
+	}
+
+	/**
+	 * Reads the JSON index at the path and adds every word, path, and position
+	 * to the index
+	 * @param path
+	 * 			path to JSON index file
+	 * @param index
+	 * 			index to add words to
+	 * @throws IOException
+	 * 			if the file cannot be read or is not an index
+	 */
+	public static void read(Path path, InvertedIndex index) throws IOException
+	{
+		read(path, index, false);
+	}
+
+	/**
+	 * Reads the JSON index at the path like {@link #read(Path, InvertedIndex)},
+	 * optionally as written before strings were escaped
+	 * @param path
+	 * 			path to JSON index file
+	 * @param index
+	 * 			index to add words to
+	 * @param legacy
+	 * 			true to keep every backslash as it is
+	 * @throws IOException
+	 * 			if the file cannot be read or is not an index
+	 */
+	public static void read(Path path, InvertedIndex index, boolean legacy) throws IOException
+	{
+		try(Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8))
+		{
+			new JSONIndexReader(reader, legacy).readIndex(index);
+		}
+		finally
+		{
+			index.markModified();
+		}
+	}
+
+	/**
+	 * Reads the outer object mapping words to their locations
+	 * @param index
+	 * 			index to add words to
+	 * @throws IOException
+	 */
+	private void readIndex(InvertedIndex index) throws IOException
+	{
+		expect('{');
+		if(!tryConsume('}'))
+		{
+			do
+			{
+				String word = readString();
+				expect(':');
+				readLocations(word, index);
+			}
+			while(tryConsume(','));
+
+			expect('}');
+		}
+
+		if(skipWhitespace() != -1)
+			throw error("Unexpected text after index");
+	}
+
+	/**
+	 * Reads the object mapping each path of a word to its positions
+	 * @param word
+	 * 			word the locations belong to
+	 * @param index
+	 * 			index to add words to
+	 * @throws IOException
+	 */
+	private void readLocations(String word, InvertedIndex index) throws IOException
+	{
+		expect('{');
+		if(tryConsume('}'))
+			return;
+
+		do
+		{
+			String html = readString();
+			expect(':');
+			expect('[');
+
+			positions.clear();
+			if(!tryConsume(']'))
+			{
+				do
+					positions.add(readInt());
+				while(tryConsume(','));
+
+				expect(']');
+			}
+
+			index.addWord(word, html, positions);
+		}
+		while(tryConsume(','));
+
+		expect('}');
+	}
+
+	/**
+	 * Reads a quoted string, handling the standard JSON escapes unless reading
+	 * legacy JSON
+	 * @return
+	 * 		unquoted string
+	 * @throws IOException
+	 */
+	private String readString() throws IOException
+	{
+		expect('"');
+		text.setLength(0);
+
+		while(true)
+		{
+			int c = next();
+			if(c == -1)
+				throw error("Unterminated string");
+
+			if(c == '"')
+				return text.toString();
+
+			if(c != '\\' || legacy)
+			{
+				text.append((char) c);
+				continue;
+			}
+
+			c = next();
+			switch(c)
+			{
+				case '"':
+				case '\\':
+				case '/':
+					text.append((char) c);
+					break;
+				case 'b':
+					text.append('\b');
+					break;
+				case 'f':
+					text.append('\f');
+					break;
+				case 'n':
+					text.append('\n');
+					break;
+				case 'r':
+					text.append('\r');
+					break;
+				case 't':
+					text.append('\t');
+					break;
+				case 'u':
+					int value = 0;
+					for(int i = 0; i < 4; i++)
+					{
+						int digit = Character.digit(next(), 16);
+						if(digit < 0)
+							throw error("Invalid unicode escape");
+
+						value = (value << 4) | digit;
+					}
+					text.append((char) value);
+					break;
+				case -1:
+					throw error("Unterminated string");
+				default:
+					throw error("Invalid escape; JSON written before strings were escaped must be read as legacy JSON");
+			}
+		}
+	}
+
+	/**
+	 * Reads a non-negative integer
+	 * @return
+	 * 		integer value
+	 * @throws IOException
+	 */
+	private int readInt() throws IOException
+	{
+		int c = skipWhitespace();
+		if(c < '0' || c > '9')
+			throw error("Expected a position");
+
+		long value = 0;
+		while(c >= '0' && c <= '9')
+		{
+			value = value * 10 + (c - '0');
+			if(value > Integer.MAX_VALUE)
+				throw error("Position out of range");
+
+			offset++;
+			c = peek();
+		}
+
+		return (int) value;
+	}
+
+	/**
+	 * Skips whitespace and consumes the expected character
+	 * @param expected
+	 * 			character that must come next
+	 * @throws IOException
+	 */
+	private void expect(char expected) throws IOException
+	{
+		if(skipWhitespace() != expected)
+			throw error("Expected '" + expected + "'");
+
+		offset++;
+	}
+
+	/**
+	 * Skips whitespace and consumes the character if it comes next
+	 * @param expected
+	 * 			character to look for
+	 * @return
+	 * 		true if the character was consumed
+	 * @throws IOException
+	 */
+	private boolean tryConsume(char expected) throws IOException
+	{
+		if(skipWhitespace() != expected)
+			return false;
+
+		offset++;
+		return true;
+	}
+
+	/**
+	 * Skips whitespace without consuming the next character
+	 * @return
+	 * 		next non-whitespace character, or -1 at the end of the input
+	 * @throws IOException
+	 */
+	private int skipWhitespace() throws IOException
+	{
+		int c = peek();
+		while(c == ' ' || c == '\n' || c == '\r' || c == '\t')
+		{
+			offset++;
+			c = peek();
+		}
+		return c;
+	}
+
+	/**
+	 * Returns the next character without consuming it
+	 * @return
+	 * 		next character, or -1 at the end of the input
+	 * @throws IOException
+	 */
+	private int peek() throws IOException
+	{
+		if(offset == limit && !fill())
+			return -1;
+
+		return buffer[offset];
+	}
+
+	/**
+	 * Consumes and returns the next character
+	 * @return
+	 * 		next character, or -1 at the end of the input
+	 * @throws IOException
+	 */
+	private int next() throws IOException
+	{
+		if(offset == limit && !fill())
+			return -1;
+
+		return buffer[offset++];
+	}
+
+	/**
+	 * Refills the buffer from the reader
+	 * @return
+	 * 		false if the end of the input was reached
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException
+	{
+		consumed += limit;
+		offset = 0;
+		limit = reader.read(buffer, 0, buffer.length);
+
+		if(limit <= 0)
+		{
+			limit = 0;
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Creates an exception pointing at the current character
+	 * @param message
+	 * 			description of the problem
+	 * @return
+	 * 		exception to throw
+	 */
+	private IOException error(String message)
+	{
+		return new IOException(message + " at character " + (consumed + offset) + " of index JSON");
+	}
+}
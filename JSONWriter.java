@@ -1,16 +1,33 @@
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
-public class JSONWriter 
+public class JSONWriter
 {
+	/** Size of the output buffer; output is flushed once, when the file is closed. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Digits of the hexadecimal escapes written for control characters. */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/** Tabs shared by every indent, so indenting never allocates. */
+	private static final char[] TABS = new char[16];
+
+	static
+	{
+		Arrays.fill(TABS, '\t');
+	}
 
 	/**
 	 * Returns a String with the specified number of tab characters.
@@ -19,146 +36,170 @@ public class JSONWriter
 	 *            number of tab characters to include
 	 * @return tab characters repeated the specified number of times
 	 */
-	public static String indent(int times) 
+	public static String indent(int times)
 	{
+		if(times <= TABS.length)
+			return String.valueOf(TABS, 0, times);
+
 		char[] tabs = new char[times];
 		Arrays.fill(tabs, '\t');
 		return String.valueOf(tabs);
 	}
 
 	/**
-	 * Returns a quoted version of the provided text.
+	 * Returns a quoted version of the provided text, escaped the same way as
+	 * every string the writer outputs, so quoted queries such as phrases stay
+	 * valid JSON.
 	 *
 	 * @param text
 	 *            text to surround in quotes
 	 * @return text surrounded by quotes
 	 */
-	public static String quote(String text) 
+	public static String quote(String text)
 	{
-		return String.format("\"%s\"", text);
+		StringWriter writer = new StringWriter(text.length() + 2);
+		try
+		{
+			new Emitter(writer, true).string(text);
+		}
+		catch(IOException e)
+		{
+			// A StringWriter never throws
+			throw new UncheckedIOException(e);
+		}
+		return writer.toString();
 	}
 
 	/**
-	 * Writes the set of elements as a JSON array at the specified indent level.
+	 * Writes the inverted index as a JSON object with a double nested array to
+	 * the path using UTF8.
 	 *
-	 * @param writer
-	 *            writer to use for output
-	 * @param elements
-	 *            elements to write as JSON array
-	 * @param level
-	 *            number of times to indent the array itself
+	 * @param index
+	 *            index to write as a JSON object with a double nested array
+	 * @param path
+	 *            path to write file
 	 * @throws IOException
+	 *
+	 * @see #asInvertedIndexObject(InvertedIndex, Path, boolean)
 	 */
-	private static void asArray(TreeSet<Integer> elements, Writer writer, int level) throws IOException 
+	public static void asInvertedIndexObject(InvertedIndex index, Path path) throws IOException
 	{
-		writer.write("[\n");
-		
-		int i = 0;
-		for(Integer num : elements)
+		asInvertedIndexObject(index, path, false);
+	}
+
+	/**
+	 * Writes the inverted index as a JSON object with a double nested array to
+	 * the path using UTF8. Words are read one at a time through the index's
+	 * read API, so the index may still be receiving words while it is written.
+	 *
+	 * @param index
+	 *            index to write as a JSON object with a double nested array
+	 * @param path
+	 *            path to write file
+	 * @param compact
+	 *            true to leave out all whitespace
+	 * @throws IOException
+	 */
+	public static void asInvertedIndexObject(InvertedIndex index, Path path, boolean compact) throws IOException
+	{
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE))
 		{
-			writer.write(indent(level + 1) + num);
-			
-			if(i < elements.size() - 1)
-				writer.write(",");
-			
-			writer.write("\n");
-			i++;
-		}
+			LocationWriter locations = new LocationWriter(new Emitter(writer, compact));
+			locations.out.write('{');
 
-		writer.write(indent(level) + "]");
-		writer.flush();
+			for(String word : index.getWords())
+			{
+				// Each word is written while the index holds its read lock
+				locations.startWord(word);
+				index.visitLocations(word, locations);
+				locations.endWord();
+			}
+
+			locations.finish();
+		}
 	}
-	
+
 	/**
-	 * Writes the set of elements as a JSON object with a nested array to the
-	 * path using UTF8.
+	 * Writes the merged runs of a spilling index as a JSON object with a
+	 * double nested array to the path using UTF8, in the same form as
+	 * {@link #asInvertedIndexObject(InvertedIndex, Path, boolean)}. Words are
+	 * written as they are merged, so the whole index is never in memory.
 	 *
-	 * @param elements
-	 *            elements to write as a JSON object with a nested array
+	 * @param index
+	 *            index to write as a JSON object with a double nested array
 	 * @param path
 	 *            path to write file
+	 * @param compact
+	 *            true to leave out all whitespace
 	 * @throws IOException
 	 */
-	public static void asNestedObject(TreeMap<String, TreeSet<Integer>> elements, BufferedWriter writer) throws IOException 
+	public static void asInvertedIndexObject(SpillingIndex index, Path path, boolean compact) throws IOException
 	{
-		int level = 2;
-		int i = 0;
-		for(String html : elements.keySet())
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE))
 		{
-			writer.write(indent(level) + quote(html) + ": ");
-			asArray(elements.get(html), writer, level);
-			
-			if(i < elements.size() - 1)
-				writer.write(",");
-			
-			i++;
-			writer.write("\n");
+			LocationWriter locations = new LocationWriter(new Emitter(writer, compact));
+			locations.out.write('{');
+			index.visitWords(locations);
+			locations.finish();
 		}
-		
-		writer.flush();
 	}
-	
+
 	/**
-	 * Writes the set of elements as a JSON object with a double nested array to the
-	 * path using UTF8.
+	 * Writes an off-heap index as a JSON object with a double nested array to
+	 * the path using UTF8, in the same form as
+	 * {@link #asInvertedIndexObject(InvertedIndex, Path, boolean)}
 	 *
-	 * @param elements
-	 *            elements to write as a JSON object with a double nested array
+	 * @param index
+	 *            index to write as a JSON object with a double nested array
 	 * @param path
 	 *            path to write file
+	 * @param compact
+	 *            true to leave out all whitespace
 	 * @throws IOException
 	 */
-	public static void asInvertedIndexObject(TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements, Path path) throws IOException 
+	public static void asInvertedIndexObject(OffHeapIndex index, Path path, boolean compact) throws IOException
 	{
-		try(BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8))
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE))
 		{
-			writer.write("{\n");
-			int i = 0;
-			for(String word : elements.keySet())
-			{
-				writer.write(indent(1) + quote(word) + ": {\n");
-				for(String html : elements.get(word).keySet())
-				{
-					asNestedObject(elements.get(word), writer);
-					writer.write(indent(1) + "}");
-					
-					if(i < elements.size()-1)
-						writer.write(",");
-					
-					i++;
-					writer.write("\n");
-					break; // This is so asNestedObject doesn't repeat
-				}
-			}
-			writer.write("}");
-			writer.flush();
+			LocationWriter locations = new LocationWriter(new Emitter(writer, compact));
+			locations.out.write('{');
+			index.visitWords(locations);
+			locations.finish();
 		}
 	}
-	
-	private static void resultArray(BufferedWriter writer, ArrayList<SearchResult> elements, int level) throws IOException
+
+	/**
+	 * Writes the positions as a JSON array at the specified indent level.
+	 *
+	 * @param positions
+	 *            sorted positions to write
+	 * @param count
+	 *            number of positions to write from the array
+	 * @param out
+	 *            emitter to use for output
+	 * @param level
+	 *            number of times to indent the array itself
+	 * @throws IOException
+	 */
+	private static void asArray(int[] positions, int count, Emitter out, int level) throws IOException
 	{
-		writer.write(indent(level + 1) + quote("results") + ": [\n" );
-		int i = 0;
-		for(SearchResult sr : elements)
+		out.write('[');
+
+		for(int i = 0; i < count; i++)
 		{
-			writer.write(indent(level + 2) + "{\n");
-			
-			writer.write(indent(level + 3) + quote("where") + ": " + quote(sr.getLoc()) + ",\n");
-			writer.write(indent(level + 3) + quote("count") + ": " + sr.getFreq() + ",\n");
-			writer.write(indent(level + 3) + quote("index") + ": " + sr.getPos() + "\n");
-			
-			writer.write(indent(level + 2) + "}");
-			
-			if(i < elements.size() - 1)
-				writer.write(",");
-			
-			i++;
-			writer.write("\n");
-			
+			out.newline();
+			out.indent(level + 1);
+			out.number(positions[i]);
+
+			if(i < count - 1)
+				out.write(',');
 		}
-		writer.write(indent(level + 1)+ "]\n" );
+
+		out.newline();
+		out.indent(level);
+		out.write(']');
 	}
-	
+
 	/**
 	 * Prints into JSON format given the raw data structure and path
 	 * @param elements
@@ -166,32 +207,521 @@ public class JSONWriter
 	 * @param path
 	 * 			takes in the path
 	 * @throws IOException
+	 *
+	 * @see #toSearchFormat(TreeMap, Path, boolean)
 	 */
 	public static void toSearchFormat(TreeMap<String, ArrayList<SearchResult>> elements, Path path) throws IOException
 	{
-		try(BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8))
+		toSearchFormat(elements, path, false);
+	}
+
+	/**
+	 * Prints into JSON format given the raw data structure and path
+	 * @param elements
+	 * 			takes in the data structure
+	 * @param path
+	 * 			takes in the path
+	 * @param compact
+	 * 			true to leave out all whitespace
+	 * @throws IOException
+	 */
+	public static void toSearchFormat(TreeMap<String, ArrayList<SearchResult>> elements, Path path, boolean compact) throws IOException
+	{
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE))
+		{
+			toSearchFormat(elements, writer, compact);
+		}
+	}
+
+	/**
+	 * Prints into JSON format given the raw data structure, to a writer that
+	 * is left open, such as the body of a response
+	 * @param elements
+	 * 			takes in the data structure
+	 * @param writer
+	 * 			writer to output to
+	 * @param compact
+	 * 			true to leave out all whitespace
+	 * @throws IOException
+	 */
+	public static void toSearchFormat(TreeMap<String, ArrayList<SearchResult>> elements, Writer writer, boolean compact) throws IOException
+	{
+		Emitter out = new Emitter(writer, compact);
+		out.write('[');
+
+		int level = 1;
+		int i = 0;
+		for(Map.Entry<String, ArrayList<SearchResult>> entry : elements.entrySet())
 		{
-			writer.write("[\n");
-			int level = 1;
-			int i = 0;
-			for(String query : elements.keySet())
+			out.newline();
+			out.indent(level);
+			out.write('{');
+			out.newline();
+
+			out.key("queries", level + 1);
+			out.string(entry.getKey());
+			out.write(',');
+			out.newline();
+
+			resultArray(out, entry.getValue(), level);
+
+			out.indent(level);
+			out.write('}');
+
+			if(i < elements.size() - 1)
+				out.write(',');
+
+			i++;
+		}
+
+		out.newline();
+		out.write(']');
+	}
+
+	/**
+	 * Writes the results of a single query as one compact JSON object on a
+	 * line of its own, with the same members as each object of
+	 * {@link #toSearchFormat(TreeMap, Writer, boolean)}. Lines written one
+	 * after another form a newline-delimited JSON stream.
+	 * @param query
+	 * 			cleaned query
+	 * @param results
+	 * 			search results of the query
+	 * @param writer
+	 * 			writer to output to, left open
+	 * @throws IOException
+	 */
+	public static void toSearchLine(String query, ArrayList<SearchResult> results, Writer writer) throws IOException
+	{
+		Emitter out = new Emitter(writer, true);
+		out.write('{');
+		out.key("queries", 1);
+		out.string(query);
+		out.write(',');
+		resultArray(out, results, 0);
+		out.write('}');
+		writer.write('\n');
+	}
+
+	/**
+	 * Writes the results of a single query as a JSON array of objects
+	 * @param out
+	 * 			emitter to use for output
+	 * @param elements
+	 * 			search results to write
+	 * @param level
+	 * 			indent level of the enclosing query object
+	 * @throws IOException
+	 */
+	private static void resultArray(Emitter out, ArrayList<SearchResult> elements, int level) throws IOException
+	{
+		out.key("results", level + 1);
+		out.write('[');
+
+		int i = 0;
+		for(SearchResult sr : elements)
+		{
+			out.newline();
+			out.indent(level + 2);
+			out.write('{');
+			out.newline();
+
+			out.key("where", level + 3);
+			out.string(sr.getLoc());
+			out.write(',');
+			out.newline();
+
+			out.key("count", level + 3);
+			out.number(sr.getFreq());
+			out.write(',');
+			out.newline();
+
+			out.key("index", level + 3);
+			out.number(sr.getPos());
+			out.newline();
+
+			out.indent(level + 2);
+			out.write('}');
+
+			if(i < elements.size() - 1)
+				out.write(',');
+
+			i++;
+		}
+
+		out.newline();
+		out.indent(level + 1);
+		out.write(']');
+		out.newline();
+	}
+
+	/**
+	 * Writes the metrics as a JSON report to the path using UTF8
+	 * @param metrics
+	 * 			metrics to report
+	 * @param path
+	 * 			path to write file
+	 * @param compact
+	 * 			true to leave out all whitespace
+	 * @throws IOException
+	 *
+	 * @see #toMetricsFormat(Metrics, Writer, boolean)
+	 */
+	public static void toMetricsFormat(Metrics metrics, Path path, boolean compact) throws IOException
+	{
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE))
+		{
+			toMetricsFormat(metrics, writer, compact);
+		}
+	}
+
+	/**
+	 * Writes the metrics as a JSON report to a writer that is left open. The
+	 * report holds the elapsed and CPU time of the process, the count, elapsed
+	 * time, and CPU time of each stage, the pages, bytes, and words indexed
+	 * with their rates over the build, and the query latency percentiles.
+	 * Times are in milliseconds and rates per second.
+	 * @param metrics
+	 * 			metrics to report
+	 * @param writer
+	 * 			writer to output to
+	 * @param compact
+	 * 			true to leave out all whitespace
+	 * @throws IOException
+	 */
+	public static void toMetricsFormat(Metrics metrics, Writer writer, boolean compact) throws IOException
+	{
+		Emitter out = new Emitter(writer, compact);
+		out.write('{');
+		out.newline();
+
+		out.key("elapsed_ms", 1);
+		out.decimal(metrics.getElapsedTime() / 1e6);
+		out.write(',');
+		out.newline();
+
+		long cpu = metrics.getProcessCPUTime();
+		if(cpu >= 0)
+		{
+			out.key("cpu_ms", 1);
+			out.decimal(cpu / 1e6);
+			out.write(',');
+			out.newline();
+		}
+
+		out.key("stages", 1);
+		out.write('{');
+		Metrics.Stage[] stages = Metrics.Stage.values();
+		for(int i = 0; i < stages.length; i++)
+		{
+			out.newline();
+			out.key(stages[i].getKey(), 2);
+			out.write('{');
+			out.newline();
+
+			out.key("count", 3);
+			out.number(metrics.getCount(stages[i]));
+			out.write(',');
+			out.newline();
+
+			out.key("wall_ms", 3);
+			out.decimal(metrics.getWallTime(stages[i]) / 1e6);
+			if(stages[i].hasCPU())
 			{
-				writer.write(indent(level) + "{\n");
-				writer.write(indent(level + 1) + quote("queries") + ": " + quote(query) + ",\n");
-				
-				resultArray(writer, elements.get(query), level);
-				
-				writer.write(indent(level) + "}");
-				
-				if(i < elements.size() - 1)
-					writer.write(",");
-				
-				i++;
-				writer.write("\n");
+				out.write(',');
+				out.newline();
+				out.key("cpu_ms", 3);
+				out.decimal(metrics.getCPUTime(stages[i]) / 1e6);
 			}
-			writer.write("]");
-			writer.flush();
+			out.newline();
+
+			out.indent(2);
+			out.write('}');
+			if(i < stages.length - 1)
+				out.write(',');
+		}
+		out.newline();
+		out.indent(1);
+		out.write('}');
+		out.write(',');
+		out.newline();
+
+		// Rates are over the whole build, so they include reading, waiting, and merging
+		double seconds = metrics.getWallTime(Metrics.Stage.BUILD) / 1e9;
+		long[] totals = {metrics.getFiles(), metrics.getBytes(), metrics.getTokens()};
+		String[] names = {"files", "bytes", "tokens"};
+
+		out.key("indexing", 1);
+		out.write('{');
+		for(int i = 0; i < totals.length; i++)
+		{
+			out.newline();
+			out.key(names[i], 2);
+			out.number(totals[i]);
+			out.write(',');
+			out.newline();
+			out.key(names[i] + "_per_second", 2);
+			out.decimal(seconds > 0 ? totals[i] / seconds : 0);
+			if(i < totals.length - 1)
+				out.write(',');
+		}
+		out.newline();
+		out.indent(1);
+		out.write('}');
+		out.write(',');
+		out.newline();
+
+		LatencyHistogram latency = metrics.getLatency();
+		double[] quantiles = {0.5, 0.9, 0.99, 0.999};
+		String[] percentiles = {"p50_ms", "p90_ms", "p99_ms", "p999_ms"};
+
+		out.key("queries", 1);
+		out.write('{');
+		out.newline();
+		out.key("count", 2);
+		out.number(latency.getCount());
+		out.write(',');
+		out.newline();
+		out.key("mean_ms", 2);
+		out.decimal(latency.getMean() / 1e6);
+		out.write(',');
+		out.newline();
+		out.key("min_ms", 2);
+		out.decimal(latency.getMin() / 1e6);
+		out.write(',');
+		for(int i = 0; i < quantiles.length; i++)
+		{
+			out.newline();
+			out.key(percentiles[i], 2);
+			out.decimal(latency.getValueAt(quantiles[i]) / 1e6);
+			out.write(',');
+		}
+		out.newline();
+		out.key("max_ms", 2);
+		out.decimal(latency.getMax() / 1e6);
+		out.newline();
+		out.indent(1);
+		out.write('}');
+		out.newline();
+
+		out.write('}');
+		out.newline();
+	}
+
+	/**
+	 * Writes each word as a member of the index's JSON object, and each html
+	 * page of the word and its positions as members of the word's object
+	 */
+	private static class LocationWriter implements SpillingIndex.WordVisitor
+	{
+		private final Emitter out;
+
+		/** True until the first word is written. */
+		private boolean firstWord;
+
+		/** True until the first page of the current word is written. */
+		private boolean first;
+
+		private LocationWriter(Emitter out)
+		{
+			this.out = out;
+			this.firstWord = true;
+			this.first = true;
+		}
+
+		@Override
+		public void startWord(String word) throws IOException
+		{
+			if(!firstWord)
+				out.write(',');
+
+			out.newline();
+			out.key(word, 1);
+			out.write('{');
+			first = true;
+		}
+
+		@Override
+		public void endWord() throws IOException
+		{
+			if(!first)
+				out.newline();
+
+			out.indent(1);
+			out.write('}');
+			firstWord = false;
+		}
+
+		/**
+		 * Closes the index's object after the last word
+		 */
+		private void finish() throws IOException
+		{
+			// Pretty output always breaks the line, so an empty index is written as it always was
+			out.newline();
+			out.write('}');
+		}
+
+		@Override
+		public void visit(String html, int[] positions, int count) throws IOException
+		{
+			if(!first)
+				out.write(',');
+
+			out.newline();
+			out.key(html, 2);
+			asArray(positions, count, out, 2);
+			first = false;
+		}
+	}
+
+	/**
+	 * Writes JSON tokens straight to a writer, either pretty printed with tabs
+	 * and newlines or compact with no whitespace at all. Indentation comes from
+	 * a shared array of tabs and numbers are formatted into a reused buffer, so
+	 * nothing is allocated per token.
+	 */
+	private static class Emitter
+	{
+		private final Writer writer;
+		private final boolean compact;
+		private final char[] digits;
+
+		private Emitter(Writer writer, boolean compact)
+		{
+			this.writer = writer;
+			this.compact = compact;
+			this.digits = new char[11];
+		}
+
+		private void write(char c) throws IOException
+		{
+			writer.write(c);
+		}
+
+		private void newline() throws IOException
+		{
+			if(!compact)
+				write('\n');
+		}
+
+		private void indent(int level) throws IOException
+		{
+			if(compact)
+				return;
+
+			while(level > TABS.length)
+			{
+				writer.write(TABS, 0, TABS.length);
+				level -= TABS.length;
+			}
+			writer.write(TABS, 0, level);
+		}
+
+		/**
+		 * Writes the text in quotes, escaping quotes, backslashes, and control
+		 * characters. Text that needs no escapes is written in one call.
+		 */
+		private void string(String text) throws IOException
+		{
+			write('"');
+
+			int start = 0;
+			for(int i = 0; i < text.length(); i++)
+			{
+				char c = text.charAt(i);
+				if(c >= ' ' && c != '"' && c != '\\')
+					continue;
+
+				writer.write(text, start, i - start);
+				start = i + 1;
+				write('\\');
+				switch(c)
+				{
+					case '"':
+					case '\\':
+						write(c);
+						break;
+					case '\n':
+						write('n');
+						break;
+					case '\r':
+						write('r');
+						break;
+					case '\t':
+						write('t');
+						break;
+					default:
+						// Only control characters are left, escaped as four hex digits
+						digits[0] = 'u';
+						digits[1] = HEX[c >> 12];
+						digits[2] = HEX[c >> 8 & 0xF];
+						digits[3] = HEX[c >> 4 & 0xF];
+						digits[4] = HEX[c & 0xF];
+						writer.write(digits, 0, 5);
+				}
+			}
+
+			writer.write(text, start, text.length() - start);
+			write('"');
+		}
+
+		/**
+		 * Writes an indented key and the separator that follows it
+		 */
+		private void key(String key, int level) throws IOException
+		{
+			indent(level);
+			string(key);
+			write(':');
+
+			if(!compact)
+				write(' ');
+		}
+
+		private void number(int value) throws IOException
+		{
+			if(value == Integer.MIN_VALUE)
+			{
+				writer.write(Integer.toString(value));
+				return;
+			}
+
+			boolean negative = value < 0;
+			if(negative)
+				value = -value;
+
+			int start = digits.length;
+			do
+			{
+				digits[--start] = (char) ('0' + value % 10);
+				value /= 10;
+			}
+			while(value != 0);
+
+			if(negative)
+				digits[--start] = '-';
+
+			writer.write(digits, start, digits.length - start);
+		}
+
+		private void number(long value) throws IOException
+		{
+			if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+				number((int) value);
+			else
+				writer.write(Long.toString(value));
+		}
+
+		/**
+		 * Writes a number with three decimal places, or 0 if it is not finite
+		 */
+		private void decimal(double value) throws IOException
+		{
+			if(Double.isNaN(value) || Double.isInfinite(value))
+				value = 0;
+
+			writer.write(String.format(Locale.ROOT, "%.3f", value));
 		}
 	}
-	
 }
@@ -0,0 +1,166 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, in the style
+ * of HdrHistogram. Values below {@value #SUB_BUCKETS} each get their own
+ * bucket; above that, every power of two is split into
+ * {@value #SUB_BUCKETS}/2 equal buckets, so any recorded value is known to
+ * within 1/64 of itself while the whole range of a long fits in a few
+ * thousand counters.
+ *
+ * Recording takes no locks and may happen on any number of threads at once.
+ * Percentiles read while values are being recorded may miss the newest ones.
+ */
+public class LatencyHistogram
+{
+	/** Bits of precision kept for each value. */
+	private static final int SUB_BUCKET_BITS = 7;
+
+	/** Number of values below which every value has its own bucket. */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** Number of buckets each power of two above the exact range is split into. */
+	private static final int HALF = SUB_BUCKETS / 2;
+
+	private final AtomicLongArray counts;
+	private final LongAdder sum;
+	private final AtomicLong min;
+	private final AtomicLong max;
+
+	public LatencyHistogram()
+	{
+		this.counts = new AtomicLongArray(SUB_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS) * HALF);
+		this.sum = new LongAdder();
+		this.min = new AtomicLong(Long.MAX_VALUE);
+		this.max = new AtomicLong(0);
+	}
+
+	/**
+	 * Records one value
+	 * @param nanos
+	 * 			latency in nanoseconds; negative values count as 0
+	 */
+	public void record(long nanos)
+	{
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(indexOf(value));
+		sum.add(value);
+		min.accumulateAndGet(value, Math::min);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Returns the number of values recorded
+	 * @return
+	 * 		number of values
+	 */
+	public long getCount()
+	{
+		long count = 0;
+		for(int i = 0; i < counts.length(); i++)
+			count += counts.get(i);
+		return count;
+	}
+
+	/**
+	 * Returns the mean of the values recorded
+	 * @return
+	 * 		mean in nanoseconds, or 0 if nothing was recorded
+	 */
+	public double getMean()
+	{
+		long count = getCount();
+		return count == 0 ? 0 : sum.doubleValue() / count;
+	}
+
+	/**
+	 * Returns the smallest value recorded
+	 * @return
+	 * 		smallest value in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getMin()
+	{
+		long value = min.get();
+		return value == Long.MAX_VALUE ? 0 : value;
+	}
+
+	/**
+	 * Returns the largest value recorded
+	 * @return
+	 * 		largest value in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Returns the value below which the given share of the recorded values
+	 * fall. The answer is the largest value its bucket could hold, so it is
+	 * never below the true percentile and at most 1/64 above it.
+	 * @param quantile
+	 * 			share of the values, from 0 to 1, such as 0.99 for p99
+	 * @return
+	 * 		value in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getValueAt(double quantile)
+	{
+		long[] snapshot = new long[counts.length()];
+		long count = 0;
+		for(int i = 0; i < snapshot.length; i++)
+		{
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+
+		if(count == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(Math.min(1, Math.max(0, quantile)) * count));
+		long seen = 0;
+		for(int i = 0; i < snapshot.length; i++)
+		{
+			seen += snapshot[i];
+			if(seen >= rank)
+				return Math.min(highestValueOf(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Returns the bucket of a value
+	 * @param value
+	 * 			value that is not negative
+	 * @return
+	 * 		index of its bucket
+	 */
+	private static int indexOf(long value)
+	{
+		if(value < SUB_BUCKETS)
+			return (int) value;
+
+		// Keep the top SUB_BUCKET_BITS bits; the first of them is always set
+		int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+		int top = (int) (value >>> shift);
+		return SUB_BUCKETS + (shift - 1) * HALF + (top - HALF);
+	}
+
+	/**
+	 * Returns the largest value that falls in a bucket
+	 * @param index
+	 * 			index of the bucket
+	 * @return
+	 * 		largest value of the bucket
+	 */
+	private static long highestValueOf(int index)
+	{
+		if(index < SUB_BUCKETS)
+			return index;
+
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long top = (index - SUB_BUCKETS) % HALF + HALF;
+		return (top << shift) + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,401 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the work done by each stage of indexing and searching, and how long
+ * it took. Every counter is a {@link LongAdder}, so threads record without
+ * contending, and nothing is recorded at all unless a metrics object is
+ * handed to the code doing the work.
+ *
+ * Stage times are summed over every thread doing that stage, so with several
+ * workers they may add up to more than the elapsed time. CPU time is read
+ * from the thread's own clock where a stage is coarse enough for that to be
+ * cheap; html cleaning, tokenizing, and adding words run together one
+ * character at a time, so adding is timed per word by the wall clock alone
+ * and cleaning with tokenizing is whatever is left of each file's time.
+ *
+ * Query latencies go into a {@link LatencyHistogram}.
+ */
+public class Metrics implements MetricsMBean
+{
+	/**
+	 * Stages of work that are timed
+	 */
+	public enum Stage
+	{
+		/** Whole pass over the input, including waiting for workers. */
+		BUILD("build", true),
+		/** Listing directories. */
+		TRAVERSE("traverse", true),
+		/** Reading files, timed per buffer. */
+		READ("read", true),
+		/** Cleaning html and splitting it into words. */
+		PARSE("parse", false),
+		/** Adding words to the index, timed per word. */
+		INSERT("insert", false),
+		/** Writing part of an index too large for memory to disk. */
+		SPILL("spill", true),
+		/** Writing the index as JSON. */
+		INDEX("index", true),
+		/** Saving the index in binary form. */
+		SAVE("save", true),
+		/** Answering a single query, cached or not. */
+		SEARCH("search", true),
+		/** Writing search results as JSON. */
+		RESULTS("results", true);
+
+		private final String key;
+		private final boolean cpu;
+
+		private Stage(String key, boolean cpu)
+		{
+			this.key = key;
+			this.cpu = cpu;
+		}
+
+		/**
+		 * Returns the name of the stage in reports
+		 * @return
+		 * 		name of the stage
+		 */
+		public String getKey()
+		{
+			return key;
+		}
+
+		/**
+		 * Checks if CPU time is measured for the stage
+		 * @return
+		 * 		true if the stage has CPU times
+		 */
+		public boolean hasCPU()
+		{
+			return cpu && CPU_TIME;
+		}
+	}
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	/** True if the JVM can read the CPU clock of the current thread. */
+	private static final boolean CPU_TIME;
+
+	static
+	{
+		boolean supported = THREADS.isCurrentThreadCpuTimeSupported();
+		if(supported && !THREADS.isThreadCpuTimeEnabled())
+		{
+			try
+			{
+				THREADS.setThreadCpuTimeEnabled(true);
+			}
+			catch(UnsupportedOperationException | SecurityException e)
+			{
+				supported = false;
+			}
+		}
+		CPU_TIME = supported;
+	}
+
+	/** Name the metrics are registered under with JMX. */
+	public static final String OBJECT_NAME = "InvertedIndex:type=Metrics";
+
+	private final long started;
+	private final LongAdder[] counts;
+	private final LongAdder[] walls;
+	private final LongAdder[] cpus;
+
+	private final LongAdder files;
+	private final LongAdder bytes;
+	private final LongAdder tokens;
+	private final LatencyHistogram latency;
+
+	public Metrics()
+	{
+		int stages = Stage.values().length;
+		this.started = System.nanoTime();
+		this.counts = new LongAdder[stages];
+		this.walls = new LongAdder[stages];
+		this.cpus = new LongAdder[stages];
+		for(int i = 0; i < stages; i++)
+		{
+			counts[i] = new LongAdder();
+			walls[i] = new LongAdder();
+			cpus[i] = new LongAdder();
+		}
+
+		this.files = new LongAdder();
+		this.bytes = new LongAdder();
+		this.tokens = new LongAdder();
+		this.latency = new LatencyHistogram();
+	}
+
+	/**
+	 * Returns the CPU time used so far by the current thread
+	 * @return
+	 * 		CPU time in nanoseconds, or 0 if the JVM cannot measure it
+	 */
+	public static long threadCPUTime()
+	{
+		return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * Records one run of a stage
+	 * @param stage
+	 * 			stage that ran
+	 * @param wall
+	 * 			elapsed time in nanoseconds
+	 * @param cpu
+	 * 			CPU time in nanoseconds, or 0 if not measured
+	 */
+	public void record(Stage stage, long wall, long cpu)
+	{
+		record(stage, 1, wall, cpu);
+	}
+
+	/**
+	 * Records several runs of a stage at once
+	 * @param stage
+	 * 			stage that ran
+	 * @param count
+	 * 			number of runs
+	 * @param wall
+	 * 			total elapsed time in nanoseconds
+	 * @param cpu
+	 * 			total CPU time in nanoseconds, or 0 if not measured
+	 */
+	public void record(Stage stage, long count, long wall, long cpu)
+	{
+		counts[stage.ordinal()].add(count);
+		walls[stage.ordinal()].add(wall);
+		if(cpu != 0)
+			cpus[stage.ordinal()].add(cpu);
+	}
+
+	/**
+	 * Records a page that was indexed
+	 * @param size
+	 * 			size of the file in bytes
+	 * @param words
+	 * 			number of words added from it
+	 */
+	public void recordFile(long size, long words)
+	{
+		files.increment();
+		bytes.add(size);
+		tokens.add(words);
+	}
+
+	/**
+	 * Records a query that was answered, both as a run of
+	 * {@link Stage#SEARCH} and in the latency histogram
+	 * @param wall
+	 * 			elapsed time in nanoseconds
+	 * @param cpu
+	 * 			CPU time in nanoseconds, or 0 if not measured
+	 */
+	public void recordQuery(long wall, long cpu)
+	{
+		record(Stage.SEARCH, wall, cpu);
+		latency.record(wall);
+	}
+
+	/**
+	 * Returns the number of runs of a stage
+	 * @param stage
+	 * 			stage to look up
+	 * @return
+	 * 		number of runs
+	 */
+	public long getCount(Stage stage)
+	{
+		return counts[stage.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the elapsed time of every run of a stage
+	 * @param stage
+	 * 			stage to look up
+	 * @return
+	 * 		total elapsed time in nanoseconds
+	 */
+	public long getWallTime(Stage stage)
+	{
+		return walls[stage.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the CPU time of every run of a stage
+	 * @param stage
+	 * 			stage to look up
+	 * @return
+	 * 		total CPU time in nanoseconds, or 0 if not measured
+	 */
+	public long getCPUTime(Stage stage)
+	{
+		return cpus[stage.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the time since the metrics were created
+	 * @return
+	 * 		elapsed time in nanoseconds
+	 */
+	public long getElapsedTime()
+	{
+		return System.nanoTime() - started;
+	}
+
+	/**
+	 * Returns the CPU time used by the whole process
+	 * @return
+	 * 		CPU time in nanoseconds, or -1 if the JVM cannot measure it
+	 */
+	public long getProcessCPUTime()
+	{
+		OperatingSystemMXBean system = ManagementFactory.getOperatingSystemMXBean();
+		if(system instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) system).getProcessCpuTime();
+		return -1;
+	}
+
+	/**
+	 * Returns the latencies of the queries answered
+	 * @return
+	 * 		histogram of query latencies
+	 */
+	public LatencyHistogram getLatency()
+	{
+		return latency;
+	}
+
+	@Override
+	public long getFiles()
+	{
+		return files.sum();
+	}
+
+	@Override
+	public long getBytes()
+	{
+		return bytes.sum();
+	}
+
+	@Override
+	public long getTokens()
+	{
+		return tokens.sum();
+	}
+
+	@Override
+	public long getQueries()
+	{
+		return latency.getCount();
+	}
+
+	@Override
+	public double getQueryMillisP50()
+	{
+		return latency.getValueAt(0.5) / 1e6;
+	}
+
+	@Override
+	public double getQueryMillisP99()
+	{
+		return latency.getValueAt(0.99) / 1e6;
+	}
+
+	@Override
+	public double getQueryMillisP999()
+	{
+		return latency.getValueAt(0.999) / 1e6;
+	}
+
+	@Override
+	public String getReport()
+	{
+		StringWriter writer = new StringWriter();
+		try
+		{
+			JSONWriter.toMetricsFormat(this, writer, true);
+		}
+		catch(IOException e)
+		{
+			// A StringWriter never fails
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under
+	 * {@value #OBJECT_NAME}, so tools like jconsole can read them while the
+	 * process runs. Metrics already registered under that name are replaced.
+	 */
+	public void register()
+	{
+		try
+		{
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		}
+		catch(JMException e)
+		{
+			System.out.println("Unable to register metrics with JMX");
+		}
+	}
+
+	/**
+	 * Times one run of a stage with both the wall clock and the thread's CPU
+	 * clock. A timer made without metrics measures nothing, so callers need no
+	 * checks of their own.
+	 */
+	public static class Timer
+	{
+		private final Metrics metrics;
+		private final Stage stage;
+		private final long wall;
+		private final long cpu;
+
+		/**
+		 * Starts timing a run of the stage
+		 * @param metrics
+		 * 			metrics to record into, or null to measure nothing
+		 * @param stage
+		 * 			stage being run
+		 */
+		public Timer(Metrics metrics, Stage stage)
+		{
+			this.metrics = metrics;
+			this.stage = stage;
+			this.wall = metrics == null ? 0 : System.nanoTime();
+			this.cpu = metrics == null ? 0 : threadCPUTime();
+		}
+
+		/**
+		 * Stops timing and records the run. Must be called on the thread that
+		 * started the timer.
+		 */
+		public void stop()
+		{
+			if(metrics == null)
+				return;
+
+			long elapsed = System.nanoTime() - wall;
+			long used = threadCPUTime() - cpu;
+			if(stage == Stage.SEARCH)
+				metrics.recordQuery(elapsed, used);
+			else
+				metrics.record(stage, elapsed, used);
+		}
+	}
+}
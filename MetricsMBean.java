@@ -0,0 +1,61 @@
+/**
+ * Attributes of {@link Metrics} readable over JMX
+ */
+public interface MetricsMBean
+{
+	/**
+	 * Returns the number of pages indexed
+	 * @return
+	 * 		number of pages
+	 */
+	long getFiles();
+
+	/**
+	 * Returns the size of the pages indexed
+	 * @return
+	 * 		number of bytes
+	 */
+	long getBytes();
+
+	/**
+	 * Returns the number of words added to the index
+	 * @return
+	 * 		number of words
+	 */
+	long getTokens();
+
+	/**
+	 * Returns the number of queries answered
+	 * @return
+	 * 		number of queries
+	 */
+	long getQueries();
+
+	/**
+	 * Returns the median query latency
+	 * @return
+	 * 		latency in milliseconds
+	 */
+	double getQueryMillisP50();
+
+	/**
+	 * Returns the 99th percentile query latency
+	 * @return
+	 * 		latency in milliseconds
+	 */
+	double getQueryMillisP99();
+
+	/**
+	 * Returns the 99.9th percentile query latency
+	 * @return
+	 * 		latency in milliseconds
+	 */
+	double getQueryMillisP999();
+
+	/**
+	 * Returns the full report written by {@code -stats}
+	 * @return
+	 * 		compact JSON report
+	 */
+	String getReport();
+}
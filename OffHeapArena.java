@@ -0,0 +1,170 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Memory outside the Java heap, handed out by bumping a pointer through large
+ * direct buffers. The collector sees one small object per chunk no matter how
+ * much is stored, so filling the arena adds nothing to the work of a
+ * collection. Nothing is ever freed on its own; the chunks are released when
+ * the arena is no longer reachable.
+ *
+ * Memory is addressed by a long: the chunk in the high bits and the offset in
+ * the low {@value #CHUNK_BITS} bits. An allocation never spans two chunks.
+ * Address 0 is never handed out, so it can stand for null.
+ *
+ * Not thread-safe. Direct buffers count against
+ * {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+ */
+public class OffHeapArena
+{
+	/** Bits of an address used for the offset within a chunk. */
+	private static final int CHUNK_BITS = 24;
+
+	/** Size of each chunk: 16MB. */
+	public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private static final long OFFSET_MASK = CHUNK_SIZE - 1;
+
+	private ByteBuffer[] chunks;
+	private int count;
+
+	/** Offset of the next free byte in the last chunk. */
+	private int used;
+
+	/**
+	 * Initializes an arena with one chunk
+	 */
+	public OffHeapArena()
+	{
+		this.chunks = new ByteBuffer[4];
+		this.count = 0;
+		addChunk();
+
+		// Keep address 0 free to stand for null
+		this.used = 8;
+	}
+
+	/**
+	 * Allocates zeroed memory
+	 * @param size
+	 * 			number of bytes, at most {@link #CHUNK_SIZE}
+	 * @return
+	 * 		address of the memory
+	 */
+	public long allocate(int size)
+	{
+		if(size < 0 || size > CHUNK_SIZE)
+			throw new IllegalArgumentException("Cannot allocate " + size + " bytes");
+
+		// Keep longs aligned
+		int start = (used + 7) & ~7;
+		if(start + size > CHUNK_SIZE)
+		{
+			addChunk();
+			start = 0;
+		}
+
+		used = start + size;
+		return ((long) (count - 1) << CHUNK_BITS) | start;
+	}
+
+	/**
+	 * Adds an empty chunk at the end
+	 */
+	private void addChunk()
+	{
+		if(count == chunks.length)
+			chunks = Arrays.copyOf(chunks, count * 2);
+
+		chunks[count++] = ByteBuffer.allocateDirect(CHUNK_SIZE);
+		used = 0;
+	}
+
+	/**
+	 * Returns the number of bytes reserved from the operating system
+	 * @return
+	 * 		size of every chunk together
+	 */
+	public long capacity()
+	{
+		return (long) count * CHUNK_SIZE;
+	}
+
+	/**
+	 * Returns the number of bytes handed out, counting alignment
+	 * @return
+	 * 		bytes in use
+	 */
+	public long size()
+	{
+		return (long) (count - 1) * CHUNK_SIZE + used;
+	}
+
+	private ByteBuffer chunk(long address)
+	{
+		return chunks[(int) (address >>> CHUNK_BITS)];
+	}
+
+	private static int offset(long address)
+	{
+		return (int) (address & OFFSET_MASK);
+	}
+
+	public byte getByte(long address)
+	{
+		return chunk(address).get(offset(address));
+	}
+
+	public void putByte(long address, byte value)
+	{
+		chunk(address).put(offset(address), value);
+	}
+
+	/**
+	 * Copies bytes out of the arena. The bytes must not cross the end of the
+	 * allocation they belong to.
+	 */
+	public void getBytes(long address, byte[] into, int offset, int length)
+	{
+		chunk(address).get(offset(address), into, offset, length);
+	}
+
+	/**
+	 * Copies bytes into the arena. The bytes must not cross the end of the
+	 * allocation they belong to.
+	 */
+	public void putBytes(long address, byte[] from, int offset, int length)
+	{
+		chunk(address).put(offset(address), from, offset, length);
+	}
+
+	public char getChar(long address)
+	{
+		return chunk(address).getChar(offset(address));
+	}
+
+	public void putChar(long address, char value)
+	{
+		chunk(address).putChar(offset(address), value);
+	}
+
+	public int getInt(long address)
+	{
+		return chunk(address).getInt(offset(address));
+	}
+
+	public void putInt(long address, int value)
+	{
+		chunk(address).putInt(offset(address), value);
+	}
+
+	public long getLong(long address)
+	{
+		return chunk(address).getLong(offset(address));
+	}
+
+	public void putLong(long address, long value)
+	{
+		chunk(address).putLong(offset(address), value);
+	}
+}
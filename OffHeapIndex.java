@@ -0,0 +1,1186 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index that keeps its words and postings in an {@link OffHeapArena}
+ * instead of as objects on the heap. The heap only holds the document table,
+ * a hash table of word addresses, and a sorted copy of those addresses for
+ * partial search: a few arrays of primitives, however many words and
+ * positions are stored. The collector never has to trace the index, so its
+ * pauses stay short and do not grow with it.
+ *
+ * Each word is stored once as UTF16 chars, so comparing and hashing it gives
+ * the same answers as the String would. It is followed by a header pointing
+ * at two chains of blocks, each block twice the size of the one before up to
+ * a limit: one of page records, and one of the variable-byte position deltas
+ * of every page, in the same encoding as a {@link PositionList}.
+ *
+ * <pre>
+ * word:     pages head, pages tail, positions tail (longs),
+ *           page count, last page, last position, length (ints), chars
+ * block:    next block (long), bytes or records used, capacity (ints), data
+ * page:     document id, position count, first position, deltas offset (ints),
+ *           deltas block (long)
+ * </pre>
+ *
+ * Postings are only ever appended: pages must be added whole or in
+ * increasing order of their ids, and positions in increasing order within a
+ * page, as {@link InvertedIndexBuilder} does. Pages cannot be removed. One
+ * read/write lock guards the whole index; pages are added under the write
+ * lock a page at a time, and searches share the read lock.
+ */
+public class OffHeapIndex implements Searchable
+{
+	// Word header fields
+	private static final int PAGES_HEAD = 0;
+	private static final int PAGES_TAIL = 8;
+	private static final int POSITIONS_TAIL = 16;
+	private static final int PAGE_COUNT = 24;
+	private static final int LAST_DOCUMENT = 28;
+	private static final int LAST_POSITION = 32;
+	private static final int LENGTH = 36;
+	private static final int CHARS = 40;
+
+	// Block header fields
+	private static final int NEXT = 0;
+	private static final int USED = 8;
+	private static final int CAPACITY = 12;
+	private static final int DATA = 16;
+
+	// Page record fields
+	private static final int DOCUMENT = 0;
+	private static final int COUNT = 4;
+	private static final int FIRST = 8;
+	private static final int DELTAS_OFFSET = 12;
+	private static final int DELTAS_BLOCK = 16;
+	private static final int PAGE_SIZE = 24;
+
+	/** Page records in the first and largest blocks of a word. */
+	private static final int MIN_PAGES = 2;
+	private static final int MAX_PAGES = 256;
+
+	/** Bytes of deltas in the first and largest blocks of a word. */
+	private static final int MIN_DELTAS = 16;
+	private static final int MAX_DELTAS = 4096;
+
+	/** Longest variable-byte encoding of an int; a delta never straddles two blocks. */
+	private static final int MAX_DELTA_BYTES = 5;
+
+	private final OffHeapArena arena;
+	private final DocumentTable documents;
+	private final ReentrantReadWriteLock lock;
+
+	/** Encoding of the delta being appended, only used under the write lock. */
+	private final byte[] encoded;
+
+	/** Bumped on every modification so cached search results can tell they are stale. */
+	private final AtomicLong version;
+
+	/** Open-addressed table of word addresses, 0 where empty, with the hash of each word alongside. */
+	private long[] table;
+	private int[] hashes;
+	private int words;
+
+	/** Word addresses sorted by word for partial search, rebuilt once stale. */
+	private volatile SortedWords sorted;
+
+	public OffHeapIndex()
+	{
+		this.arena = new OffHeapArena();
+		this.documents = new DocumentTable();
+		this.lock = new ReentrantReadWriteLock();
+		this.encoded = new byte[MAX_DELTA_BYTES];
+		this.version = new AtomicLong();
+		this.table = new long[1024];
+		this.hashes = new int[1024];
+		this.words = 0;
+	}
+
+	@Override
+	public long getVersion()
+	{
+		return version.get();
+	}
+
+	/**
+	 * Adds a word found at a position of the html page. The page must be the
+	 * last one the word was added to or a new one, and the position must come
+	 * after the word's other positions in the page.
+	 * @param word
+	 * 			word to add
+	 * @param html
+	 * 			page the word was found in
+	 * @param position
+	 * 			position of the word in the page
+	 * @throws IllegalArgumentException
+	 * 			if the page or position comes before ones already added
+	 */
+	public void add(String word, String html, int position)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			add(termFor(word), documents.add(html), position);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Merges every word, html page, and position from another index into this
+	 * one, under a single acquisition of the write lock. Pages of the other
+	 * index that are already in this one must only add positions after the
+	 * ones they have.
+	 * @param other
+	 * 			index to merge, usually a single page built by
+	 * 			{@link InvertedIndexBuilder#buildIndex(Path)}
+	 * @throws IllegalArgumentException
+	 * 			if a page or position comes before ones already added
+	 */
+	public void addAll(InvertedIndex other)
+	{
+		if(other.numDocuments() == 0)
+			return;
+
+		lock.writeLock().lock();
+		try
+		{
+			// Pages without any words still count as documents
+			DocumentTable source = other.getDocuments();
+			for(int id = 0; id < source.size(); id++)
+				documents.add(source.getPath(id));
+
+			ArrayList<String> paths = new ArrayList<String>();
+			ArrayList<int[]> positions = new ArrayList<int[]>();
+			for(String word : other.getWords())
+			{
+				long term = termFor(word);
+
+				paths.clear();
+				positions.clear();
+				other.visitLocations(word, (html, list, count) ->
+				{
+					paths.add(html);
+					positions.add(Arrays.copyOf(list, count));
+				});
+
+				// Pages come out in path order but are appended in id order
+				long[] order = new long[paths.size()];
+				for(int i = 0; i < order.length; i++)
+					order[i] = ((long) documents.getId(paths.get(i)) << 32) | i;
+				Arrays.sort(order);
+
+				for(long key : order)
+				{
+					int document = (int) (key >>> 32);
+					for(int position : positions.get((int) key))
+						add(term, document, position);
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			// The visitor above never throws
+			throw new IllegalStateException(e);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Appends a position to the postings of a word. The caller must hold the
+	 * write lock.
+	 * @param term
+	 * 			address of the word
+	 * @param document
+	 * 			id of the page
+	 * @param position
+	 * 			position of the word in the page
+	 */
+	private void add(long term, int document, int position)
+	{
+		int pages = arena.getInt(term + PAGE_COUNT);
+		int last = arena.getInt(term + LAST_DOCUMENT);
+		if(pages > 0 && document == last)
+		{
+			int previous = arena.getInt(term + LAST_POSITION);
+			if(position == previous)
+				return;
+
+			if(position < previous)
+				throw new IllegalArgumentException("Positions must be added in increasing order within a page");
+
+			appendPosition(term, position - previous);
+			arena.putInt(term + LAST_POSITION, position);
+		}
+		else if(pages == 0 || document > last)
+		{
+			appendPage(term, document, position);
+			arena.putInt(term + PAGE_COUNT, pages + 1);
+			arena.putInt(term + LAST_DOCUMENT, document);
+			arena.putInt(term + LAST_POSITION, position);
+		}
+		else
+			throw new IllegalArgumentException("Pages must be added in increasing order of their ids");
+	}
+
+	/**
+	 * Starts a new page in the postings of a word with its first position
+	 * @param term
+	 * 			address of the word
+	 * @param document
+	 * 			id of the page
+	 * @param position
+	 * 			first position of the word in the page
+	 */
+	private void appendPage(long term, int document, int position)
+	{
+		long block = arena.getLong(term + PAGES_TAIL);
+		if(block == 0 || arena.getInt(block + USED) == arena.getInt(block + CAPACITY))
+		{
+			int capacity = block == 0 ? MIN_PAGES : Math.min(arena.getInt(block + CAPACITY) * 2, MAX_PAGES);
+			long next = newBlock(capacity, capacity * PAGE_SIZE);
+			if(block == 0)
+				arena.putLong(term + PAGES_HEAD, next);
+			else
+				arena.putLong(block + NEXT, next);
+
+			arena.putLong(term + PAGES_TAIL, next);
+			block = next;
+		}
+
+		int used = arena.getInt(block + USED);
+		long page = block + DATA + (long) used * PAGE_SIZE;
+		arena.putInt(page + DOCUMENT, document);
+		arena.putInt(page + COUNT, 1);
+		arena.putInt(page + FIRST, position);
+		arena.putInt(block + USED, used + 1);
+	}
+
+	/**
+	 * Adds a position to the last page of a word, as the delta from the
+	 * position before it
+	 * @param term
+	 * 			address of the word
+	 * @param delta
+	 * 			gap from the previous position, above 0
+	 */
+	private void appendPosition(long term, int delta)
+	{
+		long block = arena.getLong(term + POSITIONS_TAIL);
+		if(block == 0 || arena.getInt(block + CAPACITY) - arena.getInt(block + USED) < MAX_DELTA_BYTES)
+		{
+			int capacity = block == 0 ? MIN_DELTAS : Math.min(arena.getInt(block + CAPACITY) * 2, MAX_DELTAS);
+			long next = newBlock(capacity, capacity);
+			if(block != 0)
+				arena.putLong(block + NEXT, next);
+
+			arena.putLong(term + POSITIONS_TAIL, next);
+			block = next;
+		}
+
+		// The deltas of a page start wherever its second position is written
+		long pages = arena.getLong(term + PAGES_TAIL);
+		long page = pages + DATA + (long) (arena.getInt(pages + USED) - 1) * PAGE_SIZE;
+		int count = arena.getInt(page + COUNT);
+		int used = arena.getInt(block + USED);
+		if(count == 1)
+		{
+			arena.putLong(page + DELTAS_BLOCK, block);
+			arena.putInt(page + DELTAS_OFFSET, used);
+		}
+
+		int size = PositionList.writeNumber(encoded, 0, delta);
+		arena.putBytes(block + DATA + used, encoded, 0, size);
+		arena.putInt(block + USED, used + size);
+		arena.putInt(page + COUNT, count + 1);
+	}
+
+	/**
+	 * Allocates an empty block
+	 * @param capacity
+	 * 			number of records or bytes the block holds
+	 * @param bytes
+	 * 			size of the data in bytes
+	 * @return
+	 * 		address of the block
+	 */
+	private long newBlock(int capacity, int bytes)
+	{
+		long block = arena.allocate(DATA + bytes);
+		arena.putInt(block + CAPACITY, capacity);
+		return block;
+	}
+
+	/**
+	 * Finds a word, adding it with no pages if it is new. The caller must hold
+	 * the write lock.
+	 * @param word
+	 * 			word to look up
+	 * @return
+	 * 		address of the word
+	 */
+	private long termFor(String word)
+	{
+		int hash = word.hashCode();
+		int mask = table.length - 1;
+		int slot = spread(hash) & mask;
+		while(table[slot] != 0)
+		{
+			if(hashes[slot] == hash && matches(table[slot], word))
+				return table[slot];
+
+			slot = (slot + 1) & mask;
+		}
+
+		long term = arena.allocate(CHARS + 2 * word.length());
+		for(int i = 0; i < word.length(); i++)
+			arena.putChar(term + CHARS + 2 * i, word.charAt(i));
+		arena.putInt(term + LENGTH, word.length());
+
+		table[slot] = term;
+		hashes[slot] = hash;
+		words++;
+
+		// Keep the table at most half full
+		if(words * 2 > table.length)
+			grow();
+
+		return term;
+	}
+
+	/**
+	 * Finds a word
+	 * @param word
+	 * 			word to look up
+	 * @return
+	 * 		address of the word, or 0 if it is not in the index
+	 */
+	private long find(String word)
+	{
+		int hash = word.hashCode();
+		int mask = table.length - 1;
+		int slot = spread(hash) & mask;
+		while(table[slot] != 0)
+		{
+			if(hashes[slot] == hash && matches(table[slot], word))
+				return table[slot];
+
+			slot = (slot + 1) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * Doubles the hash table and puts every word back in it
+	 */
+	private void grow()
+	{
+		long[] oldTable = table;
+		int[] oldHashes = hashes;
+		table = new long[oldTable.length * 2];
+		hashes = new int[oldTable.length * 2];
+
+		int mask = table.length - 1;
+		for(int i = 0; i < oldTable.length; i++)
+		{
+			if(oldTable[i] == 0)
+				continue;
+
+			int slot = spread(oldHashes[i]) & mask;
+			while(table[slot] != 0)
+				slot = (slot + 1) & mask;
+
+			table[slot] = oldTable[i];
+			hashes[slot] = oldHashes[i];
+		}
+	}
+
+	/**
+	 * Mixes the high bits of a hash into the low bits used for a slot
+	 */
+	private static int spread(int hash)
+	{
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Checks if a stored word is equal to a string
+	 * @param term
+	 * 			address of the word
+	 * @param word
+	 * 			string to compare to
+	 * @return
+	 * 		true if they have the same chars
+	 */
+	private boolean matches(long term, String word)
+	{
+		if(arena.getInt(term + LENGTH) != word.length())
+			return false;
+
+		for(int i = 0; i < word.length(); i++)
+		{
+			if(arena.getChar(term + CHARS + 2 * i) != word.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compares two stored words as {@link String#compareTo(String)} would
+	 * @param a
+	 * 			address of a word
+	 * @param b
+	 * 			address of another word
+	 * @return
+	 * 		negative, zero, or positive as the first word sorts before, with,
+	 * 		or after the second
+	 */
+	private int compare(long a, long b)
+	{
+		int lengthA = arena.getInt(a + LENGTH);
+		int lengthB = arena.getInt(b + LENGTH);
+		int length = Math.min(lengthA, lengthB);
+		for(int i = 0; i < length; i++)
+		{
+			char x = arena.getChar(a + CHARS + 2 * i);
+			char y = arena.getChar(b + CHARS + 2 * i);
+			if(x != y)
+				return x - y;
+		}
+		return lengthA - lengthB;
+	}
+
+	/**
+	 * Compares the start of a stored word to a prefix
+	 * @param term
+	 * 			address of the word
+	 * @param prefix
+	 * 			prefix to compare to
+	 * @return
+	 * 		0 if the word starts with the prefix, otherwise negative or
+	 * 		positive as the word sorts before or after every word that does
+	 */
+	private int comparePrefix(long term, String prefix)
+	{
+		int length = arena.getInt(term + LENGTH);
+		int shared = Math.min(length, prefix.length());
+		for(int i = 0; i < shared; i++)
+		{
+			char x = arena.getChar(term + CHARS + 2 * i);
+			char y = prefix.charAt(i);
+			if(x != y)
+				return x - y;
+		}
+		return length < prefix.length() ? -1 : 0;
+	}
+
+	/**
+	 * Reads a stored word back into a string
+	 * @param term
+	 * 			address of the word
+	 * @return
+	 * 		the word
+	 */
+	private String wordOf(long term)
+	{
+		char[] chars = new char[arena.getInt(term + LENGTH)];
+		for(int i = 0; i < chars.length; i++)
+			chars[i] = arena.getChar(term + CHARS + 2 * i);
+		return new String(chars);
+	}
+
+	/**
+	 * Returns the number of html pages in the index
+	 * @return
+	 * 		number of pages
+	 */
+	public int numDocuments()
+	{
+		return documents.size();
+	}
+
+	/**
+	 * Returns the number of distinct words in the index
+	 * @return
+	 * 		number of words
+	 */
+	public int numWords()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return words;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of off-heap memory in use
+	 * @return
+	 * 		bytes handed out by the arena
+	 */
+	public long offHeapSize()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return arena.size();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Checks if the word is in the index
+	 * @param word
+	 * 			word to look up
+	 * @return
+	 * 		true if the word was found in any html page
+	 */
+	public boolean contains(String word)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return find(word) != 0;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the words sorted as strings, rebuilding them if the index has
+	 * changed since they were last sorted. The caller must hold the read lock.
+	 * @return
+	 * 		current sorted words
+	 */
+	private SortedWords sortedWords()
+	{
+		SortedWords current = sorted;
+		long now = version.get();
+		if(current != null && current.version == now)
+			return current;
+
+		synchronized(this)
+		{
+			current = sorted;
+			if(current != null && current.version == now)
+				return current;
+
+			long[] terms = new long[words];
+			int count = 0;
+			for(long term : table)
+			{
+				if(term != 0)
+					terms[count++] = term;
+			}
+			sort(terms, 0, count - 1);
+
+			current = new SortedWords(now, terms);
+			sorted = current;
+			return current;
+		}
+	}
+
+	/**
+	 * Sorts word addresses by their words with a quicksort, since the
+	 * comparison reads the arena and cannot be given to {@link Arrays}
+	 * without boxing every address
+	 * @param terms
+	 * 			addresses to sort
+	 * @param low
+	 * 			first index to sort
+	 * @param high
+	 * 			last index to sort, inclusive
+	 */
+	private void sort(long[] terms, int low, int high)
+	{
+		while(high - low > 16)
+		{
+			long pivot = terms[(low + high) >>> 1];
+			int i = low;
+			int j = high;
+			while(i <= j)
+			{
+				while(compare(terms[i], pivot) < 0)
+					i++;
+				while(compare(terms[j], pivot) > 0)
+					j--;
+
+				if(i <= j)
+				{
+					long swap = terms[i];
+					terms[i++] = terms[j];
+					terms[j--] = swap;
+				}
+			}
+
+			// Recurse into the smaller side so the stack stays shallow
+			if(j - low < high - i)
+			{
+				sort(terms, low, j);
+				low = i;
+			}
+			else
+			{
+				sort(terms, i, high);
+				high = j;
+			}
+		}
+
+		for(int i = low + 1; i <= high; i++)
+		{
+			long term = terms[i];
+			int j = i - 1;
+			while(j >= low && compare(terms[j], term) > 0)
+			{
+				terms[j + 1] = terms[j];
+				j--;
+			}
+			terms[j + 1] = term;
+		}
+	}
+
+	/**
+	 * Word addresses of the index at one version, sorted by word
+	 */
+	private static class SortedWords
+	{
+		private final long version;
+		private final long[] terms;
+
+		private SortedWords(long version, long[] terms)
+		{
+			this.version = version;
+			this.terms = terms;
+		}
+	}
+
+	/**
+	 * Finds the first sorted word that does not sort before every word
+	 * starting with the prefix
+	 * @param terms
+	 * 			sorted word addresses
+	 * @param prefix
+	 * 			prefix to look for
+	 * @param after
+	 * 			false for the first word starting with the prefix, true for the
+	 * 			first word after them
+	 * @return
+	 * 		index into the sorted words
+	 */
+	private int search(long[] terms, String prefix, boolean after)
+	{
+		int low = 0;
+		int high = terms.length;
+		while(low < high)
+		{
+			int middle = (low + high) >>> 1;
+			int comparison = comparePrefix(terms[middle], prefix);
+			if(comparison < 0 || (after && comparison == 0))
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Reads the pages of a word into arrays
+	 * @param term
+	 * 			address of the word
+	 * @return
+	 * 		pages of the word in id order
+	 */
+	private Pages pagesOf(long term)
+	{
+		Pages pages = new Pages(arena.getInt(term + PAGE_COUNT));
+		int i = 0;
+		for(long block = arena.getLong(term + PAGES_HEAD); block != 0; block = arena.getLong(block + NEXT))
+		{
+			int used = arena.getInt(block + USED);
+			for(int j = 0; j < used; j++)
+				pages.records[i++] = block + DATA + (long) j * PAGE_SIZE;
+		}
+
+		for(i = 0; i < pages.size; i++)
+			pages.documents[i] = arena.getInt(pages.records[i] + DOCUMENT);
+		return pages;
+	}
+
+	/**
+	 * Page records of one word, with their ids copied out for intersecting
+	 */
+	private static class Pages
+	{
+		private final int size;
+		private final int[] documents;
+		private final long[] records;
+
+		private Pages(int size)
+		{
+			this.size = size;
+			this.documents = new int[size];
+			this.records = new long[size];
+		}
+	}
+
+	/**
+	 * Decodes the positions of a page. A delta never straddles two blocks, so
+	 * the deltas are copied out of each block in one go and decoded on the
+	 * heap.
+	 * @param page
+	 * 			address of the page record
+	 * @param into
+	 * 			array to reuse if it is large enough
+	 * @param deltas
+	 * 			buffer of at least {@value #MAX_DELTAS} bytes to copy deltas into
+	 * @return
+	 * 		array whose first {@link #countOf(long)} entries are the positions
+	 */
+	private int[] positionsOf(long page, int[] into, byte[] deltas)
+	{
+		int count = arena.getInt(page + COUNT);
+		int[] positions = into.length >= count ? into : new int[Math.max(count, into.length * 2)];
+
+		int position = arena.getInt(page + FIRST);
+		positions[0] = position;
+		if(count == 1)
+			return positions;
+
+		long block = arena.getLong(page + DELTAS_BLOCK);
+		int offset = arena.getInt(page + DELTAS_OFFSET);
+		int i = 1;
+		while(i < count)
+		{
+			// The deltas of a page may carry on into the next block
+			int used = arena.getInt(block + USED);
+			if(offset >= used)
+			{
+				block = arena.getLong(block + NEXT);
+				offset = 0;
+				continue;
+			}
+
+			// Copy no more than the rest of the page's deltas could take
+			int length = (int) Math.min(used - offset, (long) (count - i) * MAX_DELTA_BYTES);
+			arena.getBytes(block + DATA + offset, deltas, 0, length);
+			offset += length;
+
+			int read = 0;
+			while(read < length && i < count)
+			{
+				int delta = PositionList.readNumber(deltas, read);
+				read += PositionList.numberSize(delta);
+				position += delta;
+				positions[i++] = position;
+			}
+		}
+		return positions;
+	}
+
+	private int countOf(long page)
+	{
+		return arena.getInt(page + COUNT);
+	}
+
+	private int firstOf(long page)
+	{
+		return arena.getInt(page + FIRST);
+	}
+
+	/**
+	 * Adds the pages of a word to the search results. The caller must hold
+	 * the read lock.
+	 * @param term
+	 * 			address of a matching word
+	 * @param searchResults
+	 * 			SearchResults arrayList
+	 * @param searchMap
+	 * 			SearchResults indexed by document id
+	 */
+	private void searchHelper(long term, ArrayList<SearchResult> searchResults, SearchResult[] searchMap)
+	{
+		for(long block = arena.getLong(term + PAGES_HEAD); block != 0; block = arena.getLong(block + NEXT))
+		{
+			int used = arena.getInt(block + USED);
+			for(int j = 0; j < used; j++)
+			{
+				long page = block + DATA + (long) j * PAGE_SIZE;
+				int document = arena.getInt(page + DOCUMENT);
+				if(searchMap[document] != null)
+					searchMap[document].update(countOf(page), firstOf(page));
+				else
+				{
+					searchMap[document] = new SearchResult(countOf(page), firstOf(page), documents.getPath(document));
+					searchResults.add(searchMap[document]);
+				}
+			}
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(String[] words, int limit)
+	{
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+		lock.readLock().lock();
+		try
+		{
+			// Results by document id, used for multiple-word queries
+			SearchResult[] searchMap = new SearchResult[documents.size()];
+			for(String word : words)
+			{
+				long term = find(word);
+				if(term != 0)
+					searchHelper(term, results, searchMap);
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return InvertedIndex.topResults(results, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(String[] words, int limit)
+	{
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+		lock.readLock().lock();
+		try
+		{
+			SearchResult[] searchMap = new SearchResult[documents.size()];
+			long[] terms = sortedWords().terms;
+			for(String prefix : words)
+			{
+				// Every word starting with the prefix is in one range
+				int end = search(terms, prefix, true);
+				for(int i = search(terms, prefix, false); i < end; i++)
+					searchHelper(terms[i], results, searchMap);
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return InvertedIndex.topResults(results, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> conjunctiveSearch(String[] words, boolean exact, int limit)
+	{
+		return exact ? positionalSearch(words, -1, limit) : partialConjunctiveSearch(words, limit);
+	}
+
+	/**
+	 * Searches for the pages containing a word starting with every prefix
+	 * @param words
+	 * 			each individual prefix
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		sorted search results
+	 */
+	private ArrayList<SearchResult> partialConjunctiveSearch(String[] words, int limit)
+	{
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+		lock.readLock().lock();
+		try
+		{
+			// Results by document id, and how many prefixes in a row each page has matched
+			SearchResult[] searchMap = new SearchResult[documents.size()];
+			int[] matched = new int[searchMap.length];
+			long[] terms = sortedWords().terms;
+			for(int q = 0; q < words.length; q++)
+			{
+				int end = search(terms, words[q], true);
+				for(int i = search(terms, words[q], false); i < end; i++)
+				{
+					for(long block = arena.getLong(terms[i] + PAGES_HEAD); block != 0; block = arena.getLong(block + NEXT))
+					{
+						int used = arena.getInt(block + USED);
+						for(int j = 0; j < used; j++)
+						{
+							long page = block + DATA + (long) j * PAGE_SIZE;
+							int document = arena.getInt(page + DOCUMENT);
+
+							// Pages that missed an earlier prefix can no longer match
+							if(matched[document] < q)
+								continue;
+
+							matched[document] = q + 1;
+							if(searchMap[document] != null)
+								searchMap[document].update(countOf(page), firstOf(page));
+							else
+								searchMap[document] = new SearchResult(countOf(page), firstOf(page), documents.getPath(document));
+						}
+					}
+				}
+			}
+
+			for(int document = 0; document < searchMap.length; document++)
+			{
+				if(searchMap[document] != null && matched[document] == words.length)
+					results.add(searchMap[document]);
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return InvertedIndex.topResults(results, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> phraseSearch(String[] words, int limit)
+	{
+		return positionalSearch(words, 0, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> proximitySearch(String first, String second, int distance, int limit)
+	{
+		return positionalSearch(new String[] {first, second}, Math.max(1, distance), limit);
+	}
+
+	/**
+	 * Intersects the pages of every word, rarest word first, and either
+	 * counts their positions or matches them within each page found in all of
+	 * them
+	 * @param words
+	 * 			words to match
+	 * @param distance
+	 * 			-1 to only require every word, 0 to match a phrase, or the
+	 * 			largest gap between two words
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		sorted search results
+	 */
+	private ArrayList<SearchResult> positionalSearch(String[] words, int distance, int limit)
+	{
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+		if(words.length == 0)
+			return results;
+
+		lock.readLock().lock();
+		try
+		{
+			Pages[] pages = new Pages[words.length];
+			for(int i = 0; i < words.length; i++)
+			{
+				long term = find(words[i]);
+				if(term == 0)
+					return results;
+
+				pages[i] = pagesOf(term);
+			}
+
+			int[] order = rarestFirst(pages);
+			int[] cursors = new int[words.length];
+			int[][] positions = new int[words.length][16];
+			int[] sizes = new int[words.length];
+			byte[] deltas = new byte[MAX_DELTAS];
+			PositionMatcher matcher = new PositionMatcher();
+
+			while(intersect(pages, order, cursors))
+			{
+				String html = documents.getPath(pages[0].documents[cursors[0]]);
+				if(distance < 0)
+				{
+					int count = 0;
+					int position = Integer.MAX_VALUE;
+					for(int i = 0; i < words.length; i++)
+					{
+						long page = pages[i].records[cursors[i]];
+						count += countOf(page);
+						position = Math.min(position, firstOf(page));
+					}
+					results.add(new SearchResult(count, position, html));
+				}
+				else
+				{
+					for(int i = 0; i < words.length; i++)
+					{
+						long page = pages[i].records[cursors[i]];
+						positions[i] = positionsOf(page, positions[i], deltas);
+						sizes[i] = countOf(page);
+					}
+
+					boolean found = distance == 0 ? matcher.phrase(positions, sizes) : matcher.near(positions[0], sizes[0], positions[1], sizes[1], distance);
+					if(found)
+						results.add(new SearchResult(matcher.getCount(), matcher.getFirst(), html));
+				}
+
+				cursors[order[0]]++;
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return InvertedIndex.topResults(results, limit);
+	}
+
+	/**
+	 * Returns the indexes of the words ordered from the fewest pages to the
+	 * most
+	 * @param pages
+	 * 			pages of each word
+	 * @return
+	 * 		indexes into the words, rarest first
+	 */
+	private static int[] rarestFirst(Pages[] pages)
+	{
+		int[] order = new int[pages.length];
+		for(int i = 0; i < order.length; i++)
+			order[i] = i;
+
+		// Queries are only a few words long
+		for(int i = 1; i < order.length; i++)
+		{
+			int index = order[i];
+			int j = i - 1;
+			while(j >= 0 && pages[order[j]].size > pages[index].size)
+			{
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = index;
+		}
+		return order;
+	}
+
+	/**
+	 * Moves the cursors to the next page found in the pages of every word,
+	 * starting from where they are, the same way as the intersection in
+	 * {@link InvertedIndex}
+	 * @param pages
+	 * 			pages of each word
+	 * @param order
+	 * 			indexes of the words, rarest first
+	 * @param cursors
+	 * 			index into the pages of each word, moved to the page found
+	 * @return
+	 * 		true if a page was found, false once the rarest word runs out
+	 */
+	private static boolean intersect(Pages[] pages, int[] order, int[] cursors)
+	{
+		Pages rarest = pages[order[0]];
+		while(cursors[order[0]] < rarest.size)
+		{
+			int document = rarest.documents[cursors[order[0]]];
+			boolean found = true;
+
+			for(int k = 1; k < order.length && found; k++)
+			{
+				int i = order[k];
+				cursors[i] = PositionMatcher.gallop(pages[i].documents, cursors[i], pages[i].size, document);
+				if(cursors[i] == pages[i].size)
+				{
+					cursors[order[0]] = rarest.size;
+					return false;
+				}
+
+				int next = pages[i].documents[cursors[i]];
+				if(next != document)
+				{
+					cursors[order[0]] = PositionMatcher.gallop(rarest.documents, cursors[order[0]] + 1, rarest.size, next);
+					found = false;
+				}
+			}
+
+			if(found)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Passes every word in sorted order to the visitor, and the pages of each
+	 * word in path order, the same way {@link SpillingIndex} does. Holds the
+	 * read lock throughout, so no page can be added while this runs.
+	 * @param visitor
+	 * 			visitor to call for each word
+	 * @throws IOException
+	 * 			if the visitor throws one
+	 */
+	public void visitWords(SpillingIndex.WordVisitor visitor) throws IOException
+	{
+		lock.readLock().lock();
+		try
+		{
+			int[] ranks = documents.getRanks();
+			int[] positions = new int[16];
+			byte[] deltas = new byte[MAX_DELTAS];
+			for(long term : sortedWords().terms)
+			{
+				visitor.startWord(wordOf(term));
+
+				// Sort the pages by path rank, keeping the page index in the low bits
+				Pages pages = pagesOf(term);
+				long[] order = new long[pages.size];
+				for(int i = 0; i < order.length; i++)
+					order[i] = ((long) ranks[pages.documents[i]] << 32) | i;
+				Arrays.sort(order);
+
+				for(long key : order)
+				{
+					long page = pages.records[(int) key];
+					positions = positionsOf(page, positions, deltas);
+					visitor.visit(documents.getPath(pages.documents[(int) key]), positions, countOf(page));
+				}
+
+				visitor.endWord();
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes the index as JSON, exactly as
+	 * {@link InvertedIndex#toJSON(Path, boolean)} would have
+	 * @param path
+	 * 			path to output
+	 * @param compact
+	 * 			true to leave out all whitespace
+	 * @throws IOException
+	 */
+	public void toJSON(Path path, boolean compact) throws IOException
+	{
+		JSONWriter.asInvertedIndexObject(this, path, compact);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "OffHeapIndex: " + numWords() + " words, " + numDocuments() + " pages, " + offHeapSize() + " bytes off the heap";
+	}
+}
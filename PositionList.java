@@ -0,0 +1,405 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorted set of word positions stored as variable-byte encoded deltas. The
+ * first and last positions and the number of positions are kept unencoded,
+ * so the count and first position used by search never decode the list.
+ *
+ * Each delta between consecutive positions is written 7 bits per byte, low
+ * bits first, with the high bit set on every byte except the last. Positions
+ * within a page are usually a few words apart, so most deltas take one byte.
+ */
+public class PositionList
+{
+	private static final int[] EMPTY = new int[0];
+
+	/** Encoded deltas between consecutive positions, after the first. */
+	private byte[] data;
+
+	/** Number of bytes of data in use. */
+	private int length;
+
+	private int count;
+	private int first;
+	private int last;
+
+	/**
+	 * Initializes an empty position list
+	 */
+	public PositionList()
+	{
+		this.data = new byte[4];
+		this.length = 0;
+		this.count = 0;
+	}
+
+	/**
+	 * Adds the position to the list if it is not already there. Positions
+	 * added in increasing order are appended without decoding anything.
+	 * @param position
+	 * 			position to add
+	 */
+	public void add(int position)
+	{
+		if(count == 0)
+		{
+			first = position;
+			last = position;
+			count = 1;
+		}
+		else if(position > last)
+		{
+			append(position - last);
+			last = position;
+			count++;
+		}
+		else if(!contains(position))
+		{
+			int[] positions = toArray();
+			int index = -Arrays.binarySearch(positions, position) - 1;
+
+			int[] merged = new int[positions.length + 1];
+			System.arraycopy(positions, 0, merged, 0, index);
+			merged[index] = position;
+			System.arraycopy(positions, index, merged, index + 1, positions.length - index);
+			encode(merged, merged.length);
+		}
+	}
+
+	/**
+	 * Adds every position from the other list. If the other list starts after
+	 * the end of this one, its encoded deltas are copied over as they are.
+	 * @param other
+	 * 			positions to add
+	 */
+	public void addAll(PositionList other)
+	{
+		if(other.count == 0)
+			return;
+
+		if(count == 0 || other.first > last)
+		{
+			add(other.first);
+			ensureCapacity(length + other.length);
+			System.arraycopy(other.data, 0, data, length, other.length);
+			length += other.length;
+			count += other.count - 1;
+			last = other.last;
+			return;
+		}
+
+		// Overlapping lists are merged the slow way
+		int[] mine = toArray();
+		int[] theirs = other.toArray();
+		int[] merged = new int[mine.length + theirs.length];
+		int i = 0, j = 0, k = 0;
+
+		while(i < mine.length || j < theirs.length)
+		{
+			int next;
+			if(j == theirs.length || (i < mine.length && mine[i] <= theirs[j]))
+				next = mine[i++];
+			else
+				next = theirs[j++];
+
+			if(k == 0 || merged[k - 1] != next)
+				merged[k++] = next;
+		}
+
+		encode(merged, k);
+	}
+
+	/**
+	 * Returns the number of positions in the list
+	 * @return
+	 * 		number of positions
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * Checks if the list has no positions
+	 * @return
+	 * 		true if the list is empty
+	 */
+	public boolean isEmpty()
+	{
+		return count == 0;
+	}
+
+	/**
+	 * Returns the smallest position in the list
+	 * @return
+	 * 		first position
+	 */
+	public int first()
+	{
+		if(count == 0)
+			throw new NoSuchElementException();
+
+		return first;
+	}
+
+	/**
+	 * Returns the largest position in the list
+	 * @return
+	 * 		last position
+	 */
+	public int last()
+	{
+		if(count == 0)
+			throw new NoSuchElementException();
+
+		return last;
+	}
+
+	/**
+	 * Checks if the position is in the list
+	 * @param position
+	 * 			position to look for
+	 * @return
+	 * 		true if the position is in the list
+	 */
+	public boolean contains(int position)
+	{
+		if(count == 0 || position < first || position > last)
+			return false;
+
+		if(position == first || position == last)
+			return true;
+
+		int current = first;
+		int offset = 0;
+		while(offset < length && current < position)
+		{
+			int delta = readNumber(data, offset);
+			offset += numberSize(delta);
+			current += delta;
+		}
+
+		return current == position;
+	}
+
+	/**
+	 * Decodes the list into a sorted array of positions
+	 * @return
+	 * 		sorted positions
+	 */
+	public int[] toArray()
+	{
+		if(count == 0)
+			return EMPTY;
+
+		return toArray(new int[count]);
+	}
+
+	/**
+	 * Decodes the list into the start of the array, or into a new array if it
+	 * is too small to hold every position
+	 * @param positions
+	 * 			array to reuse
+	 * @return
+	 * 		array holding the sorted positions in its first {@link #size()} slots
+	 */
+	public int[] toArray(int[] positions)
+	{
+		if(count == 0)
+			return positions;
+
+		if(positions.length < count)
+			positions = new int[Math.max(count, positions.length * 2)];
+
+		positions[0] = first;
+
+		int offset = 0;
+		for(int i = 1; i < count; i++)
+		{
+			int delta = readNumber(data, offset);
+			offset += numberSize(delta);
+			positions[i] = positions[i - 1] + delta;
+		}
+
+		return positions;
+	}
+
+	/**
+	 * Removes every position, keeping the allocated capacity for reuse
+	 */
+	public void clear()
+	{
+		length = 0;
+		count = 0;
+	}
+
+	/**
+	 * Returns a copy of this list with no unused capacity
+	 * @return
+	 * 		copy of the list
+	 */
+	public PositionList copy()
+	{
+		PositionList copy = new PositionList();
+		copy.data = Arrays.copyOf(data, length);
+		copy.length = length;
+		copy.count = count;
+		copy.first = first;
+		copy.last = last;
+		return copy;
+	}
+
+	/**
+	 * Releases any unused capacity at the end of the encoded data
+	 */
+	public void trim()
+	{
+		if(data.length != length)
+			data = Arrays.copyOf(data, length);
+	}
+
+	/**
+	 * Writes the list in the format read back by {@link #read(ByteBuffer)}
+	 * @param out
+	 * 			output to write to
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException
+	{
+		out.writeInt(count);
+		out.writeInt(first);
+		out.writeInt(last);
+		out.writeInt(length);
+		out.write(data, 0, length);
+	}
+
+	/**
+	 * Reads a list written by {@link #write(DataOutput)}, advancing the buffer
+	 * past it
+	 * @param in
+	 * 			buffer positioned at the start of the list
+	 * @return
+	 * 		list read from the buffer
+	 */
+	public static PositionList read(ByteBuffer in)
+	{
+		PositionList list = new PositionList();
+		list.count = in.getInt();
+		list.first = in.getInt();
+		list.last = in.getInt();
+		list.length = in.getInt();
+		list.data = new byte[list.length];
+		in.get(list.data);
+		return list;
+	}
+
+	@Override
+	public String toString()
+	{
+		return Arrays.toString(toArray());
+	}
+
+	/**
+	 * Writes a delta to the end of the encoded data
+	 * @param delta
+	 * 			positive gap from the previous position
+	 */
+	private void append(int delta)
+	{
+		ensureCapacity(length + 5);
+		length = writeNumber(data, length, delta);
+	}
+
+	/**
+	 * Writes a number 7 bits per byte, low bits first, with the high bit set
+	 * on every byte except the last, the way deltas are encoded. Index runs
+	 * and the off-heap index store their numbers this way as well.
+	 * @param data
+	 * 			array to write to, with room for 5 bytes at the offset
+	 * @param offset
+	 * 			where to write the number
+	 * @param value
+	 * 			number to write
+	 * @return
+	 * 		offset following the number
+	 */
+	static int writeNumber(byte[] data, int offset, int value)
+	{
+		while((value & ~0x7F) != 0)
+		{
+			data[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		data[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * Reads a number written by {@link #writeNumber(byte[], int, int)}
+	 * @param data
+	 * 			array to read from
+	 * @param offset
+	 * 			where the number starts
+	 * @return
+	 * 		the number, which takes {@link #numberSize(int)} bytes
+	 */
+	static int readNumber(byte[] data, int offset)
+	{
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do
+		{
+			b = data[offset++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while(b < 0);
+		return value;
+	}
+
+	/**
+	 * Returns the number of bytes {@link #writeNumber(byte[], int, int)}
+	 * writes for the number
+	 * @param value
+	 * 			number to write
+	 * @return
+	 * 		bytes taken, from 1 to 5
+	 */
+	static int numberSize(int value)
+	{
+		return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+	}
+
+	/**
+	 * Replaces the contents of the list with the sorted, unique positions
+	 * @param positions
+	 * 			sorted positions without duplicates
+	 * @param size
+	 * 			number of positions to use from the array
+	 */
+	private void encode(int[] positions, int size)
+	{
+		data = new byte[Math.max(4, size)];
+		length = 0;
+		count = 0;
+
+		for(int i = 0; i < size; i++)
+			add(positions[i]);
+	}
+
+	/**
+	 * Grows the encoded data by half again until it can hold the needed bytes
+	 * @param needed
+	 * 			number of bytes needed
+	 */
+	private void ensureCapacity(int needed)
+	{
+		if(needed > data.length)
+			data = Arrays.copyOf(data, Math.max(needed, data.length + (data.length >> 1)));
+	}
+}
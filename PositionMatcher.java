@@ -0,0 +1,170 @@
+/**
+ * Matches phrases and proximity queries against the sorted positions of words
+ * within one html page. Each list is stepped through once with a galloping
+ * search, so a rare word skips over long runs of positions of a common word
+ * instead of comparing against every one of them.
+ *
+ * After a successful match, {@link #getCount()} and {@link #getFirst()} give
+ * the number of matches and where the first one starts. A matcher keeps no
+ * other state and can be reused for every page of a search, but not shared
+ * between threads.
+ */
+public class PositionMatcher
+{
+	private int count;
+	private int first;
+
+	/**
+	 * Returns the number of matches found by the last call
+	 * @return
+	 * 		number of matches
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Returns the position where the first match found by the last call starts
+	 * @return
+	 * 		first position of the first match
+	 */
+	public int getFirst()
+	{
+		return first;
+	}
+
+	/**
+	 * Finds every place where the words appear one right after the other. The
+	 * word with the fewest positions is walked, and each of the others is
+	 * galloped forward to the position it would need for the phrase.
+	 * @param positions
+	 * 			sorted positions of each word of the phrase, in phrase order
+	 * @param sizes
+	 * 			number of valid positions in each array
+	 * @return
+	 * 		true if the phrase was found at least once
+	 */
+	public boolean phrase(int[][] positions, int[] sizes)
+	{
+		count = 0;
+
+		int anchor = 0;
+		for(int i = 1; i < sizes.length; i++)
+		{
+			if(sizes[i] < sizes[anchor])
+				anchor = i;
+		}
+
+		int[] cursors = new int[sizes.length];
+		for(int a = 0; a < sizes[anchor]; a++)
+		{
+			int start = positions[anchor][a] - anchor;
+			boolean found = true;
+
+			for(int i = 0; i < sizes.length && found; i++)
+			{
+				if(i == anchor)
+					continue;
+
+				cursors[i] = gallop(positions[i], cursors[i], sizes[i], start + i);
+				if(cursors[i] == sizes[i])
+					return count > 0;
+
+				found = positions[i][cursors[i]] == start + i;
+			}
+
+			if(found)
+			{
+				if(count == 0)
+					first = start;
+
+				count++;
+			}
+		}
+
+		return count > 0;
+	}
+
+	/**
+	 * Finds every position of the first word that has a position of the
+	 * second word at most the given distance before or after it
+	 * @param first
+	 * 			sorted positions of the first word
+	 * @param firstSize
+	 * 			number of valid positions of the first word
+	 * @param second
+	 * 			sorted positions of the second word
+	 * @param secondSize
+	 * 			number of valid positions of the second word
+	 * @param distance
+	 * 			largest allowed gap between the words
+	 * @return
+	 * 		true if the words were found near each other at least once
+	 */
+	public boolean near(int[] first, int firstSize, int[] second, int secondSize, int distance)
+	{
+		count = 0;
+
+		int cursor = 0;
+		for(int a = 0; a < firstSize; a++)
+		{
+			int position = first[a];
+			cursor = gallop(second, cursor, secondSize, position - distance);
+			if(cursor == secondSize)
+				break;
+
+			if(second[cursor] <= position + distance)
+			{
+				if(count == 0)
+					this.first = Math.min(position, second[cursor]);
+
+				count++;
+			}
+		}
+
+		return count > 0;
+	}
+
+	/**
+	 * Finds the first index in the range whose value is at least the target.
+	 * Probes 1, 2, 4, ... entries ahead of the start until it passes the
+	 * target, then binary searches the last step.
+	 * @param values
+	 * 			sorted values
+	 * @param from
+	 * 			first index of the range
+	 * @param to
+	 * 			end of the range, exclusive
+	 * @param target
+	 * 			value to look for
+	 * @return
+	 * 		index of the first value at least the target, or to if there is none
+	 */
+	public static int gallop(int[] values, int from, int to, int target)
+	{
+		if(from >= to || values[from] >= target)
+			return from;
+
+		// values[low] is known to be below the target
+		int low = from;
+		int step = 1;
+		while(low + step < to && values[low + step] < target)
+		{
+			low += step;
+			step <<= 1;
+		}
+
+		int high = Math.min(low + step, to);
+		low++;
+		while(low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if(values[middle] < target)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+}
@@ -0,0 +1,262 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Postings of a single word: the ids of the html pages it was found in, kept
+ * sorted in a plain int array, each paired with the positions of the word in
+ * that page. Not thread-safe; {@link InvertedIndex} guards each word's
+ * postings with its lock stripe.
+ *
+ * Postings read from an {@link IndexSegment} start out as an offset into the
+ * mapped file and are only decoded the first time they are used. Decoding
+ * copies every page id and position list onto the heap, and the mapping is
+ * not read again.
+ */
+public class Postings
+{
+	private int[] documents;
+	private PositionList[] positions;
+	private int size;
+
+	/** Mapped segment holding the encoded postings, or null once decoded. */
+	private volatile ByteBuffer segment;
+	private final int offset;
+
+	/**
+	 * Initializes empty postings
+	 */
+	public Postings()
+	{
+		this.documents = new int[2];
+		this.positions = new PositionList[2];
+		this.size = 0;
+		this.segment = null;
+		this.offset = 0;
+	}
+
+	/**
+	 * Initializes postings that are decoded from the segment on first use
+	 * @param segment
+	 * 			mapped segment holding the postings
+	 * @param offset
+	 * 			offset of the postings in the segment
+	 */
+	public Postings(ByteBuffer segment, int offset)
+	{
+		this.segment = segment;
+		this.offset = offset;
+	}
+
+	/**
+	 * Decodes the postings from the segment if that has not happened yet.
+	 * Readers share the word's read lock, so decoding is synchronized.
+	 */
+	private void load()
+	{
+		if(segment == null)
+			return;
+
+		synchronized(this)
+		{
+			if(segment == null)
+				return;
+
+			ByteBuffer in = segment.duplicate();
+			in.position(offset);
+
+			int count = in.getInt();
+			int[] documents = new int[count];
+			PositionList[] positions = new PositionList[count];
+			for(int i = 0; i < count; i++)
+			{
+				documents[i] = in.getInt();
+				positions[i] = PositionList.read(in);
+			}
+
+			this.documents = documents;
+			this.positions = positions;
+			this.size = count;
+			this.segment = null;
+		}
+	}
+
+	/**
+	 * Writes the postings in the format read back by
+	 * {@link #Postings(ByteBuffer, int)}
+	 * @param out
+	 * 			output to write to
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException
+	{
+		load();
+		out.writeInt(size);
+		for(int i = 0; i < size; i++)
+		{
+			out.writeInt(documents[i]);
+			positions[i].write(out);
+		}
+	}
+
+	/**
+	 * Returns the number of pages in the postings
+	 * @return
+	 * 		number of pages
+	 */
+	public int size()
+	{
+		load();
+		return size;
+	}
+
+	/**
+	 * Returns the id of the page at the given index, in increasing id order
+	 * @param index
+	 * 			index into the postings
+	 * @return
+	 * 		id of the page
+	 */
+	public int getDocument(int index)
+	{
+		load();
+		return documents[index];
+	}
+
+	/**
+	 * Returns the positions of the page at the given index
+	 * @param index
+	 * 			index into the postings
+	 * @return
+	 * 		positions of the word in the page
+	 */
+	public PositionList getPositions(int index)
+	{
+		load();
+		return positions[index];
+	}
+
+	/**
+	 * Finds the first page at or after the index whose id is at least the
+	 * given id. Probes 1, 2, 4, ... entries ahead before a binary search, so
+	 * stepping through the postings in order costs about the log of each gap
+	 * instead of the log of the whole list.
+	 * @param document
+	 * 			id to look for
+	 * @param from
+	 * 			index to start from
+	 * @return
+	 * 		index of the first page with an id at least the given id, or the
+	 * 		size if there is none
+	 */
+	public int seek(int document, int from)
+	{
+		load();
+		return PositionMatcher.gallop(documents, from, size, document);
+	}
+
+	/**
+	 * Returns the positions of the word in the page
+	 * @param document
+	 * 			id of the page
+	 * @return
+	 * 		positions of the word in the page, or null if not found
+	 */
+	public PositionList get(int document)
+	{
+		load();
+		int index = Arrays.binarySearch(documents, 0, size, document);
+		return index < 0 ? null : positions[index];
+	}
+
+	/**
+	 * Returns the positions of the word in the page, adding an empty list if
+	 * the page is new. Pages added in increasing id order are appended.
+	 * @param document
+	 * 			id of the page
+	 * @return
+	 * 		positions of the word in the page
+	 */
+	public PositionList getOrCreate(int document)
+	{
+		load();
+		if(size == 0 || document > documents[size - 1])
+			return insert(size, document, new PositionList());
+
+		int index = Arrays.binarySearch(documents, 0, size, document);
+		if(index >= 0)
+			return positions[index];
+
+		return insert(-index - 1, document, new PositionList());
+	}
+
+	/**
+	 * Adds every position in the list to the page, taking a compact copy of
+	 * the list if the page is new
+	 * @param document
+	 * 			id of the page
+	 * @param list
+	 * 			positions to add
+	 */
+	public void merge(int document, PositionList list)
+	{
+		load();
+		int index = size == 0 || document > documents[size - 1] ? -size - 1 : Arrays.binarySearch(documents, 0, size, document);
+
+		if(index >= 0)
+			positions[index].addAll(list);
+		else
+			insert(-index - 1, document, list.copy());
+	}
+
+	/**
+	 * Removes the page and its positions from the postings
+	 * @param document
+	 * 			id of the page
+	 * @return
+	 * 		true if the page was in the postings
+	 */
+	public boolean remove(int document)
+	{
+		load();
+		int index = Arrays.binarySearch(documents, 0, size, document);
+		if(index < 0)
+			return false;
+
+		System.arraycopy(documents, index + 1, documents, index, size - index - 1);
+		System.arraycopy(positions, index + 1, positions, index, size - index - 1);
+		size--;
+		positions[size] = null;
+		return true;
+	}
+
+	/**
+	 * Inserts the page and its positions at the index, growing the arrays by
+	 * half again if they are full
+	 * @param index
+	 * 			sorted insertion point
+	 * @param document
+	 * 			id of the page
+	 * @param list
+	 * 			positions of the word in the page
+	 * @return
+	 * 		the inserted positions
+	 */
+	private PositionList insert(int index, int document, PositionList list)
+	{
+		if(size == documents.length)
+		{
+			int capacity = documents.length + Math.max(1, documents.length >> 1);
+			documents = Arrays.copyOf(documents, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+		}
+
+		System.arraycopy(documents, index, documents, index + 1, size - index);
+		System.arraycopy(positions, index, positions, index + 1, size - index);
+		documents[index] = document;
+		positions[index] = list;
+		size++;
+		return list;
+	}
+}
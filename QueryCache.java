@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded, least-recently-used cache of search results. Entries are
+ * keyed by the cleaned and sorted query together with the search mode and
+ * result limit, so searches with different settings can share a cache, and
+ * remember the index version they were computed at so that results become
+ * misses once the index has been modified.
+ */
+public class QueryCache
+{
+	private final int capacity;
+	private final LinkedHashMap<String, CachedResult> cache;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Initializes an empty cache holding at most the given number of queries
+	 * @param capacity
+	 * 			maximum number of cached queries; should be greater than 0
+	 */
+	public QueryCache(int capacity)
+	{
+		this.capacity = Math.max(1, capacity);
+		this.cache = new LinkedHashMap<String, CachedResult>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest)
+			{
+				return size() > QueryCache.this.capacity;
+			}
+		};
+		this.hits = 0;
+		this.misses = 0;
+	}
+
+	/**
+	 * Builds the cache key for a query and search mode
+	 * @param query
+	 * 			cleaned and sorted query
+	 * @param exact
+	 * 			whether the query is an exact search
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @param conjunctive
+	 * 			whether pages must match every word of the query
+	 * @return
+	 * 		key for the cache
+	 */
+	private static String key(String query, boolean exact, int limit, boolean conjunctive)
+	{
+		return (exact ? "e" : "p") + (conjunctive ? "a" : "o") + limit + ":" + query;
+	}
+
+	/**
+	 * Returns the cached results of a query if they were computed at the given
+	 * index version, counting the lookup as a hit or a miss
+	 * @param query
+	 * 			cleaned and sorted query
+	 * @param exact
+	 * 			whether the query is an exact search
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @param conjunctive
+	 * 			whether pages must match every word of the query
+	 * @param version
+	 * 			current version of the index
+	 * @return
+	 * 		cached results, or null if missing or stale
+	 */
+	public synchronized ArrayList<SearchResult> get(String query, boolean exact, int limit, boolean conjunctive, long version)
+	{
+		String key = key(query, exact, limit, conjunctive);
+		CachedResult cached = cache.get(key);
+
+		if(cached == null || cached.version != version)
+		{
+			if(cached != null)
+				cache.remove(key);
+
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return cached.results;
+	}
+
+	/**
+	 * Stores the results of a query computed at the given index version,
+	 * evicting the least recently used query if the cache is full
+	 * @param query
+	 * 			cleaned and sorted query
+	 * @param exact
+	 * 			whether the query is an exact search
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @param conjunctive
+	 * 			whether pages must match every word of the query
+	 * @param version
+	 * 			version of the index the results were computed at
+	 * @param results
+	 * 			search results to cache
+	 */
+	public synchronized void put(String query, boolean exact, int limit, boolean conjunctive, long version, ArrayList<SearchResult> results)
+	{
+		cache.put(key(query, exact, limit, conjunctive), new CachedResult(version, results));
+	}
+
+	/**
+	 * Removes every cached query
+	 */
+	public synchronized void clear()
+	{
+		cache.clear();
+	}
+
+	/**
+	 * Returns the number of lookups that were answered from the cache
+	 * @return
+	 * 		number of hits
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that had to be searched
+	 * @return
+	 * 		number of misses
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Returns the number of queries currently cached
+	 * @return
+	 * 		number of cached queries
+	 */
+	public synchronized int size()
+	{
+		return cache.size();
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "hits: " + hits + ", misses: " + misses + ", size: " + cache.size() + "/" + capacity;
+	}
+
+	/**
+	 * Search results together with the index version they were computed at
+	 */
+	private static class CachedResult
+	{
+		private final long version;
+		private final ArrayList<SearchResult> results;
+
+		private CachedResult(long version, ArrayList<SearchResult> results)
+		{
+			this.version = version;
+			this.results = results;
+		}
+	}
+}
@@ -1,29 +1,166 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /** 
  * Parses queries for partial and exact search
  * TreeMap
  * 		- Key: Query
  * 		- Values: Results
+ *
+ * Results can instead be streamed to a writer as each query is answered, one
+ * JSON line per query, so they are never all held at once.
  */
 public class QuerySearch 
 {
-	private InvertedIndex indexMap;
+	/** Number of query lines handed to a worker at a time. */
+	private static final int BATCH_SIZE = 64;
+	
+	/** Matches a proximity query such as {@code apple NEAR/3 pie}. */
+	private static final Pattern NEAR_REGEX = Pattern.compile("(\\S+)\\s+NEAR/(\\d{1,9})\\s+(\\S+)");
+	
+	private Searchable indexMap;
 	private TreeMap<String, ArrayList<SearchResult>> map;
+	private QueryCache cache;
+	
+	/** Maximum number of results kept per query, or 0 for all of them. */
+	private int limit;
+	
+	/** True if pages must match every word of a query instead of any. */
+	private boolean conjunctive;
+	
+	/** True if quoted lines and NEAR/k lines are phrase and proximity queries. */
+	private boolean phrases;
+	
+	/** Metrics to record query latencies into, or null. */
+	private Metrics metrics;
+	
+	/** Writer each query's results are written to as a JSON line, or null to keep them in the map. */
+	private volatile Writer stream;
+	
+	public QuerySearch(Searchable inputMap)
+	{
+		this(inputMap, null);
+	}
 	
-	public QuerySearch(InvertedIndex inputMap)
+	/**
+	 * Initializes a query search that reuses results of repeated queries
+	 * @param inputMap
+	 * 			index to search
+	 * @param cache
+	 * 			cache of search results, or null to always search
+	 */
+	public QuerySearch(Searchable inputMap, QueryCache cache)
+	{
+		this(inputMap, cache, 0);
+	}
+	
+	/**
+	 * Initializes a query search that keeps only the best results of each
+	 * query
+	 * @param inputMap
+	 * 			index to search
+	 * @param cache
+	 * 			cache of search results, or null to always search
+	 * @param limit
+	 * 			maximum number of results per query, or 0 for all of them
+	 */
+	public QuerySearch(Searchable inputMap, QueryCache cache, int limit)
+	{
+		this(inputMap, cache, limit, false);
+	}
+	
+	/**
+	 * Initializes a query search that keeps only the best results of each
+	 * query, and optionally only the pages matching every word of a query
+	 * @param inputMap
+	 * 			index to search
+	 * @param cache
+	 * 			cache of search results, or null to always search
+	 * @param limit
+	 * 			maximum number of results per query, or 0 for all of them
+	 * @param conjunctive
+	 * 			true to match every word of a query instead of any
+	 */
+	public QuerySearch(Searchable inputMap, QueryCache cache, int limit, boolean conjunctive)
+	{
+		this(inputMap, cache, limit, conjunctive, null);
+	}
+	
+	/**
+	 * Initializes a query search like
+	 * {@link #QuerySearch(Searchable, QueryCache, int, boolean)} that also
+	 * records how long each query takes
+	 * @param inputMap
+	 * 			index to search
+	 * @param cache
+	 * 			cache of search results, or null to always search
+	 * @param limit
+	 * 			maximum number of results per query, or 0 for all of them
+	 * @param conjunctive
+	 * 			true to match every word of a query instead of any
+	 * @param metrics
+	 * 			metrics to record query latencies into, or null
+	 */
+	public QuerySearch(Searchable inputMap, QueryCache cache, int limit, boolean conjunctive, Metrics metrics)
 	{
 		this.indexMap = inputMap;
+		this.cache = cache;
+		this.limit = Math.max(0, limit);
+		this.conjunctive = conjunctive;
+		this.metrics = metrics;
 		map = new TreeMap<String, ArrayList<SearchResult>>();
 	}
 	
+	/**
+	 * Returns the cache of search results
+	 * @return
+	 * 		cache of search results, or null if not caching
+	 */
+	public QueryCache getCache()
+	{
+		return cache;
+	}
+	
+	/**
+	 * Streams the results of every query searched from now on to the writer,
+	 * as a line of JSON written as soon as the query is answered, instead of
+	 * keeping them for {@link #toJSON(Path, boolean)}. When queries are
+	 * searched in parallel the lines are in the order the queries finish, and
+	 * a query repeated in the file gets a line each time.
+	 * @param writer
+	 * 			writer to stream results to, left open; or null to keep results
+	 * 			in the sorted map again
+	 */
+	public void streamTo(Writer writer)
+	{
+		this.stream = writer;
+	}
+	
+	/**
+	 * Sets whether lines wrapped in double quotes and lines of the form
+	 * {@code word NEAR/k word} are searched as phrase and proximity queries.
+	 * Off by default, so that every line is cleaned into words and searched
+	 * as it always was.
+	 * @param phrases
+	 * 			true to recognise phrase and proximity queries
+	 */
+	public void setPhrases(boolean phrases)
+	{
+		this.phrases = phrases;
+	}
+	
 	/**
 	 * Method that parses queries by reading the file line by line and calling the appropriate exact/partial search method
 	 * @param path
@@ -40,32 +177,229 @@ public class QuerySearch
 			String line = reader.readLine();
 			while(line != null)
 			{
-				// Cleaned query string
-				String[] words = WordParser.parseWords(line);
-				
-				if(words.length > 0)
+				searchLine(line, exact);
+				line = reader.readLine();
+			}
+		}
+	}
+	
+	/**
+	 * Parses queries like {@link #parseQuery(Path, boolean)}, but hands batches
+	 * of lines to the work queue so that searches run in parallel. Results are
+	 * still kept in the sorted map, so the JSON output does not change.
+	 * At most two batches per worker are queued or running at once, and the
+	 * file is only read further as they finish, so a long query file that is
+	 * streamed out never piles up in memory while the workers catch up.
+	 * @param path
+	 * 			path to input
+	 * @param exact
+	 * 			boolean exact which is used to later call the exact/partial search methods accordingly
+	 * @param queue
+	 * 			work queue that runs the searches
+	 * @throws IOException
+	 */
+	public void parseQuery(Path path, boolean exact, WorkQueue queue) throws IOException
+	{
+		try(BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8))
+		{
+			// Group lines so each task does enough work to outweigh the hand-off
+			Semaphore inFlight = new Semaphore(queue.size() * 2);
+			ArrayList<String> batch = new ArrayList<String>(BATCH_SIZE);
+			String line = reader.readLine();
+			while(line != null)
+			{
+				batch.add(line);
+				if(batch.size() == BATCH_SIZE)
 				{
-					// Sort array of words
-					Arrays.sort(words);
-					line = String.join(" ", words);
-					
-					// Exact/partial search result
-					ArrayList<SearchResult> result;
-					
-					if(exact)
-						result = indexMap.exactSearch(words);
-					else
-						result = indexMap.partialSearch(words);
-					
-					// Add to mapping
-					map.put(line, result);
+					submit(batch, exact, queue, inFlight);
+					batch = new ArrayList<String>(BATCH_SIZE);
 				}
-				
 				line = reader.readLine();
 			}
+			
+			if(!batch.isEmpty())
+				submit(batch, exact, queue, inFlight);
+		}
+		finally
+		{
+			queue.finish();
+		}
+	}
+	
+	/**
+	 * Queues a batch of query lines to be searched, first waiting for a
+	 * permit, which the batch gives back once it is done
+	 * @param batch
+	 * 			lines to search
+	 * @param exact
+	 * 			whether to run exact or partial search
+	 * @param queue
+	 * 			work queue that runs the searches
+	 * @param inFlight
+	 * 			permits for the batches that may be queued or running at once
+	 */
+	private void submit(ArrayList<String> batch, boolean exact, WorkQueue queue, Semaphore inFlight)
+	{
+		inFlight.acquireUninterruptibly();
+		queue.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					for(String line : batch)
+						searchLine(line, exact);
+				}
+				finally
+				{
+					inFlight.release();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Searches for a single query line as if it had been read from a query
+	 * file, adding its results to the others
+	 * @param line
+	 * 			raw query line
+	 * @param exact
+	 * 			whether to run exact or partial search
+	 */
+	public void parseLine(String line, boolean exact)
+	{
+		searchLine(line, exact);
+	}
+	
+	/**
+	 * Cleans a single query line, searches for it, and stores the results
+	 * under the sorted query. With {@link #setPhrases(boolean)}, a line
+	 * wrapped in double quotes is searched as a phrase, and a line of the form
+	 * {@code word NEAR/k word} as a proximity query; both match whole words
+	 * whether or not the search is exact, and are stored under the cleaned
+	 * words in their original order.
+	 * @param line
+	 * 			raw query line
+	 * @param exact
+	 * 			whether to run exact or partial search
+	 */
+	private void searchLine(String line, boolean exact)
+	{
+		String trimmed = line.trim();
+		if(phrases && trimmed.length() > 1 && trimmed.startsWith("\"") && trimmed.endsWith("\""))
+		{
+			String[] words = WordParser.parseWords(trimmed.substring(1, trimmed.length() - 1));
+			if(words.length > 0)
+				search("\"" + String.join(" ", words) + "\"", true, () -> indexMap.phraseSearch(words, limit));
+			return;
+		}
+		
+		Matcher near = NEAR_REGEX.matcher(trimmed);
+		if(phrases && near.matches())
+		{
+			String[] first = WordParser.parseWords(near.group(1));
+			String[] second = WordParser.parseWords(near.group(3));
+			int distance = Integer.parseInt(near.group(2));
+			
+			if(first.length == 1 && second.length == 1)
+			{
+				String query = first[0] + " NEAR/" + distance + " " + second[0];
+				search(query, true, () -> indexMap.proximitySearch(first[0], second[0], distance, limit));
+				return;
+			}
+		}
+		
+		// Cleaned query string
+		String[] words = WordParser.parseWords(line);
+		
+		if(words.length > 0)
+		{
+			// Sort array of words
+			Arrays.sort(words);
+			line = String.join(" ", words);
+			
+			if(conjunctive)
+				search(line, exact, () -> indexMap.conjunctiveSearch(words, exact, limit));
+			else if(exact)
+				search(line, true, () -> indexMap.exactSearch(words, limit));
+			else
+				search(line, false, () -> indexMap.partialSearch(words, limit));
 		}
 	}
 	
+	/**
+	 * Runs a search unless its results are cached, and stores the results
+	 * under the query. The latency recorded covers the cache lookup too, since
+	 * that is what the caller waits for.
+	 * @param query
+	 * 			cleaned query the results are stored under
+	 * @param exact
+	 * 			whether the query matches whole words, for the cache key
+	 * @param search
+	 * 			runs the search
+	 */
+	private void search(String query, boolean exact, Supplier<ArrayList<SearchResult>> search)
+	{
+		Metrics.Timer timer = new Metrics.Timer(metrics, Metrics.Stage.SEARCH);
+		
+		// Read the version before searching so a concurrent add marks the result stale
+		long version = indexMap.getVersion();
+		ArrayList<SearchResult> result = cache == null ? null : cache.get(query, exact, limit, conjunctive, version);
+		
+		if(result == null)
+		{
+			result = search.get();
+			
+			if(cache != null)
+				cache.put(query, exact, limit, conjunctive, version, result);
+		}
+		
+		timer.stop();
+		
+		Writer writer = stream;
+		if(writer != null)
+		{
+			write(query, result, writer);
+			return;
+		}
+		
+		// Add to mapping
+		synchronized(map)
+		{
+			map.put(query, result);
+		}
+	}
+	
+	/**
+	 * Writes the results of a query to the stream as a single line, so lines
+	 * from different workers never interleave
+	 * @param query
+	 * 			cleaned query
+	 * @param result
+	 * 			results of the query
+	 * @param writer
+	 * 			stream to write to
+	 * @throws UncheckedIOException
+	 * 			if the stream cannot be written to
+	 */
+	private void write(String query, ArrayList<SearchResult> result, Writer writer)
+	{
+		Metrics.Timer timer = new Metrics.Timer(metrics, Metrics.Stage.RESULTS);
+		try
+		{
+			synchronized(writer)
+			{
+				JSONWriter.toSearchLine(query, result, writer);
+			}
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		timer.stop();
+	}
+	
 	/**
 	 * Writes the data structure to JSON format
 	 * @param path
@@ -74,6 +408,41 @@ public class QuerySearch
 	 */
 	public void toJSON(Path path) throws IOException 
 	{
-		JSONWriter.toSearchFormat(map, path);
+		synchronized(map)
+		{
+			JSONWriter.toSearchFormat(map, path);
+		}
+	}
+	
+	/**
+	 * Writes the data structure to JSON format, optionally without any whitespace
+	 * @param path
+	 * 			path to input
+	 * @param compact
+	 * 			true to leave out all whitespace
+	 * @throws IOException
+	 */
+	public void toJSON(Path path, boolean compact) throws IOException 
+	{
+		synchronized(map)
+		{
+			JSONWriter.toSearchFormat(map, path, compact);
+		}
+	}
+	
+	/**
+	 * Writes the data structure in JSON format to a writer that is left open
+	 * @param writer
+	 * 			writer to output to
+	 * @param compact
+	 * 			true to leave out all whitespace
+	 * @throws IOException
+	 */
+	public void toJSON(Writer writer, boolean compact) throws IOException 
+	{
+		synchronized(map)
+		{
+			JSONWriter.toSearchFormat(map, writer, compact);
+		}
 	}
 }
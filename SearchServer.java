@@ -0,0 +1,305 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers searches over HTTP with the JDK's built-in server, keeping the
+ * index in memory between requests.
+ *
+ * <pre>
+ * GET /search?q=query&amp;exact=true&amp;phrases=true
+ * GET /metrics
+ * </pre>
+ *
+ * The query is parsed like one line of a query file, with phrase and
+ * proximity queries recognised when {@code phrases} is true, and the response is the same JSON written for
+ * {@code -results}, holding the one query. Each request runs on its own
+ * virtual thread when the JDK has them, and on a fixed pool of platform
+ * threads otherwise.
+ *
+ * When given metrics, the server records the latency of every query and
+ * answers {@code /metrics} with the same JSON report written for
+ * {@code -stats}.
+ */
+public class SearchServer implements AutoCloseable
+{
+	/** Initial size of the response buffer. */
+	private static final int BUFFER_SIZE = 1 << 13;
+
+	private final Searchable index;
+	private final QueryCache cache;
+	private final int limit;
+	private final boolean conjunctive;
+	private final boolean compact;
+
+	/** Metrics of this process, or null. */
+	private final Metrics metrics;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * Binds a search server to the port. The server does not answer requests
+	 * until started.
+	 * @param index
+	 * 			index to search
+	 * @param port
+	 * 			port to listen on, or 0 to pick a free one
+	 * @param cache
+	 * 			cache shared by every request, or null to always search
+	 * @param limit
+	 * 			maximum number of results per query, or 0 for all of them
+	 * @param conjunctive
+	 * 			true to match every word of a query instead of any
+	 * @param compact
+	 * 			true to leave all whitespace out of responses
+	 * @param threads
+	 * 			number of platform threads to use if virtual threads are missing
+	 * @throws IOException
+	 */
+	public SearchServer(Searchable index, int port, QueryCache cache, int limit, boolean conjunctive, boolean compact, int threads) throws IOException
+	{
+		this(index, port, cache, limit, conjunctive, compact, threads, null);
+	}
+
+	/**
+	 * Binds a search server to the port that records query latencies in the
+	 * metrics and serves them at {@code /metrics}. The server does not answer
+	 * requests until started.
+	 * @param index
+	 * 			index to search
+	 * @param port
+	 * 			port to listen on, or 0 to pick a free one
+	 * @param cache
+	 * 			cache shared by every request, or null to always search
+	 * @param limit
+	 * 			maximum number of results per query, or 0 for all of them
+	 * @param conjunctive
+	 * 			true to match every word of a query instead of any
+	 * @param compact
+	 * 			true to leave all whitespace out of responses
+	 * @param threads
+	 * 			number of platform threads to use if virtual threads are missing
+	 * @param metrics
+	 * 			metrics to record into and serve, or null
+	 * @throws IOException
+	 */
+	public SearchServer(Searchable index, int port, QueryCache cache, int limit, boolean conjunctive, boolean compact, int threads, Metrics metrics) throws IOException
+	{
+		this.index = index;
+		this.cache = cache;
+		this.limit = limit;
+		this.conjunctive = conjunctive;
+		this.compact = compact;
+		this.metrics = metrics;
+
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.executor = newExecutor(threads);
+		server.setExecutor(executor);
+		server.createContext("/search", this::search);
+		server.createContext("/metrics", this::metrics);
+	}
+
+	/**
+	 * Returns an executor that starts a virtual thread per task if the JDK has
+	 * them, looked up by name so the code still runs on older JDKs
+	 * @param threads
+	 * 			number of platform threads to use otherwise
+	 * @return
+	 * 		executor for requests
+	 */
+	private static ExecutorService newExecutor(int threads)
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			return Executors.newFixedThreadPool(Math.max(1, threads));
+		}
+	}
+
+	/**
+	 * Starts answering requests
+	 */
+	public void start()
+	{
+		server.start();
+	}
+
+	/**
+	 * Returns the port the server listens on
+	 * @return
+	 * 		local port
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Answers a search request
+	 * @param exchange
+	 * 			request and response
+	 * @throws IOException
+	 */
+	private void search(HttpExchange exchange) throws IOException
+	{
+		try(HttpExchange request = exchange)
+		{
+			if(!"GET".equals(request.getRequestMethod()))
+			{
+				error(request, 405, "Only GET is supported");
+				return;
+			}
+
+			HashMap<String, String> parameters = parseQuery(request.getRequestURI().getRawQuery());
+			String line = parameters.get("q");
+			if(line == null)
+			{
+				error(request, 400, "Missing query parameter q");
+				return;
+			}
+
+			String exact = parameters.getOrDefault("exact", "false");
+			String phrases = parameters.getOrDefault("phrases", "false");
+			QuerySearch query = new QuerySearch(index, cache, limit, conjunctive, metrics);
+			query.setPhrases(phrases.equals("true") || phrases.equals("1"));
+			query.parseLine(line, exact.equals("true") || exact.equals("1"));
+
+			// Send the body with its length in one write; small chunked writes stall on delayed acks
+			ByteArrayOutputStream body = new ByteArrayOutputStream(BUFFER_SIZE);
+			try(Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8))
+			{
+				query.toJSON(writer, compact);
+			}
+
+			json(request, body);
+		}
+	}
+
+	/**
+	 * Answers a metrics request with the JSON report of the metrics
+	 * @param exchange
+	 * 			request and response
+	 * @throws IOException
+	 */
+	private void metrics(HttpExchange exchange) throws IOException
+	{
+		try(HttpExchange request = exchange)
+		{
+			if(!"GET".equals(request.getRequestMethod()))
+			{
+				error(request, 405, "Only GET is supported");
+				return;
+			}
+
+			if(metrics == null)
+			{
+				error(request, 404, "Metrics are off; start with -stats");
+				return;
+			}
+
+			ByteArrayOutputStream body = new ByteArrayOutputStream(BUFFER_SIZE);
+			try(Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8))
+			{
+				JSONWriter.toMetricsFormat(metrics, writer, compact);
+			}
+
+			json(request, body);
+		}
+	}
+
+	/**
+	 * Sends a JSON response
+	 * @param exchange
+	 * 			request to answer
+	 * @param body
+	 * 			UTF8 body of the response
+	 * @throws IOException
+	 */
+	private static void json(HttpExchange exchange, ByteArrayOutputStream body) throws IOException
+	{
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.size());
+		try(OutputStream out = exchange.getResponseBody())
+		{
+			body.writeTo(out);
+		}
+	}
+
+	/**
+	 * Sends a plain text error response
+	 * @param exchange
+	 * 			request to answer
+	 * @param status
+	 * 			HTTP status code
+	 * @param message
+	 * 			text of the response
+	 * @throws IOException
+	 */
+	private static void error(HttpExchange exchange, int status, String message) throws IOException
+	{
+		byte[] body = message.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try(OutputStream out = exchange.getResponseBody())
+		{
+			out.write(body);
+		}
+	}
+
+	/**
+	 * Splits a raw query string into decoded parameters. The first value of a
+	 * repeated parameter wins.
+	 * @param query
+	 * 			raw query string, or null
+	 * @return
+	 * 		parameters by name
+	 */
+	private static HashMap<String, String> parseQuery(String query)
+	{
+		HashMap<String, String> parameters = new HashMap<String, String>();
+		if(query == null)
+			return parameters;
+
+		for(String pair : query.split("&"))
+		{
+			int equals = pair.indexOf('=');
+			String name = equals < 0 ? pair : pair.substring(0, equals);
+			String value = equals < 0 ? "" : pair.substring(equals + 1);
+
+			try
+			{
+				parameters.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+			}
+			catch(IllegalArgumentException e)
+			{
+				// Skip parameters with broken percent escapes
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Stops answering requests, waiting up to a second for those in progress
+	 */
+	@Override
+	public void close()
+	{
+		server.stop(1);
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+
+/**
+ * Something queries can be searched against: a local {@link InvertedIndex},
+ * or a {@link ShardCoordinator} that searches several index servers. Every
+ * search returns results sorted by {@link SearchResult#compareTo(SearchResult)}
+ * and takes a limit on the number of results, where 0 keeps all of them.
+ */
+public interface Searchable
+{
+	/**
+	 * Returns the current version of the index, which changes whenever the
+	 * index is modified so cached results can tell they are stale
+	 * @return
+	 * 		current version of the index
+	 */
+	long getVersion();
+
+	/**
+	 * Searches for pages containing any of the words
+	 * @param words
+	 * 			each individual word
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		sorted search results
+	 */
+	ArrayList<SearchResult> exactSearch(String[] words, int limit);
+
+	/**
+	 * Searches for pages containing a word starting with any of the prefixes
+	 * @param words
+	 * 			each individual prefix
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		sorted search results
+	 */
+	ArrayList<SearchResult> partialSearch(String[] words, int limit);
+
+	/**
+	 * Searches for pages matching every one of the words or prefixes
+	 * @param words
+	 * 			each individual word
+	 * @param exact
+	 * 			true to match whole words, false to match prefixes
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		sorted search results
+	 */
+	ArrayList<SearchResult> conjunctiveSearch(String[] words, boolean exact, int limit);
+
+	/**
+	 * Searches for pages where the words appear one right after the other
+	 * @param words
+	 * 			words of the phrase, in order
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		sorted search results
+	 */
+	ArrayList<SearchResult> phraseSearch(String[] words, int limit);
+
+	/**
+	 * Searches for pages where the words are at most the distance apart
+	 * @param first
+	 * 			first word
+	 * @param second
+	 * 			second word
+	 * @param distance
+	 * 			largest allowed gap between the words
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		sorted search results
+	 */
+	ArrayList<SearchResult> proximitySearch(String first, String second, int distance, int limit);
+}
@@ -0,0 +1,324 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Searches a corpus split by page across several {@link ShardServer}s. Each
+ * query is scattered to every shard before any answer is read, so the shards
+ * search in parallel without the coordinator needing a thread per shard, and
+ * the sorted answers are then merged.
+ *
+ * Every page lives in exactly one shard, so the result for a page is already
+ * complete when a shard returns it and merging only has to interleave the
+ * lists in {@link SearchResult#compareTo(SearchResult)} order. Each shard cuts
+ * its answer to the limit, which is enough to find the best results overall.
+ *
+ * Searches may run on several threads at once; each borrows its own
+ * connection to every shard from a pool that grows as needed.
+ */
+public class ShardCoordinator implements Searchable, AutoCloseable
+{
+	private final Shard[] shards;
+
+	/**
+	 * Initializes a coordinator for the shards at the addresses. Connections
+	 * are opened on first use.
+	 * @param addresses
+	 * 			addresses of the shard servers
+	 */
+	public ShardCoordinator(ArrayList<InetSocketAddress> addresses)
+	{
+		this.shards = new Shard[addresses.size()];
+		for(int i = 0; i < shards.length; i++)
+			shards[i] = new Shard(addresses.get(i));
+	}
+
+	/**
+	 * Initializes a coordinator from a comma-separated list of shard addresses
+	 * @param list
+	 * 			addresses in the form host:port,host:port
+	 * @return
+	 * 		coordinator for the shards
+	 */
+	public static ShardCoordinator parse(String list)
+	{
+		ArrayList<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for(String address : list.split(","))
+		{
+			address = address.trim();
+			int colon = address.lastIndexOf(':');
+			if(colon < 0)
+				throw new IllegalArgumentException("Shard address needs a port: " + address);
+
+			String host = colon == 0 ? "localhost" : address.substring(0, colon);
+			addresses.add(new InetSocketAddress(host, Integer.parseInt(address.substring(colon + 1))));
+		}
+		return new ShardCoordinator(addresses);
+	}
+
+	/**
+	 * The shards do not report changes, so cached results never go stale on
+	 * their own
+	 */
+	@Override
+	public long getVersion()
+	{
+		return 0;
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(String[] words, int limit)
+	{
+		return scatter("exact", words, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(String[] words, int limit)
+	{
+		return scatter("partial", words, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> conjunctiveSearch(String[] words, boolean exact, int limit)
+	{
+		return scatter(exact ? "and-exact" : "and-partial", words, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> phraseSearch(String[] words, int limit)
+	{
+		return scatter("phrase", words, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> proximitySearch(String first, String second, int distance, int limit)
+	{
+		return scatter("near/" + distance, new String[] {first, second}, limit);
+	}
+
+	/**
+	 * Sends the request to every shard, then reads and merges the answers
+	 * @param mode
+	 * 			search mode understood by {@link ShardServer}
+	 * @param words
+	 * 			cleaned query words
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		sorted search results from every shard
+	 */
+	private ArrayList<SearchResult> scatter(String mode, String[] words, int limit)
+	{
+		String request = mode + "\t" + limit + "\t" + ShardServer.escape(String.join(" ", words)) + "\n";
+		Connection[] connections = new Connection[shards.length];
+		ArrayList<ArrayList<SearchResult>> answers = new ArrayList<ArrayList<SearchResult>>(shards.length);
+
+		try
+		{
+			for(int i = 0; i < shards.length; i++)
+			{
+				connections[i] = shards[i].borrow();
+				connections[i].send(request);
+			}
+
+			for(int i = 0; i < shards.length; i++)
+			{
+				answers.add(connections[i].receive());
+				shards[i].giveBack(connections[i]);
+				connections[i] = null;
+			}
+		}
+		catch(IOException e)
+		{
+			// A connection that failed part way may hold half an answer
+			for(Connection connection : connections)
+			{
+				if(connection != null)
+					connection.close();
+			}
+			throw new UncheckedIOException(e);
+		}
+
+		return merge(answers, limit);
+	}
+
+	/**
+	 * Merges sorted lists of results into one sorted list, keeping at most
+	 * the limit
+	 * @param answers
+	 * 			sorted results of each shard
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		merged sorted results
+	 */
+	public static ArrayList<SearchResult> merge(ArrayList<ArrayList<SearchResult>> answers, int limit)
+	{
+		int total = 0;
+		for(ArrayList<SearchResult> answer : answers)
+			total += answer.size();
+
+		if(limit > 0)
+			total = Math.min(total, limit);
+
+		// Each entry is the index of the next result to take from a shard, keyed by that result
+		PriorityQueue<int[]> heads = new PriorityQueue<int[]>(Math.max(1, answers.size()), (a, b) -> answers.get(a[0]).get(a[1]).compareTo(answers.get(b[0]).get(b[1])));
+		for(int i = 0; i < answers.size(); i++)
+		{
+			if(!answers.get(i).isEmpty())
+				heads.add(new int[] {i, 0});
+		}
+
+		ArrayList<SearchResult> merged = new ArrayList<SearchResult>(total);
+		while(merged.size() < total)
+		{
+			int[] head = heads.poll();
+			ArrayList<SearchResult> answer = answers.get(head[0]);
+			merged.add(answer.get(head[1]));
+
+			head[1]++;
+			if(head[1] < answer.size())
+				heads.add(head);
+		}
+		return merged;
+	}
+
+	/**
+	 * Closes every idle connection. Searches still running close theirs when
+	 * they are given back.
+	 */
+	@Override
+	public void close()
+	{
+		for(Shard shard : shards)
+			shard.close();
+	}
+
+	/**
+	 * Address of a shard server and the idle connections to it
+	 */
+	private static class Shard
+	{
+		private final InetSocketAddress address;
+		private final ConcurrentLinkedQueue<Connection> idle;
+		private volatile boolean closed;
+
+		private Shard(InetSocketAddress address)
+		{
+			this.address = address;
+			this.idle = new ConcurrentLinkedQueue<Connection>();
+			this.closed = false;
+		}
+
+		/**
+		 * Takes an idle connection, or opens a new one if there is none
+		 * @return
+		 * 		connection for the caller's use only
+		 * @throws IOException
+		 */
+		private Connection borrow() throws IOException
+		{
+			Connection connection = idle.poll();
+			return connection != null ? connection : new Connection(address);
+		}
+
+		/**
+		 * Returns a connection whose last answer was read in full
+		 * @param connection
+		 * 			connection to return
+		 */
+		private void giveBack(Connection connection)
+		{
+			if(closed)
+				connection.close();
+			else
+				idle.add(connection);
+		}
+
+		private void close()
+		{
+			closed = true;
+			Connection connection;
+			while((connection = idle.poll()) != null)
+				connection.close();
+		}
+	}
+
+	/**
+	 * Open socket to a shard server
+	 */
+	private static class Connection
+	{
+		private final Socket socket;
+		private final BufferedReader reader;
+		private final Writer writer;
+
+		private Connection(InetSocketAddress address) throws IOException
+		{
+			this.socket = new Socket(address.getAddress(), address.getPort());
+			this.socket.setTcpNoDelay(true);
+			this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Sends a request line
+		 * @param request
+		 * 			request ending in a newline
+		 * @throws IOException
+		 */
+		private void send(String request) throws IOException
+		{
+			writer.write(request);
+			writer.flush();
+		}
+
+		/**
+		 * Reads the answer to the last request
+		 * @return
+		 * 		sorted results sent by the shard
+		 * @throws IOException
+		 */
+		private ArrayList<SearchResult> receive() throws IOException
+		{
+			String line = reader.readLine();
+			if(line == null)
+				throw new IOException("Shard closed the connection");
+
+			int count = Integer.parseInt(line);
+			ArrayList<SearchResult> results = new ArrayList<SearchResult>(count);
+			for(int i = 0; i < count; i++)
+			{
+				line = reader.readLine();
+				if(line == null)
+					throw new IOException("Shard closed the connection");
+
+				String[] fields = line.split("\t", 3);
+				results.add(new SearchResult(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), ShardServer.unescape(fields[2])));
+			}
+			return results;
+		}
+
+		private void close()
+		{
+			try
+			{
+				socket.close();
+			}
+			catch(IOException e)
+			{
+				// Nothing more to do with a connection that failed to close
+			}
+		}
+	}
+}
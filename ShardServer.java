@@ -0,0 +1,297 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Serves searches against one shard of a corpus over a plain socket on the
+ * loopback interface, so several index processes on one machine can each
+ * hold part of the pages and a {@link ShardCoordinator} can search all of
+ * them. Every connection gets its own thread and may send any number of
+ * requests, each answered in turn.
+ *
+ * Requests and responses are UTF8 lines, with fields separated by tabs.
+ * Backslashes, tabs, newlines, and carriage returns within a field, which
+ * page paths may hold, are escaped as {@code \\}, {@code \t}, {@code \n},
+ * and {@code \r}.
+ *
+ * <pre>
+ * request:  mode, limit, query words separated by spaces
+ * response: number of results, then one line per result
+ * result:   frequency, position, path
+ * </pre>
+ *
+ * The mode is one of {@code exact}, {@code partial}, {@code and-exact},
+ * {@code and-partial}, {@code phrase}, or {@code near/k} for a proximity
+ * query with distance k. A request that cannot be parsed is answered with
+ * no results.
+ */
+public class ShardServer implements AutoCloseable
+{
+	private final Searchable index;
+	private final ServerSocket server;
+	private final Thread acceptor;
+
+	/**
+	 * Binds a server for the index to the port on the loopback interface. The
+	 * server does not accept connections until started.
+	 * @param index
+	 * 			index to search
+	 * @param port
+	 * 			port to listen on, or 0 to pick a free one
+	 * @throws IOException
+	 */
+	public ShardServer(Searchable index, int port) throws IOException
+	{
+		this.index = index;
+		this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.acceptor = new Thread(this::accept, "shard-" + server.getLocalPort());
+	}
+
+	/**
+	 * Starts accepting connections on a new thread. The thread keeps the
+	 * process running until the server is closed.
+	 */
+	public void start()
+	{
+		acceptor.start();
+	}
+
+	/**
+	 * Returns the port the server listens on
+	 * @return
+	 * 		local port
+	 */
+	public int getPort()
+	{
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until the server socket is closed, handing each one
+	 * to its own thread
+	 */
+	private void accept()
+	{
+		while(!server.isClosed())
+		{
+			try
+			{
+				Socket socket = server.accept();
+				Thread connection = new Thread(() -> serve(socket), acceptor.getName() + "-connection");
+				connection.setDaemon(true);
+				connection.start();
+			}
+			catch(SocketException e)
+			{
+				// Closed by close()
+				return;
+			}
+			catch(IOException e)
+			{
+				System.out.println("Unable to accept shard connection");
+			}
+		}
+	}
+
+	/**
+	 * Answers requests on the connection until the other side closes it
+	 * @param socket
+	 * 			connection to serve
+	 */
+	private void serve(Socket socket)
+	{
+		try(Socket connection = socket;
+			BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+			Writer writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8)))
+		{
+			connection.setTcpNoDelay(true);
+
+			String line = reader.readLine();
+			while(line != null)
+			{
+				ArrayList<SearchResult> results = search(line);
+				writer.write(Integer.toString(results.size()));
+				writer.write('\n');
+				for(SearchResult result : results)
+				{
+					writer.write(Integer.toString(result.getFreq()));
+					writer.write('\t');
+					writer.write(Integer.toString(result.getPos()));
+					writer.write('\t');
+					writer.write(escape(result.getLoc()));
+					writer.write('\n');
+				}
+				writer.flush();
+				line = reader.readLine();
+			}
+		}
+		catch(IOException e)
+		{
+			// The coordinator went away; nothing left to answer
+		}
+	}
+
+	/**
+	 * Parses a request line and runs the search it asks for
+	 * @param request
+	 * 			request line
+	 * @return
+	 * 		sorted search results, or none if the request is malformed
+	 */
+	private ArrayList<SearchResult> search(String request)
+	{
+		String[] fields = request.split("\t", 3);
+		if(fields.length < 3)
+			return new ArrayList<SearchResult>();
+
+		String mode = fields[0];
+		String query = unescape(fields[2]);
+		String[] words = query.isEmpty() ? new String[0] : query.split(" ");
+		int limit;
+		try
+		{
+			limit = Integer.parseInt(fields[1]);
+		}
+		catch(NumberFormatException e)
+		{
+			return new ArrayList<SearchResult>();
+		}
+
+		switch(mode)
+		{
+			case "exact":
+				return index.exactSearch(words, limit);
+			case "partial":
+				return index.partialSearch(words, limit);
+			case "and-exact":
+				return index.conjunctiveSearch(words, true, limit);
+			case "and-partial":
+				return index.conjunctiveSearch(words, false, limit);
+			case "phrase":
+				return index.phraseSearch(words, limit);
+		}
+
+		if(mode.startsWith("near/") && words.length == 2)
+		{
+			try
+			{
+				return index.proximitySearch(words[0], words[1], Integer.parseInt(mode.substring(5)), limit);
+			}
+			catch(NumberFormatException e)
+			{
+				return new ArrayList<SearchResult>();
+			}
+		}
+
+		return new ArrayList<SearchResult>();
+	}
+
+	/**
+	 * Escapes the characters that would end a field or a line, and the
+	 * backslash that starts an escape
+	 * @param field
+	 * 			text of a field
+	 * @return
+	 * 		text that can be sent as one field
+	 */
+	static String escape(String field)
+	{
+		StringBuilder escaped = null;
+		for(int i = 0; i < field.length(); i++)
+		{
+			char c = field.charAt(i);
+			char code;
+			switch(c)
+			{
+				case '\\':
+					code = '\\';
+					break;
+				case '\t':
+					code = 't';
+					break;
+				case '\n':
+					code = 'n';
+					break;
+				case '\r':
+					code = 'r';
+					break;
+				default:
+					if(escaped != null)
+						escaped.append(c);
+					continue;
+			}
+			
+			// Most fields need no escapes and are returned as they are
+			if(escaped == null)
+				escaped = new StringBuilder(field.length() + 8).append(field, 0, i);
+			escaped.append('\\').append(code);
+		}
+		return escaped == null ? field : escaped.toString();
+	}
+
+	/**
+	 * Reverses {@link #escape(String)}. A backslash that starts no known
+	 * escape is kept as it is.
+	 * @param field
+	 * 			field as it was received
+	 * @return
+	 * 		original text of the field
+	 */
+	static String unescape(String field)
+	{
+		int backslash = field.indexOf('\\');
+		if(backslash < 0)
+			return field;
+		
+		StringBuilder text = new StringBuilder(field.length()).append(field, 0, backslash);
+		for(int i = backslash; i < field.length(); i++)
+		{
+			char c = field.charAt(i);
+			if(c != '\\' || i + 1 == field.length())
+			{
+				text.append(c);
+				continue;
+			}
+			
+			char code = field.charAt(++i);
+			switch(code)
+			{
+				case '\\':
+					text.append('\\');
+					break;
+				case 't':
+					text.append('\t');
+					break;
+				case 'n':
+					text.append('\n');
+					break;
+				case 'r':
+					text.append('\r');
+					break;
+				default:
+					text.append('\\').append(code);
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Stops accepting connections. Connections already open are served until
+	 * the other side closes them.
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		server.close();
+	}
+}
@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Builds an inverted index too large for the heap in a single pass, the way
+ * SPIMI does. Pages are added to an ordinary {@link InvertedIndex} until its
+ * estimated size passes the memory budget; it is then written to disk as a
+ * sorted {@link IndexRun} and emptied. At the end, the runs are read side by
+ * side and merged word by word, so the heap only ever holds one index under
+ * the budget, or one word of every run.
+ *
+ * Pages are only ever added whole, so each page lives in exactly one run and
+ * merging a word only has to interleave the runs' pages in path order. The
+ * merged words and pages come out in the same order as from a single index,
+ * so the JSON written is the same byte for byte.
+ *
+ * Pages may be added from several threads at once. The index is spilled
+ * while no page is being added.
+ */
+public class SpillingIndex implements AutoCloseable
+{
+	/** Rough heap cost of a word new to the index, besides its chars: its String, map node, and postings. */
+	private static final int WORD_BYTES = 160;
+
+	/** Rough heap cost of a page in the postings of a word: its id, slot, and position list. */
+	private static final int PAGE_BYTES = 64;
+
+	/** Rough heap cost of one encoded position, counting the slack in position lists. */
+	private static final int POSITION_BYTES = 2;
+
+	private final long budget;
+	private final Path directory;
+	private final Metrics metrics;
+
+	/** Sorted runs spilled so far, in order. */
+	private final ArrayList<Path> runs;
+
+	/** Estimated heap used by the index. */
+	private final AtomicLong used;
+
+	/** Shared while adding pages, exclusive while spilling. */
+	private final ReentrantReadWriteLock lock;
+
+	private volatile InvertedIndex index;
+
+	/**
+	 * Initializes an empty index that spills to a new temporary directory
+	 * @param budget
+	 * 			estimated number of bytes the index may use before it is spilled
+	 * @param parent
+	 * 			directory to make the temporary directory in
+	 * @param metrics
+	 * 			metrics to record spills into, or null
+	 * @throws IOException
+	 */
+	public SpillingIndex(long budget, Path parent, Metrics metrics) throws IOException
+	{
+		this.budget = budget;
+		this.directory = Files.createTempDirectory(parent, "runs");
+		this.metrics = metrics;
+		this.runs = new ArrayList<Path>();
+		this.used = new AtomicLong();
+		this.lock = new ReentrantReadWriteLock();
+		this.index = new InvertedIndex();
+	}
+
+	/**
+	 * Adds every word of a page, then spills the index if it has grown past
+	 * the budget
+	 * @param page
+	 * 			index holding a single html page, usually built by
+	 * 			{@link InvertedIndexBuilder#buildIndex(Path)}
+	 * @throws IOException
+	 */
+	public void addAll(InvertedIndex page) throws IOException
+	{
+		if(page.numDocuments() == 0)
+			return;
+
+		lock.readLock().lock();
+		try
+		{
+			used.addAndGet(estimate(page, index));
+			index.addAll(page);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		if(used.get() > budget)
+			spill(false);
+	}
+
+	/**
+	 * Estimates how much adding a page grows the index
+	 * @param page
+	 * 			index holding a single html page
+	 * @param index
+	 * 			index the page is added to
+	 * @return
+	 * 		estimated number of bytes
+	 */
+	private static long estimate(InvertedIndex page, InvertedIndex index)
+	{
+		String html = page.getDocuments().getPath(0);
+		long bytes = 0;
+		for(String word : page.getWords())
+		{
+			if(!index.contains(word))
+				bytes += WORD_BYTES + 2L * word.length();
+
+			bytes += PAGE_BYTES + (long) POSITION_BYTES * page.numPositions(word, html);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes the index to a new run and starts an empty one, unless another
+	 * thread already did while this one waited
+	 * @param always
+	 * 			true to spill whatever the index holds, even below the budget
+	 * @throws IOException
+	 */
+	private void spill(boolean always) throws IOException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			if(!always && used.get() <= budget)
+				return;
+
+			if(index.numDocuments() == 0)
+				return;
+
+			Metrics.Timer timer = new Metrics.Timer(metrics, Metrics.Stage.SPILL);
+			Path run = directory.resolve("run" + runs.size());
+			IndexRun.write(index, run);
+			runs.add(run);
+			index = new InvertedIndex();
+			used.set(0);
+			timer.stop();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of runs spilled so far
+	 * @return
+	 * 		number of runs
+	 */
+	public int numRuns()
+	{
+		return runs.size();
+	}
+
+	/**
+	 * Spills what is left in memory, then merges every run and passes each
+	 * word and its pages to the visitor in sorted order. No page may be added
+	 * while this runs.
+	 * @param visitor
+	 * 			visitor to call for each word
+	 * @throws IOException
+	 */
+	public void visitWords(WordVisitor visitor) throws IOException
+	{
+		spill(true);
+
+		ArrayList<IndexRun.Reader> readers = new ArrayList<IndexRun.Reader>(runs.size());
+		try
+		{
+			PriorityQueue<IndexRun.Reader> heads = new PriorityQueue<IndexRun.Reader>(Math.max(1, runs.size()), (a, b) -> a.getWord().compareTo(b.getWord()));
+			for(Path run : runs)
+			{
+				IndexRun.Reader reader = new IndexRun.Reader(run);
+				readers.add(reader);
+				if(reader.next())
+					heads.add(reader);
+			}
+
+			ArrayList<IndexRun.Reader> current = new ArrayList<IndexRun.Reader>(runs.size());
+			while(!heads.isEmpty())
+			{
+				String word = heads.peek().getWord();
+				while(!heads.isEmpty() && heads.peek().getWord().equals(word))
+					current.add(heads.poll());
+
+				visitor.startWord(word);
+				visitPages(current, visitor);
+				visitor.endWord();
+
+				for(IndexRun.Reader reader : current)
+				{
+					if(reader.next())
+						heads.add(reader);
+				}
+				current.clear();
+			}
+		}
+		finally
+		{
+			for(IndexRun.Reader reader : readers)
+				reader.close();
+		}
+	}
+
+	/**
+	 * Passes the pages of the current word of every run to the visitor,
+	 * interleaved in path order
+	 * @param current
+	 * 			runs on the same word
+	 * @param visitor
+	 * 			visitor to call for each page
+	 * @throws IOException
+	 */
+	private static void visitPages(ArrayList<IndexRun.Reader> current, WordVisitor visitor) throws IOException
+	{
+		if(current.size() == 1)
+		{
+			IndexRun.Reader reader = current.get(0);
+			for(int i = 0; i < reader.size(); i++)
+				reader.visit(i, visitor);
+			return;
+		}
+
+		// Each entry is a run and the index of its next page, keyed by that page's path
+		PriorityQueue<int[]> pages = new PriorityQueue<int[]>(current.size(), (a, b) -> current.get(a[0]).getPath(a[1]).compareTo(current.get(b[0]).getPath(b[1])));
+		for(int i = 0; i < current.size(); i++)
+			pages.add(new int[] {i, 0});
+
+		while(!pages.isEmpty())
+		{
+			int[] page = pages.poll();
+			IndexRun.Reader reader = current.get(page[0]);
+			reader.visit(page[1], visitor);
+
+			page[1]++;
+			if(page[1] < reader.size())
+				pages.add(page);
+		}
+	}
+
+	/**
+	 * Merges every run and writes the result as JSON, exactly as
+	 * {@link InvertedIndex#toJSON(Path, boolean)} would have written the whole
+	 * index
+	 * @param path
+	 * 			path to output
+	 * @param compact
+	 * 			true to leave out all whitespace
+	 * @throws IOException
+	 */
+	public void toJSON(Path path, boolean compact) throws IOException
+	{
+		JSONWriter.asInvertedIndexObject(this, path, compact);
+	}
+
+	/**
+	 * Deletes every run and the temporary directory
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		for(Path run : runs)
+			Files.deleteIfExists(run);
+
+		runs.clear();
+		Files.deleteIfExists(directory);
+	}
+
+	/**
+	 * Receives the merged words in sorted order from
+	 * {@link SpillingIndex#visitWords(WordVisitor)}, with the pages of each
+	 * word passed to {@link #visit(String, int[], int)} in path order between
+	 * the start and end of the word
+	 */
+	public interface WordVisitor extends InvertedIndex.LocationVisitor
+	{
+		/**
+		 * Starts a word
+		 * @param word
+		 * 			next word in sorted order
+		 * @throws IOException
+		 */
+		void startWord(String word) throws IOException;
+
+		/**
+		 * Ends the word started last
+		 * @throws IOException
+		 */
+		void endWord() throws IOException;
+	}
+}
@@ -0,0 +1,301 @@
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable, front-coded dictionary of sorted words, giving each word an id
+ * equal to its rank. Words are packed into one char array in blocks of
+ * {@value #BLOCK_SIZE}. The first word of a block is stored whole, and every
+ * other word only stores how many leading chars it shares with the word
+ * before it followed by the rest of its chars. Sorted words share long
+ * prefixes, so this takes far less memory than keeping each word as a
+ * separate string, and scanning it touches one array instead of chasing
+ * pointers.
+ *
+ * Words are ordered by {@link String#compareTo(String)}, so every word that
+ * starts with a prefix falls in one contiguous range of ids, found with a
+ * binary search over the first word of each block and a short scan within
+ * the block.
+ */
+public class TermDictionary
+{
+	/** Number of words in a block; the first word of each is stored whole. */
+	private static final int BLOCK_SIZE = 16;
+
+	/** Shared prefix lengths, suffix lengths, and suffix chars of every word. */
+	private final char[] data;
+
+	/** Offset in the data of the first word of each block. */
+	private final int[] blocks;
+
+	private final int size;
+
+	/** Length of the longest word, so a block can be decoded into one buffer. */
+	private final int longest;
+
+	/**
+	 * Initializes a dictionary of the words, which must be sorted and unique
+	 * @param words
+	 * 			sorted, unique words
+	 */
+	public TermDictionary(Collection<String> words)
+	{
+		char[] data = new char[64];
+		int length = 0;
+		int longest = 0;
+		int[] blocks = new int[(words.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+
+		String previous = "";
+		int id = 0;
+		for(String word : words)
+		{
+			int shared = 0;
+			if(id % BLOCK_SIZE == 0)
+				blocks[id / BLOCK_SIZE] = length;
+			else
+			{
+				int limit = Math.min(previous.length(), word.length());
+				while(shared < limit && previous.charAt(shared) == word.charAt(shared))
+					shared++;
+			}
+
+			int suffix = word.length() - shared;
+			if(length + suffix + 4 > data.length)
+				data = Arrays.copyOf(data, Math.max(length + suffix + 4, data.length + (data.length >> 1)));
+
+			length = writeLength(data, length, shared);
+			length = writeLength(data, length, suffix);
+			word.getChars(shared, word.length(), data, length);
+			length += suffix;
+
+			longest = Math.max(longest, word.length());
+			previous = word;
+			id++;
+		}
+
+		this.data = Arrays.copyOf(data, length);
+		this.blocks = blocks;
+		this.size = id;
+		this.longest = longest;
+	}
+
+	/**
+	 * Returns the number of words in the dictionary
+	 * @return
+	 * 		number of words
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the word with the given id
+	 * @param id
+	 * 			id of the word
+	 * @return
+	 * 		the word
+	 */
+	public String getTerm(int id)
+	{
+		if(id < 0 || id >= size)
+			throw new IndexOutOfBoundsException("No term with id " + id);
+
+		char[] buffer = new char[longest];
+		int offset = blocks[id / BLOCK_SIZE];
+		int length = 0;
+		for(int i = id - id % BLOCK_SIZE; i <= id; i++)
+		{
+			int shared = readLength(data, offset);
+			offset += lengthSize(shared);
+			int suffix = readLength(data, offset);
+			offset += lengthSize(suffix);
+
+			System.arraycopy(data, offset, buffer, shared, suffix);
+			offset += suffix;
+			length = shared + suffix;
+		}
+		return new String(buffer, 0, length);
+	}
+
+	/**
+	 * Returns the id of the first word that starts with the prefix or sorts
+	 * after it
+	 * @param prefix
+	 * 			prefix to look up
+	 * @return
+	 * 		first id of the range of words starting with the prefix
+	 */
+	public int startOf(String prefix)
+	{
+		return search(prefix, false);
+	}
+
+	/**
+	 * Returns the id following the last word that starts with the prefix
+	 * @param prefix
+	 * 			prefix to look up
+	 * @return
+	 * 		end of the range of words starting with the prefix, exclusive
+	 */
+	public int endOf(String prefix)
+	{
+		return search(prefix, true);
+	}
+
+	/**
+	 * Finds the first word that starts with or sorts after the prefix, or the
+	 * first word that sorts after every word starting with the prefix
+	 * @param prefix
+	 * 			prefix to look up
+	 * @param after
+	 * 			true to skip the words starting with the prefix
+	 * @return
+	 * 		id of the word found, or the size if there is none
+	 */
+	private int search(String prefix, boolean after)
+	{
+		// Find the last block whose first word comes before the target
+		int low = 0;
+		int high = blocks.length - 1;
+		int block = -1;
+		while(low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int offset = blocks[middle];
+			int suffix = readLength(data, offset + 1);
+			if(reached(compare(data, offset + 1 + lengthSize(suffix), suffix, prefix), after))
+				high = middle - 1;
+			else
+			{
+				block = middle;
+				low = middle + 1;
+			}
+		}
+
+		if(block < 0)
+			return 0;
+
+		// Scan the rest of the block, which cannot be reached by its first word
+		char[] buffer = new char[longest];
+		int offset = blocks[block];
+		int end = Math.min(size, (block + 1) * BLOCK_SIZE);
+		for(int id = block * BLOCK_SIZE; id < end; id++)
+		{
+			int shared = readLength(data, offset);
+			offset += lengthSize(shared);
+			int suffix = readLength(data, offset);
+			offset += lengthSize(suffix);
+
+			System.arraycopy(data, offset, buffer, shared, suffix);
+			offset += suffix;
+
+			if(reached(compare(buffer, 0, shared + suffix, prefix), after))
+				return id;
+		}
+		return end;
+	}
+
+	/**
+	 * Checks if a word compared against the prefix is at or past the target
+	 * of a search
+	 * @param comparison
+	 * 			result of {@link #compare(char[], int, int, String)}
+	 * @param after
+	 * 			true if the search skips the words starting with the prefix
+	 * @return
+	 * 		true if the word is at or past the target
+	 */
+	private static boolean reached(int comparison, boolean after)
+	{
+		return after ? comparison > 0 : comparison >= 0;
+	}
+
+	/**
+	 * Compares a word against a prefix, treating every word that starts with
+	 * the prefix as equal to it
+	 * @param chars
+	 * 			array holding the word
+	 * @param offset
+	 * 			offset of the word in the array
+	 * @param length
+	 * 			length of the word
+	 * @param prefix
+	 * 			prefix to compare against
+	 * @return
+	 * 		negative if the word sorts before the prefix, 0 if it starts with
+	 * 		the prefix, and positive if it sorts after
+	 */
+	private static int compare(char[] chars, int offset, int length, String prefix)
+	{
+		int limit = Math.min(length, prefix.length());
+		for(int i = 0; i < limit; i++)
+		{
+			char c = chars[offset + i];
+			char p = prefix.charAt(i);
+			if(c != p)
+				return c - p;
+		}
+		return length >= prefix.length() ? 0 : -1;
+	}
+
+	/**
+	 * Writes a length as one char if it fits in 15 bits, or as two chars with
+	 * the high bit of the first one set
+	 * @param data
+	 * 			array to write to
+	 * @param offset
+	 * 			offset to write at
+	 * @param length
+	 * 			length to write
+	 * @return
+	 * 		offset following the length
+	 */
+	private static int writeLength(char[] data, int offset, int length)
+	{
+		if(length < 0x8000)
+		{
+			data[offset++] = (char) length;
+			return offset;
+		}
+
+		data[offset++] = (char) (0x8000 | (length >>> 15));
+		data[offset++] = (char) (length & 0x7FFF);
+		return offset;
+	}
+
+	/**
+	 * Reads a length written by {@link #writeLength(char[], int, int)}
+	 * @param data
+	 * 			array to read from
+	 * @param offset
+	 * 			offset of the length
+	 * @return
+	 * 		the length
+	 */
+	private static int readLength(char[] data, int offset)
+	{
+		char c = data[offset];
+		if(c < 0x8000)
+			return c;
+
+		return ((c & 0x7FFF) << 15) | data[offset + 1];
+	}
+
+	/**
+	 * Returns the number of chars a length takes
+	 * @param length
+	 * 			the length
+	 * @return
+	 * 		1 or 2
+	 */
+	private static int lengthSize(int length)
+	{
+		return length < 0x8000 ? 1 : 2;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "terms: " + size + ", chars: " + data.length;
+	}
+}
@@ -56,7 +56,9 @@ public class WordParser
 	}
 
 	/**
-	 * Convenience method for cleaning and splitting text.
+	 * Convenience method for cleaning and splitting text. Scans the text once
+	 * with a {@link WordTokenizer}, which gives the same words as splitting the
+	 * cleaned text without making a copy of the text for every step.
 	 *
 	 * @param text
 	 *            to clean and split
@@ -64,10 +66,11 @@ public class WordParser
 	 *
 	 * @see #split(String)
 	 * @see #clean(String)
+	 * @see WordTokenizer
 	 */
 	public static String[] parseWords(String text) 
 	{
-		return split(clean(text));
+		return WordTokenizer.parseWords(text);
 	}
 
 	/**
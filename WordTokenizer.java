@@ -0,0 +1,392 @@
+import java.nio.CharBuffer;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * Splits text into words one character at a time, handing each word to a
+ * {@link Consumer} as a reused char buffer. Produces the same words as
+ * {@link WordParser#split(String)} of {@link WordParser#clean(String)}: the
+ * text is normalized to NFC, every run of characters that are neither
+ * alphabetic nor whitespace separates words just like whitespace does, and
+ * words are lowercased for the default locale.
+ *
+ * The text is never copied as a whole. Characters are held back only until it
+ * is known that normalization cannot combine them with what follows, which is
+ * usually the very next character, and plain text without combining marks
+ * skips normalization entirely.
+ *
+ * Like {@link WordParser}, text that starts with whitespace other than ASCII
+ * whitespace (such as a no-break space) yields an empty first word, since
+ * {@link String#trim()} leaves that whitespace for the split.
+ */
+public class WordTokenizer implements HTMLStreamCleaner.Sink
+{
+	/**
+	 * Receives each word of the text in order
+	 */
+	public interface Consumer
+	{
+		/**
+		 * Accepts the next word. The buffer is reused for the next word, so
+		 * it must be copied if the word is kept.
+		 * @param word
+		 * 			buffer holding the lowercase word
+		 * @param length
+		 * 			number of characters of the word in the buffer
+		 */
+		void accept(char[] word, int length);
+	}
+
+	/** BMP characters that normalization changes even when they stand alone. */
+	private static final BitSet UNSTABLE = new BitSet(Character.MAX_VALUE + 1);
+
+	static
+	{
+		for(int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++)
+		{
+			if(c >= 0x300 && !Character.isSurrogate((char) c) && !Normalizer.isNormalized(String.valueOf((char) c), Normalizer.Form.NFC))
+				UNSTABLE.set(c);
+		}
+	}
+
+	private final Consumer consumer;
+
+	/** Locale the old String.toLowerCase() call would have used. */
+	private final Locale locale;
+
+	/** True if the locale has its own lowercase rules, as Turkish does for "I". */
+	private final boolean special;
+
+	/** Characters that normalization may still combine with what follows. */
+	private char[] pending;
+	private int pendingLength;
+
+	/** True if every pending character is below U+0300 and needs no normalization. */
+	private boolean plain;
+
+	/** High surrogate waiting for the rest of its code point. */
+	private char high;
+
+	/** Word being collected, before lowercasing. */
+	private char[] word;
+	private int wordLength;
+
+	/** True until the first word of the text is handed to the consumer. */
+	private boolean leading;
+
+	/** True if whitespace that String.trim() keeps came before the first word. */
+	private boolean empty;
+
+	/** True until the first character of the text is split. */
+	private boolean start;
+
+	/** True if the current word began at the very start of the text. */
+	private boolean startWord;
+
+	/**
+	 * Initializes a tokenizer that sends words to the consumer
+	 * @param consumer
+	 * 			receiver of the words
+	 */
+	public WordTokenizer(Consumer consumer)
+	{
+		this.consumer = consumer;
+		this.locale = Locale.getDefault();
+
+		String language = locale.getLanguage();
+		this.special = language.equals("tr") || language.equals("az") || language.equals("lt");
+
+		this.pending = new char[16];
+		this.pendingLength = 0;
+		this.plain = true;
+		this.high = 0;
+		this.word = new char[32];
+		this.wordLength = 0;
+		this.leading = true;
+		this.empty = false;
+		this.start = true;
+		this.startWord = false;
+	}
+
+	/**
+	 * Cleans and splits the text into words, giving the same words as
+	 * {@link WordParser#split(String)} of {@link WordParser#clean(String)}
+	 * @param text
+	 * 			text to clean and split
+	 * @return
+	 * 		array of words
+	 */
+	public static String[] parseWords(String text)
+	{
+		ArrayList<String> words = new ArrayList<String>();
+		WordTokenizer tokenizer = new WordTokenizer((word, length) -> words.add(new String(word, 0, length)));
+		tokenizer.accept(text);
+		tokenizer.finish();
+		return words.toArray(new String[words.size()]);
+	}
+
+	/**
+	 * Feeds every character of the text to the tokenizer
+	 * @param text
+	 * 			next part of the text
+	 */
+	public void accept(CharSequence text)
+	{
+		for(int i = 0; i < text.length(); i++)
+			accept(text.charAt(i));
+	}
+
+	/**
+	 * Feeds the next character of text to the tokenizer
+	 * @param c
+	 * 			next character
+	 */
+	@Override
+	public void accept(char c)
+	{
+		if(high != 0)
+		{
+			char previous = high;
+			high = 0;
+
+			if(Character.isLowSurrogate(c))
+			{
+				hold(Character.toCodePoint(previous, c));
+				return;
+			}
+
+			hold(previous);
+		}
+
+		if(Character.isHighSurrogate(c))
+			high = c;
+		else
+			hold(c);
+	}
+
+	/**
+	 * Signals the end of the text, handing the last word to the consumer. The
+	 * tokenizer is then ready for the next text.
+	 */
+	public void finish()
+	{
+		if(high != 0)
+		{
+			hold(high);
+			high = 0;
+		}
+
+		release();
+		endWord();
+
+		leading = true;
+		empty = false;
+		start = true;
+	}
+
+	/**
+	 * Holds back the code point, first releasing the pending characters if
+	 * normalization cannot combine them with it
+	 * @param c
+	 * 			next code point
+	 */
+	private void hold(int c)
+	{
+		if(isBoundary(c))
+			release();
+
+		if(pendingLength + 2 > pending.length)
+			pending = Arrays.copyOf(pending, pending.length * 2);
+
+		pendingLength += Character.toChars(c, pending, pendingLength);
+		plain = plain && c < 0x300;
+	}
+
+	/**
+	 * Normalizes the pending characters if needed and splits them into words
+	 */
+	private void release()
+	{
+		if(pendingLength == 0)
+			return;
+
+		if(plain || (pendingLength == 1 && !UNSTABLE.get(pending[0])))
+		{
+			for(int i = 0; i < pendingLength; i++)
+				split(pending[i]);
+		}
+		else
+		{
+			String normal = Normalizer.normalize(CharBuffer.wrap(pending, 0, pendingLength), Normalizer.Form.NFC);
+			for(int i = 0; i < normal.length(); )
+			{
+				int c = normal.codePointAt(i);
+				split(c);
+				i += Character.charCount(c);
+			}
+		}
+
+		pendingLength = 0;
+		plain = true;
+	}
+
+	/**
+	 * Adds the normalized code point to the current word, or ends the word
+	 * if the code point is not alphabetic
+	 * @param c
+	 * 			normalized code point
+	 */
+	private void split(int c)
+	{
+		boolean first = start;
+		start = false;
+
+		if(Character.isAlphabetic(c))
+		{
+			if(wordLength == 0)
+				startWord = first;
+
+			if(wordLength + 2 > word.length)
+				word = Arrays.copyOf(word, word.length * 2);
+
+			wordLength += Character.toChars(c, word, wordLength);
+			return;
+		}
+
+		if(leading && wordLength == 0 && c > ' ' && isSpace(c))
+			empty = true;
+
+		endWord();
+	}
+
+	/**
+	 * Lowercases the current word and hands it to the consumer
+	 */
+	private void endWord()
+	{
+		if(wordLength == 0)
+			return;
+
+		if(leading && empty)
+			consumer.accept(word, 0);
+
+		leading = false;
+		lowercase();
+		consumer.accept(word, wordLength);
+		wordLength = 0;
+	}
+
+	/**
+	 * Lowercases the current word in place, exactly as
+	 * {@link String#toLowerCase()} would
+	 */
+	private void lowercase()
+	{
+		boolean simple = !special;
+		for(int i = 0; i < wordLength && simple; i++)
+		{
+			char c = word[i];
+			simple = c != '\u03A3' && c != '\u0130';
+		}
+
+		if(!simple)
+		{
+			// Final sigma and locale rules depend on context or change the length.
+			// Lowercasing sees the separator before the word, which changes
+			// final sigma when the word starts with a supplementary character.
+			String lower;
+			if(startWord)
+				lower = new String(word, 0, wordLength).toLowerCase(locale);
+			else
+				lower = (' ' + new String(word, 0, wordLength)).toLowerCase(locale).substring(1);
+
+			if(lower.length() > word.length)
+				word = new char[lower.length() * 2];
+
+			lower.getChars(0, lower.length(), word, 0);
+			wordLength = lower.length();
+			return;
+		}
+
+		for(int i = 0; i < wordLength; )
+		{
+			char c = word[i];
+			if(c < 0x80)
+			{
+				if(c >= 'A' && c <= 'Z')
+					word[i] = (char) (c + ('a' - 'A'));
+
+				i++;
+				continue;
+			}
+
+			int codePoint = Character.codePointAt(word, i, wordLength);
+			int count = Character.charCount(codePoint);
+			Character.toChars(Character.toLowerCase(codePoint), word, i);
+			i += count;
+		}
+	}
+
+	/**
+	 * Checks if normalization can never combine the code point with the
+	 * characters before it, so those characters can be normalized on their own
+	 * @param c
+	 * 			code point to check
+	 * @return
+	 * 		true if the characters before the code point can be released
+	 */
+	private static boolean isBoundary(int c)
+	{
+		if(c < 0x300)
+			return true;
+
+		// Hangul vowels and trailing consonants combine with the syllable before them
+		if((c >= 0x1160 && c <= 0x11FF) || (c >= 0xD7B0 && c <= 0xD7FF))
+			return false;
+
+		switch(Character.getType(c))
+		{
+			case Character.NON_SPACING_MARK:
+			case Character.COMBINING_SPACING_MARK:
+			case Character.ENCLOSING_MARK:
+				return false;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Checks if the code point is whitespace as split on by
+	 * {@link WordParser#SPLIT_REGEX}
+	 * @param c
+	 * 			code point to check
+	 * @return
+	 * 		true if the code point is whitespace
+	 */
+	private static boolean isSpace(int c)
+	{
+		switch(c)
+		{
+			case ' ':
+			case '\t':
+			case '\n':
+			case '\u000B':
+			case '\f':
+			case '\r':
+			case '\u0085':
+			case '\u00A0':
+			case '\u1680':
+			case '\u2028':
+			case '\u2029':
+			case '\u202F':
+			case '\u205F':
+			case '\u3000':
+				return true;
+			default:
+				return c >= '\u2000' && c <= '\u200A';
+		}
+	}
+}
@@ -0,0 +1,183 @@
+import java.util.LinkedList;
+
+/**
+ * A simple work queue implementation backed by a fixed pool of worker
+ * threads. Tasks are handed out in the order they are queued, and callers
+ * may wait for all pending work to finish before reading the results.
+ */
+public class WorkQueue
+{
+	private final PoolWorker[] workers;
+	private final LinkedList<Runnable> queue;
+
+	/** Number of tasks queued or running but not yet finished. */
+	private int pending;
+
+	/** Set once the queue no longer accepts work. */
+	private volatile boolean shutdown;
+
+	/** First exception thrown by a task, if any. */
+	private RuntimeException failure;
+
+	/**
+	 * Starts a work queue with the default number of threads.
+	 *
+	 * @see #WorkQueue(int)
+	 */
+	public WorkQueue()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads.
+	 *
+	 * @param threads
+	 *            number of worker threads; should be greater than 0
+	 */
+	public WorkQueue(int threads)
+	{
+		this.queue = new LinkedList<Runnable>();
+		this.workers = new PoolWorker[Math.max(1, threads)];
+		this.pending = 0;
+		this.shutdown = false;
+
+		for(int i = 0; i < workers.length; i++)
+		{
+			workers[i] = new PoolWorker();
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Adds a work request to the queue. A thread will process this request
+	 * when available.
+	 *
+	 * @param task
+	 *            work request (in the form of a {@link Runnable} object)
+	 */
+	public void execute(Runnable task)
+	{
+		synchronized(queue)
+		{
+			if(shutdown)
+				throw new IllegalStateException("Work queue has been shut down");
+
+			pending++;
+			queue.addLast(task);
+			queue.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits for all pending work to be finished. Rethrows the first exception
+	 * raised by any task since the last call.
+	 */
+	public void finish()
+	{
+		synchronized(queue)
+		{
+			try
+			{
+				while(pending > 0)
+					queue.wait();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+
+			if(failure != null)
+			{
+				RuntimeException e = failure;
+				failure = null;
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Asks the queue to shutdown. Any unprocessed work will not be finished,
+	 * but threads in-progress will not be interrupted.
+	 */
+	public void shutdown()
+	{
+		synchronized(queue)
+		{
+			shutdown = true;
+			queue.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the number of worker threads being used by the work queue.
+	 *
+	 * @return number of worker threads
+	 */
+	public int size()
+	{
+		return workers.length;
+	}
+
+	/**
+	 * Waits until work is available in the work queue. When work is found, will
+	 * remove the work from the queue and run it. If a shutdown is detected, will
+	 * exit instead of grabbing new work from the queue. These threads will
+	 * continue running in the background until a shutdown is requested.
+	 */
+	private class PoolWorker extends Thread
+	{
+		@Override
+		public void run()
+		{
+			Runnable task = null;
+
+			while(true)
+			{
+				synchronized(queue)
+				{
+					while(queue.isEmpty() && !shutdown)
+					{
+						try
+						{
+							queue.wait();
+						}
+						catch(InterruptedException e)
+						{
+							Thread.currentThread().interrupt();
+							return;
+						}
+					}
+
+					if(shutdown)
+						return;
+
+					task = queue.removeFirst();
+				}
+
+				try
+				{
+					task.run();
+				}
+				catch(RuntimeException e)
+				{
+					synchronized(queue)
+					{
+						if(failure == null)
+							failure = e;
+					}
+				}
+				finally
+				{
+					synchronized(queue)
+					{
+						pending--;
+						if(pending == 0)
+							queue.notifyAll();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+import benchmarks.Stages;
+
+/**
+ * Calls into the index classes on behalf of the benchmarks, which cannot
+ * refer to classes in the default package themselves
+ *
+ * @see Stages
+ */
+public class StageBridge implements Stages
+{
+	@Override
+	public String stripHTML(String html)
+	{
+		return HTMLCleaner.stripHTML(html);
+	}
+
+	@Override
+	public String[] parseWords(String text)
+	{
+		return WordParser.parseWords(text);
+	}
+
+	@Override
+	public Object newIndex()
+	{
+		return new InvertedIndex();
+	}
+
+	@Override
+	public void add(Object index, String word, String html, int position)
+	{
+		((InvertedIndex) index).add(word, html, position);
+	}
+
+	@Override
+	public Object exactSearch(Object index, String[] words, int limit)
+	{
+		return ((InvertedIndex) index).exactSearch(words, limit);
+	}
+
+	@Override
+	public Object partialSearch(Object index, String[] words, int limit)
+	{
+		return ((InvertedIndex) index).partialSearch(words, limit);
+	}
+
+	@Override
+	public Object phraseSearch(Object index, String[] words, int limit)
+	{
+		return ((InvertedIndex) index).phraseSearch(words, limit);
+	}
+
+	@Override
+	public int matchPhrase(int[][] positions, int[] sizes)
+	{
+		PositionMatcher matcher = new PositionMatcher();
+		matcher.phrase(positions, sizes);
+		return matcher.getCount();
+	}
+
+	@Override
+	public int matchNear(int[] first, int firstSize, int[] second, int secondSize, int distance)
+	{
+		PositionMatcher matcher = new PositionMatcher();
+		matcher.near(first, firstSize, second, secondSize, distance);
+		return matcher.getCount();
+	}
+
+	@Override
+	public void writeJSON(Object index, Path path, boolean compact) throws IOException
+	{
+		JSONWriter.asInvertedIndexObject((InvertedIndex) index, path, compact);
+	}
+}
@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, but unless told
+ * otherwise also measures allocation with the GC profiler and writes the
+ * results to a timestamped JSON file, so every run can be compared with
+ * earlier ones
+ */
+public class BenchmarkMain
+{
+	public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException
+	{
+		CommandLineOptions options = new CommandLineOptions(args);
+		if(options.shouldHelp() || options.shouldList() || options.shouldListProfilers() || options.shouldListResultFormats() || options.shouldListWithParams())
+		{
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+		if(options.getProfilers().isEmpty())
+			builder.addProfiler(GCProfiler.class);
+
+		if(!options.getResultFormat().hasValue())
+		{
+			String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+			builder.resultFormat(ResultFormatType.JSON).result("jmh-result-" + stamp + ".json");
+		}
+
+		new Runner(builder.build()).run();
+	}
+}
@@ -0,0 +1,213 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic html corpus and query set. Everything is drawn from
+ * a seeded {@link Random}, so the same sizes and seed give the same pages and
+ * queries on every run and every machine.
+ *
+ * Words follow a Zipf distribution over a fixed vocabulary, like real text,
+ * so a few words appear on almost every page and most appear on few. Pages
+ * mix in the markup the cleaner has to strip: head, style, and script
+ * elements, comments, attributes, links, and entities. A few words are
+ * capitalized or accented so cleaning has to lowercase and normalize.
+ */
+public class Corpus
+{
+	private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+	private static final String ACCENTED = "éèàüöçñ";
+	private static final String[] ENTITIES = {"&amp;", "&nbsp;", "&lt;", "&#169;", "&quot;"};
+
+	private final String[] vocabulary;
+	private final double[] cumulative;
+	private final String[] paths;
+	private final String[] pages;
+	private final String[][] queries;
+	private final String[][] prefixes;
+
+	/**
+	 * Generates a corpus
+	 * @param seed
+	 * 			seed of the generator
+	 * @param documents
+	 * 			number of pages
+	 * @param words
+	 * 			number of words on each page
+	 * @param vocabulary
+	 * 			number of distinct words to draw from
+	 * @param queries
+	 * 			number of exact and of partial queries
+	 */
+	public Corpus(long seed, int documents, int words, int vocabulary, int queries)
+	{
+		Random random = new Random(seed);
+
+		this.vocabulary = new String[vocabulary];
+		for(int i = 0; i < vocabulary; i++)
+			this.vocabulary[i] = word(random);
+
+		// Zipf weights 1/rank, summed so a word can be drawn with a binary search
+		this.cumulative = new double[vocabulary];
+		double total = 0;
+		for(int i = 0; i < vocabulary; i++)
+		{
+			total += 1.0 / (i + 1);
+			cumulative[i] = total;
+		}
+		for(int i = 0; i < vocabulary; i++)
+			cumulative[i] /= total;
+
+		this.paths = new String[documents];
+		this.pages = new String[documents];
+		for(int i = 0; i < documents; i++)
+		{
+			paths[i] = "corpus/page" + i + ".html";
+			pages[i] = page(random, words);
+		}
+
+		this.queries = new String[queries][];
+		this.prefixes = new String[queries][];
+		for(int i = 0; i < queries; i++)
+		{
+			int length = 1 + random.nextInt(3);
+			this.queries[i] = new String[length];
+			this.prefixes[i] = new String[length];
+			for(int j = 0; j < length; j++)
+			{
+				String word = draw(random).toLowerCase();
+				this.queries[i][j] = word;
+				this.prefixes[i][j] = word.substring(0, Math.min(word.length(), 1 + random.nextInt(3)));
+			}
+		}
+	}
+
+	/**
+	 * Returns the html of every page
+	 * @return
+	 * 		pages, indexed like {@link #getPaths()}
+	 */
+	public String[] getPages()
+	{
+		return pages;
+	}
+
+	/**
+	 * Returns the path of every page
+	 * @return
+	 * 		paths, indexed like {@link #getPages()}
+	 */
+	public String[] getPaths()
+	{
+		return paths;
+	}
+
+	/**
+	 * Returns the exact queries, each a few cleaned words
+	 * @return
+	 * 		exact queries
+	 */
+	public String[][] getQueries()
+	{
+		return queries;
+	}
+
+	/**
+	 * Returns the partial queries, each a few prefixes of one to three letters
+	 * @return
+	 * 		partial queries
+	 */
+	public String[][] getPrefixes()
+	{
+		return prefixes;
+	}
+
+	/**
+	 * Returns the total number of chars in every page
+	 * @return
+	 * 		size of the corpus
+	 */
+	public long length()
+	{
+		long length = 0;
+		for(String page : pages)
+			length += page.length();
+		return length;
+	}
+
+	/**
+	 * Draws a word from the vocabulary following the Zipf weights
+	 * @param random
+	 * 			generator to use
+	 * @return
+	 * 		the word
+	 */
+	private String draw(Random random)
+	{
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		return vocabulary[Math.min(vocabulary.length - 1, index < 0 ? -index - 1 : index)];
+	}
+
+	/**
+	 * Makes up a word of 2 to 10 letters
+	 * @param random
+	 * 			generator to use
+	 * @return
+	 * 		the word
+	 */
+	private static String word(Random random)
+	{
+		int length = 2 + random.nextInt(9);
+		StringBuilder word = new StringBuilder(length);
+		for(int i = 0; i < length; i++)
+		{
+			if(random.nextInt(50) == 0)
+				word.append(ACCENTED.charAt(random.nextInt(ACCENTED.length())));
+			else
+				word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+		}
+
+		if(random.nextInt(20) == 0)
+			word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+
+		return word.toString();
+	}
+
+	/**
+	 * Makes up a page with the given number of words of text
+	 * @param random
+	 * 			generator to use
+	 * @param words
+	 * 			number of words of text
+	 * @return
+	 * 		html of the page
+	 */
+	private String page(Random random, int words)
+	{
+		StringBuilder html = new StringBuilder(words * 8);
+		html.append("<!DOCTYPE html>\n<html>\n<head>\n<title>").append(draw(random)).append("</title>\n");
+		html.append("<style>\nbody { font-family: sans-serif; margin: 0 auto; }\n</style>\n");
+		html.append("<script type=\"text/javascript\">\nvar hidden = \"").append(draw(random)).append("\";\n</script>\n");
+		html.append("</head>\n<body>\n<p class=\"text\">");
+
+		for(int i = 0; i < words; i++)
+		{
+			int choice = random.nextInt(100);
+			if(choice == 0)
+				html.append("</p>\n<p class=\"text\">");
+			else if(choice == 1)
+				html.append("<a href=\"page").append(random.nextInt(1000)).append(".html\">");
+			else if(choice == 2)
+				html.append("<!-- ").append(draw(random)).append(" -->");
+			else if(choice == 3)
+				html.append(ENTITIES[random.nextInt(ENTITIES.length)]).append(' ');
+
+			html.append(draw(random));
+			html.append(choice == 1 ? "</a> " : choice == 4 ? ", " : " ");
+		}
+
+		html.append("</p>\n</body>\n</html>\n");
+		return html.toString();
+	}
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Corpus shared by the benchmarks, sized by JMH parameters so it can be
+ * changed on the command line, for example {@code -p documents=1000}
+ */
+@State(Scope.Benchmark)
+public class CorpusState
+{
+	@Param("42")
+	public long seed;
+
+	@Param("200")
+	public int documents;
+
+	@Param("1000")
+	public int words;
+
+	@Param("20000")
+	public int vocabulary;
+
+	@Param("100")
+	public int queries;
+
+	protected Stages stages;
+	protected Corpus corpus;
+
+	/** Text of each page with the html stripped. */
+	protected String[] texts;
+
+	/** Cleaned words of each page. */
+	protected String[][] parsed;
+
+	@Setup
+	public void generate()
+	{
+		stages = Stages.load();
+		corpus = new Corpus(seed, documents, words, vocabulary, queries);
+
+		String[] pages = corpus.getPages();
+		texts = new String[pages.length];
+		parsed = new String[pages.length][];
+		for(int i = 0; i < pages.length; i++)
+		{
+			texts[i] = stages.stripHTML(pages[i]);
+			parsed[i] = stages.parseWords(texts[i]);
+		}
+	}
+
+	/**
+	 * Builds an index of the whole corpus
+	 * @return
+	 * 		index holding every page
+	 */
+	protected Object index()
+	{
+		Object index = stages.newIndex();
+		String[] paths = corpus.getPaths();
+		for(int i = 0; i < parsed.length; i++)
+		{
+			for(int j = 0; j < parsed[i].length; j++)
+				stages.add(index, parsed[i][j], paths[i], j + 1);
+		}
+		return index;
+	}
+}
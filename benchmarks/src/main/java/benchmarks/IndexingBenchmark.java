@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the indexing stages, one operation being a pass over the
+ * whole corpus: stripping the html of every page, parsing the stripped text
+ * into words, and adding every parsed word to a new index
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexingBenchmark extends CorpusState
+{
+	@Benchmark
+	public void stripHTML(Blackhole blackhole)
+	{
+		for(String page : corpus.getPages())
+			blackhole.consume(stages.stripHTML(page));
+	}
+
+	@Benchmark
+	public void parseWords(Blackhole blackhole)
+	{
+		for(String text : texts)
+			blackhole.consume(stages.parseWords(text));
+	}
+
+	@Benchmark
+	public Object add()
+	{
+		return index();
+	}
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of writing an index of the corpus as JSON to a temporary file
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JSONWriterBenchmark extends CorpusState
+{
+	@Param({"false", "true"})
+	public boolean compact;
+
+	private Object index;
+	private Path output;
+
+	@Setup
+	public void build() throws IOException
+	{
+		index = index();
+		output = Files.createTempFile("index", ".json");
+	}
+
+	@TearDown
+	public void delete() throws IOException
+	{
+		Files.deleteIfExists(output);
+	}
+
+	@Benchmark
+	public void asInvertedIndexObject() throws IOException
+	{
+		stages.writeJSON(index, output, compact);
+	}
+}
@@ -0,0 +1,192 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to match a phrase and a NEAR/k query of a rare word and a word with
+ * millions of positions, one operation being a pass over every page. The
+ * galloping PositionMatcher is measured against a naive nested loop that
+ * scans the common word's positions from the start for every position of
+ * the rare word, and phrase search is measured through the index as well.
+ *
+ * The common word is found at about every other position and the rare word
+ * at random positions, so about half of the rare positions start a phrase.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PhraseBenchmark
+{
+	private static final String RARE = "rare";
+	private static final String COMMON = "common";
+
+	@Param("42")
+	public long seed;
+
+	/** Number of pages the positions are spread over. */
+	@Param("20")
+	public int pages;
+
+	/** Positions of the common word, over all pages. */
+	@Param({"1000000", "4000000"})
+	public int common;
+
+	/** Positions of the rare word, over all pages. */
+	@Param({"100", "1000"})
+	public int rare;
+
+	/** Largest gap between the words of the NEAR/k query. */
+	@Param("3")
+	public int distance;
+
+	private Stages stages;
+	private Object index;
+
+	/** Sorted positions of the rare and the common word in each page. */
+	private int[][] rarePositions;
+	private int[][] commonPositions;
+
+	@Setup
+	public void generate()
+	{
+		stages = Stages.load();
+		index = stages.newIndex();
+
+		Random random = new Random(seed);
+		rarePositions = new int[pages][];
+		commonPositions = new int[pages][];
+		for(int page = 0; page < pages; page++)
+		{
+			int length = 2 * common / pages;
+			commonPositions[page] = positions(random, length, common / pages);
+			rarePositions[page] = positions(random, length, Math.max(1, rare / pages));
+
+			// Add both words in position order, as parsing a page would
+			String html = "page" + page + ".html";
+			int[] first = rarePositions[page];
+			int[] second = commonPositions[page];
+			int i = 0;
+			int j = 0;
+			while(i < first.length || j < second.length)
+			{
+				if(j == second.length || (i < first.length && first[i] < second[j]))
+					stages.add(index, RARE, html, first[i++]);
+				else
+					stages.add(index, COMMON, html, second[j++]);
+			}
+		}
+	}
+
+	/**
+	 * Picks distinct positions from 1 to the length, in sorted order
+	 * @param random
+	 * 			generator to draw from
+	 * @param length
+	 * 			number of positions in the page
+	 * @param count
+	 * 			number of positions to pick, at most the length
+	 * @return
+	 * 		sorted positions
+	 */
+	private static int[] positions(Random random, int length, int count)
+	{
+		// Selection sampling keeps each position with the chance still needed
+		int[] positions = new int[count];
+		int picked = 0;
+		for(int position = 1; position <= length && picked < count; position++)
+		{
+			if(random.nextInt(length - position + 1) < count - picked)
+				positions[picked++] = position;
+		}
+		return positions;
+	}
+
+	@Benchmark
+	public int matchPhrase()
+	{
+		int count = 0;
+		int[] sizes = new int[2];
+		for(int page = 0; page < pages; page++)
+		{
+			sizes[0] = rarePositions[page].length;
+			sizes[1] = commonPositions[page].length;
+			count += stages.matchPhrase(new int[][] {rarePositions[page], commonPositions[page]}, sizes);
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int nestedLoopPhrase()
+	{
+		int count = 0;
+		for(int page = 0; page < pages; page++)
+		{
+			for(int first : rarePositions[page])
+			{
+				for(int second : commonPositions[page])
+				{
+					if(second > first)
+					{
+						if(second == first + 1)
+							count++;
+						break;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int matchNear()
+	{
+		int count = 0;
+		for(int page = 0; page < pages; page++)
+			count += stages.matchNear(rarePositions[page], rarePositions[page].length, commonPositions[page], commonPositions[page].length, distance);
+		return count;
+	}
+
+	@Benchmark
+	public int nestedLoopNear()
+	{
+		int count = 0;
+		for(int page = 0; page < pages; page++)
+		{
+			for(int first : rarePositions[page])
+			{
+				for(int second : commonPositions[page])
+				{
+					if(second >= first - distance)
+					{
+						if(second <= first + distance)
+							count++;
+						break;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public Object phraseSearch()
+	{
+		return stages.phraseSearch(index, new String[] {RARE, COMMON}, 0);
+	}
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of searching an index of the corpus, one operation being a pass
+ * over the whole query set
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark extends CorpusState
+{
+	/** Maximum number of results per query, or 0 for all of them. */
+	@Param({"0", "10"})
+	public int limit;
+
+	private Object index;
+
+	@Setup
+	public void build()
+	{
+		index = index();
+	}
+
+	@Benchmark
+	public void exactSearch(Blackhole blackhole)
+	{
+		for(String[] query : corpus.getQueries())
+			blackhole.consume(stages.exactSearch(index, query, limit));
+	}
+
+	@Benchmark
+	public void partialSearch(Blackhole blackhole)
+	{
+		for(String[] query : corpus.getPrefixes())
+			blackhole.consume(stages.partialSearch(index, query, limit));
+	}
+}
@@ -0,0 +1,150 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Stages of indexing and searching that the benchmarks measure. The index
+ * classes live in the default package, which code in a named package cannot
+ * refer to, and JMH will not generate benchmarks in the default package, so
+ * the benchmarks reach them through this interface. The implementation is
+ * looked up once by name, and each call is a plain monomorphic interface
+ * call that the JIT inlines.
+ */
+public interface Stages
+{
+	/**
+	 * Loads the implementation that calls into the index classes
+	 * @return
+	 * 		stages of the index
+	 */
+	static Stages load()
+	{
+		try
+		{
+			return (Stages) Class.forName("StageBridge").getDeclaredConstructor().newInstance();
+		}
+		catch(ReflectiveOperationException e)
+		{
+			throw new IllegalStateException("Unable to load StageBridge", e);
+		}
+	}
+
+	/**
+	 * Strips the html with HTMLCleaner.stripHTML
+	 * @param html
+	 * 			html to strip
+	 * @return
+	 * 		text of the page
+	 */
+	String stripHTML(String html);
+
+	/**
+	 * Cleans and splits text with WordParser.parseWords
+	 * @param text
+	 * 			text to parse
+	 * @return
+	 * 		words of the text
+	 */
+	String[] parseWords(String text);
+
+	/**
+	 * Creates an empty InvertedIndex
+	 * @return
+	 * 		new index
+	 */
+	Object newIndex();
+
+	/**
+	 * Adds a word with InvertedIndex.add
+	 * @param index
+	 * 			index from {@link #newIndex()}
+	 * @param word
+	 * 			word to add
+	 * @param html
+	 * 			page the word was found in
+	 * @param position
+	 * 			position of the word
+	 */
+	void add(Object index, String word, String html, int position);
+
+	/**
+	 * Runs InvertedIndex.exactSearch
+	 * @param index
+	 * 			index from {@link #newIndex()}
+	 * @param words
+	 * 			query words
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		search results
+	 */
+	Object exactSearch(Object index, String[] words, int limit);
+
+	/**
+	 * Runs InvertedIndex.partialSearch
+	 * @param index
+	 * 			index from {@link #newIndex()}
+	 * @param words
+	 * 			query prefixes
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		search results
+	 */
+	Object partialSearch(Object index, String[] words, int limit);
+
+	/**
+	 * Runs InvertedIndex.phraseSearch
+	 * @param index
+	 * 			index from {@link #newIndex()}
+	 * @param words
+	 * 			words of the phrase, in order
+	 * @param limit
+	 * 			maximum number of results, or 0 for all of them
+	 * @return
+	 * 		search results
+	 */
+	Object phraseSearch(Object index, String[] words, int limit);
+
+	/**
+	 * Matches a phrase within one page with PositionMatcher.phrase
+	 * @param positions
+	 * 			sorted positions of each word of the phrase, in phrase order
+	 * @param sizes
+	 * 			number of valid positions in each array
+	 * @return
+	 * 		number of matches
+	 */
+	int matchPhrase(int[][] positions, int[] sizes);
+
+	/**
+	 * Matches two words near each other within one page with
+	 * PositionMatcher.near
+	 * @param first
+	 * 			sorted positions of the first word
+	 * @param firstSize
+	 * 			number of valid positions of the first word
+	 * @param second
+	 * 			sorted positions of the second word
+	 * @param secondSize
+	 * 			number of valid positions of the second word
+	 * @param distance
+	 * 			largest allowed gap between the words
+	 * @return
+	 * 		number of matches
+	 */
+	int matchNear(int[] first, int firstSize, int[] second, int secondSize, int distance);
+
+	/**
+	 * Writes the index with JSONWriter.asInvertedIndexObject
+	 * @param index
+	 * 			index from {@link #newIndex()}
+	 * @param path
+	 * 			file to write
+	 * @param compact
+	 * 			true to leave out all whitespace
+	 * @throws IOException
+	 */
+	void writeJSON(Object index, Path path, boolean compact) throws IOException;
+}
@@ -0,0 +1,71 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that {@link DirectoryWatcher} drops pages deleted while its events
+ * were lost, when it looks at every page again after an overflow.
+ */
+public class DirectoryWatcherTest
+{
+	@TempDir
+	Path root;
+
+	@Test
+	public void overflowRemovesDeletedPages() throws IOException
+	{
+		Path kept = write("kept.html", "<p>apple pie</p>");
+		Path deleted = write("nested/deleted.html", "<p>apple tart</p>");
+
+		InvertedIndex index = new InvertedIndex();
+		InvertedIndexBuilder.buildIndex(kept, index);
+		InvertedIndexBuilder.buildIndex(deleted, index);
+		assertEquals(2, pages(index, "apple").size());
+
+		try(DirectoryWatcher watcher = new DirectoryWatcher(index))
+		{
+			watcher.register(root);
+			Files.delete(deleted);
+
+			// Look at every page as the overflow event does, without waiting for events
+			assertTrue(watcher.resync());
+		}
+
+		ArrayList<String> pages = pages(index, "apple");
+		assertEquals(1, pages.size());
+		assertTrue(pages.contains(kept.toString()), pages.toString());
+		assertTrue(pages(index, "tart").isEmpty());
+		assertFalse(index.remove(deleted.toString()));
+	}
+
+	/**
+	 * Writes a page under the temporary directory
+	 */
+	private Path write(String name, String html) throws IOException
+	{
+		Path path = root.resolve(name);
+		Files.createDirectories(path.getParent());
+		Files.write(path, html.getBytes(StandardCharsets.UTF_8));
+		return path;
+	}
+
+	/**
+	 * Returns the pages the word is found in
+	 */
+	private static ArrayList<String> pages(InvertedIndex index, String word)
+	{
+		ArrayList<String> pages = new ArrayList<String>();
+		for(SearchResult result : index.exactSearch(new String[] {word}, 0))
+			pages.add(result.getLoc());
+		return pages;
+	}
+}
@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that {@link JSONIndexReader} reads escaped JSON and JSON written
+ * before strings were escaped only when told which one it is, so backslashes
+ * in Windows paths are never mistaken for escapes.
+ */
+public class JSONIndexReaderTest
+{
+	/** Windows path whose backslashes look like the escapes \n and \t. */
+	private static final String PAGE = "C:\\new\\test.html";
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void escaped() throws IOException
+	{
+		Path json = write("{\"apple\": {\"C:\\\\new\\\\test.html\": [1, 3], \"a\\\"b\\u00e9.html\": [2]}}");
+
+		InvertedIndex index = new InvertedIndex();
+		JSONIndexReader.read(json, index);
+		assertEquals(new TreeSet<Integer>(Arrays.asList(1, 3)), index.getPositions("apple", PAGE));
+		assertEquals(new TreeSet<Integer>(Arrays.asList(2)), index.getPositions("apple", "a\"b\u00e9.html"));
+	}
+
+	@Test
+	public void legacy() throws IOException
+	{
+		Path json = write("{\"apple\": {\"C:\\new\\test.html\": [1, 3], \"C:\\users\\x.html\": [2]}}");
+
+		InvertedIndex index = new InvertedIndex();
+		JSONIndexReader.read(json, index, true);
+		assertEquals(new TreeSet<Integer>(Arrays.asList(1, 3)), index.getPositions("apple", PAGE));
+		assertEquals(new TreeSet<Integer>(Arrays.asList(2)), index.getPositions("apple", "C:\\users\\x.html"));
+
+		// Not valid escaped JSON, so it is never half read as such
+		assertThrows(IOException.class, () -> JSONIndexReader.read(json, new InvertedIndex()));
+	}
+
+	@Test
+	public void roundTrip() throws IOException
+	{
+		InvertedIndex index = new InvertedIndex();
+		index.add("apple", PAGE, 1);
+		index.add("apple", PAGE, 3);
+		index.add("pie", "plain.html", 2);
+
+		Path json = directory.resolve("written.json");
+		JSONWriter.asInvertedIndexObject(index, json);
+
+		InvertedIndex read = new InvertedIndex();
+		JSONIndexReader.read(json, read);
+		assertEquals(index.getPositions("apple", PAGE), read.getPositions("apple", PAGE));
+		assertEquals(index.getPositions("pie", "plain.html"), read.getPositions("pie", "plain.html"));
+		assertEquals(index.getWords(), read.getWords());
+	}
+
+	/**
+	 * Writes the JSON text to a file in the temporary directory
+	 */
+	private Path write(String json) throws IOException
+	{
+		Path path = directory.resolve("index.json");
+		Files.write(path, json.getBytes(StandardCharsets.UTF_8));
+		return path;
+	}
+}
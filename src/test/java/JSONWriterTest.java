@@ -0,0 +1,72 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that queries and paths holding quotes, backslashes, or control
+ * characters are escaped wherever {@link JSONWriter} writes them, so quoted
+ * phrase queries never make the results invalid JSON.
+ */
+public class JSONWriterTest
+{
+	/** Page whose path needs every kind of escape. */
+	private static final String PAGE = "C:\\pages\\\"quoted\"\tname.html";
+
+	/** The page as it should be written. */
+	private static final String ESCAPED_PAGE = "\"C:\\\\pages\\\\\\\"quoted\\\"\\tname.html\"";
+
+	@Test
+	public void quote()
+	{
+		assertEquals("\"plain\"", JSONWriter.quote("plain"));
+		assertEquals("\"\\\"foo bar\\\"\"", JSONWriter.quote("\"foo bar\""));
+		assertEquals("\"a\\\\b\\nc\\u0001\"", JSONWriter.quote("a\\b\nc\u0001"));
+		assertEquals("\"\\u0000\\u001f\\u001b[0m\"", JSONWriter.quote("\u0000\u001f\u001b[0m"));
+	}
+
+	@Test
+	public void phraseResults() throws IOException
+	{
+		QuerySearch search = new QuerySearch(index());
+		search.setPhrases(true);
+		search.parseLine("\"foo bar\"", false);
+		search.parseLine("foo NEAR/2 bar", false);
+
+		StringWriter compact = new StringWriter();
+		search.toJSON(compact, true);
+		assertTrue(compact.toString().contains("{\"queries\":\"\\\"foo bar\\\"\",\"results\":[{\"where\":" + ESCAPED_PAGE + ",\"count\":1,\"index\":1}]}"), compact.toString());
+		assertTrue(compact.toString().contains("{\"queries\":\"foo NEAR/2 bar\",\"results\":[{\"where\":" + ESCAPED_PAGE), compact.toString());
+
+		StringWriter pretty = new StringWriter();
+		search.toJSON(pretty, false);
+		assertTrue(pretty.toString().contains("\"queries\": \"\\\"foo bar\\\"\","), pretty.toString());
+		assertTrue(pretty.toString().contains("\"where\": " + ESCAPED_PAGE + ","), pretty.toString());
+	}
+
+	@Test
+	public void streamedPhraseResults() throws IOException
+	{
+		StringWriter lines = new StringWriter();
+		QuerySearch search = new QuerySearch(index());
+		search.streamTo(lines);
+		search.setPhrases(true);
+		search.parseLine("\"foo bar\"", false);
+
+		assertEquals("{\"queries\":\"\\\"foo bar\\\"\",\"results\":[{\"where\":" + ESCAPED_PAGE + ",\"count\":1,\"index\":1}]}\n", lines.toString());
+	}
+
+	/**
+	 * Returns an index holding the words of a phrase in one page
+	 */
+	private static InvertedIndex index()
+	{
+		InvertedIndex index = new InvertedIndex();
+		index.add("foo", PAGE, 1);
+		index.add("bar", PAGE, 2);
+		return index;
+	}
+}
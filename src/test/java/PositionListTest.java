@@ -0,0 +1,220 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link PositionList} holds the same sorted set of positions as a
+ * {@link TreeSet} however they are added, and that its variable-byte numbers
+ * survive being written and read at every size.
+ */
+public class PositionListTest
+{
+	/** Numbers around each byte boundary of the encoding. */
+	private static final int[] NUMBERS = {
+		0, 1, 127, 128, 129, 16383, 16384, (1 << 21) - 1, 1 << 21, (1 << 21) + 1,
+		(1 << 28) - 1, 1 << 28, Integer.MAX_VALUE - 1, Integer.MAX_VALUE
+	};
+
+	@Test
+	public void outOfOrder()
+	{
+		PositionList list = list(50, 10, 30, 20, 40, 1, 60);
+		assertArrayEquals(new int[] {1, 10, 20, 30, 40, 50, 60}, list.toArray());
+		assertEquals(1, list.first());
+		assertEquals(60, list.last());
+		assertEquals(7, list.size());
+	}
+
+	@Test
+	public void duplicates()
+	{
+		PositionList list = list(5, 5, 3, 5, 3, 9, 9, 1);
+		assertArrayEquals(new int[] {1, 3, 5, 9}, list.toArray());
+		assertTrue(list.contains(3));
+		assertFalse(list.contains(4));
+	}
+
+	@Test
+	public void addAllAppends()
+	{
+		PositionList list = list(1, 2, 300);
+		list.addAll(list(301, 70000, 3000000));
+		assertArrayEquals(new int[] {1, 2, 300, 301, 70000, 3000000}, list.toArray());
+		assertEquals(6, list.size());
+		assertEquals(3000000, list.last());
+
+		PositionList empty = new PositionList();
+		empty.addAll(list);
+		assertArrayEquals(list.toArray(), empty.toArray());
+		empty.addAll(new PositionList());
+		assertEquals(6, empty.size());
+	}
+
+	@Test
+	public void addAllOverlapping()
+	{
+		PositionList list = list(1, 5, 200, 9000);
+		list.addAll(list(2, 5, 199, 200, 10000));
+		assertArrayEquals(new int[] {1, 2, 5, 199, 200, 9000, 10000}, list.toArray());
+
+		// Ends exactly where the other starts
+		PositionList touching = list(1, 7);
+		touching.addAll(list(7, 8));
+		assertArrayEquals(new int[] {1, 7, 8}, touching.toArray());
+
+		// Lies entirely inside this list
+		PositionList inside = list(0, 1000);
+		inside.addAll(list(10, 20));
+		assertArrayEquals(new int[] {0, 10, 20, 1000}, inside.toArray());
+	}
+
+	@Test
+	public void largeDeltas()
+	{
+		PositionList list = new PositionList();
+		int[] positions = {0, 127, 255, 256 + 128, (1 << 21) + 300, (1 << 21) + 301, (1 << 28) + 5, Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+		for(int position : positions)
+			list.add(position);
+		assertArrayEquals(positions, list.toArray());
+
+		// A gap of nearly the whole int range, and one inserted back in the middle
+		PositionList wide = list(0, Integer.MAX_VALUE);
+		wide.add(1 << 21);
+		assertArrayEquals(new int[] {0, 1 << 21, Integer.MAX_VALUE}, wide.toArray());
+		assertTrue(wide.contains(Integer.MAX_VALUE));
+		assertFalse(wide.contains(Integer.MAX_VALUE - 1));
+	}
+
+	@Test
+	public void randomAgainstTreeSet()
+	{
+		Random random = new Random(42);
+		for(int round = 0; round < 200; round++)
+		{
+			int bound = round % 2 == 0 ? 1000 : Integer.MAX_VALUE;
+			TreeSet<Integer> expected = new TreeSet<Integer>();
+			PositionList list = new PositionList();
+
+			for(int i = 0; i < 50; i++)
+			{
+				if(random.nextInt(5) == 0)
+				{
+					PositionList other = new PositionList();
+					for(int j = random.nextInt(10); j > 0; j--)
+					{
+						int position = random.nextInt(bound);
+						other.add(position);
+						expected.add(position);
+					}
+					list.addAll(other);
+				}
+				else
+				{
+					int position = random.nextInt(bound);
+					list.add(position);
+					expected.add(position);
+				}
+			}
+
+			assertArrayEquals(toArray(expected), list.toArray());
+			assertEquals(expected.size(), list.size());
+			assertEquals((int) expected.first(), list.first());
+			assertEquals((int) expected.last(), list.last());
+		}
+	}
+
+	@Test
+	public void roundTrip() throws IOException
+	{
+		PositionList[] lists = {
+			list(7),
+			list(1, 2, 3, 200, 40000),
+			list(0, 128, (1 << 21) + 128, Integer.MAX_VALUE)
+		};
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(DataOutputStream out = new DataOutputStream(bytes))
+		{
+			for(PositionList list : lists)
+				list.write(out);
+		}
+
+		ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+		for(PositionList list : lists)
+		{
+			PositionList read = PositionList.read(in);
+			assertArrayEquals(list.toArray(), read.toArray());
+			assertEquals(list.size(), read.size());
+			assertEquals(list.first(), read.first());
+			assertEquals(list.last(), read.last());
+
+			// A list read back must still grow like any other
+			read.add(read.last() == Integer.MAX_VALUE ? 5 : read.last() + 1000);
+			assertEquals(list.size() + 1, read.size());
+		}
+		assertFalse(in.hasRemaining());
+	}
+
+	@Test
+	public void numbers()
+	{
+		byte[] data = new byte[5 * NUMBERS.length];
+		int offset = 0;
+		for(int value : NUMBERS)
+		{
+			int next = PositionList.writeNumber(data, offset, value);
+			assertEquals(PositionList.numberSize(value), next - offset, "size of " + value);
+			offset = next;
+		}
+
+		offset = 0;
+		for(int value : NUMBERS)
+		{
+			assertEquals(value, PositionList.readNumber(data, offset));
+			offset += PositionList.numberSize(value);
+		}
+
+		assertEquals(1, PositionList.numberSize(0));
+		assertEquals(1, PositionList.numberSize(127));
+		assertEquals(2, PositionList.numberSize(128));
+		assertEquals(2, PositionList.numberSize(16383));
+		assertEquals(3, PositionList.numberSize(16384));
+		assertEquals(3, PositionList.numberSize((1 << 21) - 1));
+		assertEquals(4, PositionList.numberSize(1 << 21));
+		assertEquals(5, PositionList.numberSize(1 << 28));
+		assertEquals(5, PositionList.numberSize(Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Returns a list holding the positions, added in the order given
+	 */
+	private static PositionList list(int... positions)
+	{
+		PositionList list = new PositionList();
+		for(int position : positions)
+			list.add(position);
+		return list;
+	}
+
+	/**
+	 * Returns the positions of the set in order
+	 */
+	private static int[] toArray(TreeSet<Integer> set)
+	{
+		int[] positions = new int[set.size()];
+		int i = 0;
+		for(int position : set)
+			positions[i++] = position;
+		return positions;
+	}
+}
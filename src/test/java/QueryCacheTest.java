@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link QuerySearch} answers repeated queries from its
+ * {@link QueryCache} only while the index is unchanged, and that searches with
+ * a different limit or mode never see each other's results.
+ */
+public class QueryCacheTest
+{
+	@Test
+	public void addedWordsRecompute() throws IOException
+	{
+		InvertedIndex index = new InvertedIndex();
+		index.add("apple", "first.html", 1);
+		QueryCache cache = new QueryCache(10);
+
+		QuerySearch before = new QuerySearch(index, cache);
+		before.parseLine("apple", true);
+		before.parseLine("apple", true);
+		assertEquals(1, cache.getHits());
+		assertFalse(results(before).contains("second.html"), results(before));
+
+		index.add("apple", "second.html", 1);
+
+		QuerySearch after = new QuerySearch(index, cache);
+		after.parseLine("apple", true);
+		assertEquals(1, cache.getHits());
+		assertTrue(results(after).contains("second.html"), results(after));
+	}
+
+	@Test
+	public void settingsKeptApart() throws IOException
+	{
+		InvertedIndex index = new InvertedIndex();
+		index.add("apple", "first.html", 1);
+		index.add("apple", "second.html", 1);
+		index.add("apple", "second.html", 2);
+		index.add("apple", "second.html", 3);
+		index.add("pie", "first.html", 2);
+		QueryCache cache = new QueryCache(10);
+
+		QuerySearch all = new QuerySearch(index, cache);
+		all.parseLine("apple pie", true);
+		assertTrue(results(all).contains("first.html"), results(all));
+		assertTrue(results(all).contains("second.html"), results(all));
+
+		QuerySearch limited = new QuerySearch(index, cache, 1);
+		limited.parseLine("apple pie", true);
+		assertFalse(results(limited).contains("first.html"), results(limited));
+		assertTrue(results(limited).contains("second.html"), results(limited));
+
+		QuerySearch conjunctive = new QuerySearch(index, cache, 0, true);
+		conjunctive.parseLine("apple pie", true);
+		assertTrue(results(conjunctive).contains("first.html"), results(conjunctive));
+		assertFalse(results(conjunctive).contains("second.html"), results(conjunctive));
+
+		assertEquals(0, cache.getHits());
+		assertEquals(3, cache.size());
+	}
+
+	/**
+	 * Returns the results of a search as compact JSON
+	 */
+	private static String results(QuerySearch search) throws IOException
+	{
+		StringWriter writer = new StringWriter();
+		search.toJSON(writer, true);
+		return writer.toString();
+	}
+}
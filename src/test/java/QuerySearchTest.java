@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that lines that look like phrase or proximity queries are searched
+ * as ordinary lines, honouring -exact, unless phrases are turned on.
+ */
+public class QuerySearchTest
+{
+	@Test
+	public void quotedLineIsOrdinary() throws IOException
+	{
+		for(boolean exact : new boolean[] {false, true})
+		{
+			String expected = results(false, "foo bar", exact);
+			assertEquals(expected, results(false, "\"foo bar\"", exact));
+			assertEquals(expected, results(false, "  \"Foo BAR\" ", exact));
+		}
+
+		assertNotEquals(results(false, "\"foo bar\"", false), results(true, "\"foo bar\"", false));
+	}
+
+	@Test
+	public void nearLineIsOrdinary() throws IOException
+	{
+		for(boolean exact : new boolean[] {false, true})
+			assertEquals(results(false, "bar foo near", exact), results(false, "foo NEAR/2 bar", exact));
+
+		assertEquals("[{\"queries\":\"bar foo near\",\"results\":[{\"where\":\"first.html\",\"count\":3,\"index\":1},{\"where\":\"second.html\",\"count\":2,\"index\":1}]}]", results(false, "foo NEAR/2 bar", false));
+		assertNotEquals(results(false, "foo NEAR/2 bar", false), results(true, "foo NEAR/2 bar", false));
+	}
+
+	/**
+	 * Searches one line of an index where only the first page holds the
+	 * phrase, and the second page holds longer words that start with it
+	 * @param phrases
+	 * 			whether phrase and proximity queries are recognised
+	 * @param line
+	 * 			query line
+	 * @param exact
+	 * 			whether to run exact or partial search
+	 * @return
+	 * 		results as compact JSON
+	 */
+	private static String results(boolean phrases, String line, boolean exact) throws IOException
+	{
+		InvertedIndex index = new InvertedIndex();
+		index.add("foo", "first.html", 1);
+		index.add("bar", "first.html", 2);
+		index.add("nearby", "first.html", 3);
+		index.add("food", "second.html", 1);
+		index.add("bard", "second.html", 4);
+
+		QuerySearch search = new QuerySearch(index);
+		search.setPhrases(phrases);
+		search.parseLine(line, exact);
+
+		StringWriter writer = new StringWriter();
+		search.toJSON(writer, true);
+		return writer.toString();
+	}
+}
@@ -0,0 +1,98 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that a {@link SpillingIndex} forced to spill many times merges its
+ * runs into exactly the JSON an in-memory {@link InvertedIndex} writes for the
+ * same pages.
+ */
+public class SpillingIndexTest
+{
+	/** Words of the pages; a few are common so they land in every run. */
+	private static final String[] WORDS = {
+		"apple", "apples", "banana", "cherry", "date", "elder", "fig", "grape", "kiwi", "lemon",
+		"mango", "melon", "nut", "olive", "peach", "pear", "plum", "quince", "the", "zest"
+	};
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void mergedRunsMatchMemory() throws IOException
+	{
+		ArrayList<Path> pages = pages(new Random(42), 60);
+
+		// Add pages out of path order, so each word's pages interleave across runs
+		Collections.shuffle(pages, new Random(7));
+
+		InvertedIndex memory = new InvertedIndex();
+		Path runs = Files.createDirectory(directory.resolve("runs"));
+		try(SpillingIndex spilled = new SpillingIndex(2000, runs, null))
+		{
+			for(Path page : pages)
+			{
+				InvertedIndex built = InvertedIndexBuilder.buildIndex(page);
+				spilled.addAll(built);
+				memory.addAll(built);
+			}
+			assertTrue(spilled.numRuns() >= 5, "runs: " + spilled.numRuns());
+
+			for(boolean compact : new boolean[] {false, true})
+			{
+				Path expected = directory.resolve("memory" + compact + ".json");
+				Path actual = directory.resolve("spilled" + compact + ".json");
+				JSONWriter.asInvertedIndexObject(memory, expected, compact);
+				spilled.toJSON(actual, compact);
+
+				assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+			}
+		}
+
+		// Closing deletes the runs and their temporary directory
+		try(Stream<Path> left = Files.list(runs))
+		{
+			assertEquals(0, left.count());
+		}
+	}
+
+	/**
+	 * Writes pages of random words from the list into the temporary directory
+	 * @param random
+	 * 			source of the words
+	 * @param count
+	 * 			number of pages
+	 * @return
+	 * 		paths of the pages
+	 */
+	private ArrayList<Path> pages(Random random, int count) throws IOException
+	{
+		Path root = Files.createDirectory(directory.resolve("pages"));
+		ArrayList<Path> pages = new ArrayList<Path>();
+		for(int i = 0; i < count; i++)
+		{
+			StringBuilder html = new StringBuilder("<html><body><p>");
+			int length = 5 + random.nextInt(40);
+			for(int j = 0; j < length; j++)
+				html.append(j % 4 == 0 ? "the" : WORDS[random.nextInt(WORDS.length)]).append(' ');
+			html.append("</p></body></html>");
+
+			Path page = root.resolve("page" + i + ".html");
+			Files.write(page, html.toString().getBytes(StandardCharsets.UTF_8));
+			pages.add(page);
+		}
+		return pages;
+	}
+}
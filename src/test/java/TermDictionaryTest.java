@@ -0,0 +1,171 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the prefix ranges of {@link TermDictionary} against
+ * {@link TreeSet#subSet}, and that partial search through
+ * {@link InvertedIndex} also finds words added after its dictionary was built.
+ */
+public class TermDictionaryTest
+{
+	/** Words in a block of the dictionary, as in {@link TermDictionary}. */
+	private static final int BLOCK_SIZE = 16;
+
+	@Test
+	public void prefixRanges()
+	{
+		TreeSet<String> words = words(new Random(42), 500);
+		TermDictionary terms = new TermDictionary(words);
+		List<String> sorted = new ArrayList<String>(words);
+
+		assertEquals(words.size(), terms.size());
+		for(int id = 0; id < sorted.size(); id++)
+			assertEquals(sorted.get(id), terms.getTerm(id));
+
+		ArrayList<String> prefixes = new ArrayList<String>();
+		prefixes.add("");
+		prefixes.add(sorted.get(sorted.size() - 1) + "z");
+		prefixes.add("zzzzzzzz");
+		prefixes.add("\uffff");
+		prefixes.add("a");
+		prefixes.add(" ");
+		for(int id = 0; id < sorted.size(); id += BLOCK_SIZE)
+		{
+			// The first word of each block, the words either side, and its shorter prefixes
+			String first = sorted.get(id);
+			prefixes.add(first);
+			prefixes.add(first.substring(0, first.length() - 1));
+			prefixes.add(first.substring(0, 1));
+			if(id > 0)
+				prefixes.add(sorted.get(id - 1));
+			if(id + 1 < sorted.size())
+				prefixes.add(sorted.get(id + 1));
+		}
+
+		for(String prefix : prefixes)
+		{
+			ArrayList<String> found = new ArrayList<String>();
+			for(int id = terms.startOf(prefix); id < terms.endOf(prefix); id++)
+				found.add(terms.getTerm(id));
+			assertEquals(new ArrayList<String>(withPrefix(words, prefix)), found, "prefix " + prefix);
+		}
+	}
+
+	@Test
+	public void smallDictionaries()
+	{
+		for(int size = 0; size <= 2 * BLOCK_SIZE + 1; size++)
+		{
+			TreeSet<String> words = words(new Random(size), size);
+			TermDictionary terms = new TermDictionary(words);
+			for(String prefix : new String[] {"", "a", "b", "zz", "\uffff"})
+			{
+				assertEquals(words.headSet(prefix).size(), terms.startOf(prefix), size + " words, prefix " + prefix);
+				assertEquals(words.headSet(prefix).size() + withPrefix(words, prefix).size(), terms.endOf(prefix), size + " words, prefix " + prefix);
+			}
+		}
+	}
+
+	@Test
+	public void longWords()
+	{
+		// Lengths over 15 bits are written as two chars
+		String longest = String.join("", Collections.nCopies(40000, "a"));
+		TreeSet<String> words = new TreeSet<String>();
+		words.add("a");
+		words.add(longest);
+		words.add(longest + "b");
+		words.add("b");
+
+		TermDictionary terms = new TermDictionary(words);
+		assertEquals(longest + "b", terms.getTerm(2));
+		assertEquals(1, terms.startOf(longest));
+		assertEquals(3, terms.endOf(longest));
+	}
+
+	@Test
+	public void wordsAddedAfterSnapshot()
+	{
+		Random random = new Random(7);
+		TreeSet<String> words = words(random, 300);
+		InvertedIndex index = new InvertedIndex();
+		for(String word : words)
+			index.add(word, word + ".html", 1);
+
+		// The first partial search builds the dictionary
+		assertEquals(pagesOf(withPrefix(words, "b")), pages(index, "b"));
+
+		// Too few new words to rebuild it, so they are searched on the side
+		TreeSet<String> added = words(random, 100);
+		added.removeAll(words);
+		for(String word : added)
+			index.add(word, word + ".html", 1);
+		words.addAll(added);
+
+		ArrayList<String> prefixes = new ArrayList<String>();
+		for(String word : added)
+		{
+			prefixes.add(word);
+			prefixes.add(word.substring(0, 1));
+			prefixes.add(word.substring(0, word.length() - 1));
+		}
+		prefixes.add(words.last() + "z");
+
+		for(String prefix : prefixes)
+			assertEquals(pagesOf(withPrefix(words, prefix)), pages(index, prefix), "prefix " + prefix);
+	}
+
+	/**
+	 * Returns random lowercase words sharing prefixes, as sorted words do
+	 */
+	private static TreeSet<String> words(Random random, int count)
+	{
+		TreeSet<String> words = new TreeSet<String>();
+		while(words.size() < count)
+		{
+			StringBuilder word = new StringBuilder();
+			int length = 1 + random.nextInt(8);
+			for(int i = 0; i < length; i++)
+				word.append((char) ('a' + random.nextInt(i < 2 ? 3 : 26)));
+			words.add(word.toString());
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the words that start with the prefix, from the reference set
+	 */
+	private static TreeSet<String> withPrefix(TreeSet<String> words, String prefix)
+	{
+		return new TreeSet<String>(words.subSet(prefix, true, prefix + Character.MAX_VALUE, false));
+	}
+
+	/**
+	 * Returns the page each word was added in
+	 */
+	private static TreeSet<String> pagesOf(TreeSet<String> words)
+	{
+		TreeSet<String> pages = new TreeSet<String>();
+		for(String word : words)
+			pages.add(word + ".html");
+		return pages;
+	}
+
+	/**
+	 * Returns the pages found by a partial search for the prefix
+	 */
+	private static TreeSet<String> pages(InvertedIndex index, String prefix)
+	{
+		TreeSet<String> pages = new TreeSet<String>();
+		for(SearchResult result : index.partialSearch(new String[] {prefix}))
+			pages.add(result.getLoc());
+		return pages;
+	}
+}
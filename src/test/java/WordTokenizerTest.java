@@ -0,0 +1,167 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link WordTokenizer} gives the same words as the regular
+ * expressions it replaced, which {@link WordParser#clean(String)} and
+ * {@link WordParser#split(String)} still use and which are the reference here.
+ */
+public class WordTokenizerTest
+{
+	/** Characters the random texts are made of, chosen for the cases the tokenizer handles by hand. */
+	private static final String[] PIECES = {
+		// ASCII letters, digits, punctuation, and whitespace
+		"a", "Z", "q", "7", "-", "'", ".", " ", "\t", "\n", "\r", "\f",
+		// Whitespace that String.trim() keeps
+		"\u00A0", "\u2003", "\u3000", "\u2028", "\u0085",
+		// Precomposed and decomposed accents, and marks that reorder or stack
+		"\u00E9", "e\u0301", "E\u0301", "\u0301", "\u0327", "\u0323\u0302", "\u0302\u0323", "\u0344",
+		// Hangul syllables and jamo that compose into them
+		"\uAC00", "\u1100", "\u1161", "\u11A8",
+		// Greek capital sigma, which lowercases to a final sigma at the end of a word
+		"\u03A3", "\u039F", "\u03C3", "\u03C2", "\u0391\u03A3",
+		// Dotted and dotless i, and the capitals that lowercase differently in Turkish
+		"I", "i", "\u0130", "\u0131", "I\u0307", "\u0130\u0301",
+		// Characters normalization changes on their own
+		"\u212B", "\u2126", "\u0958", "\uF900",
+		// Letters outside the BMP: Deseret, mathematical letters, CJK extension B
+		"\uD801\uDC00", "\uD801\uDC28", "\uD835\uDC00", "\uD840\uDC00", "\uD801\uDC00\u0301",
+		// A lone surrogate of each kind
+		"\uD801", "\uDC00",
+		// Letters of other scripts
+		"\u05D0", "\u0627", "\u4E2D", "\u00DF", "\u1E9E", "\u01C5"
+	};
+
+	private final Locale original = Locale.getDefault();
+
+	@AfterEach
+	public void restoreLocale()
+	{
+		Locale.setDefault(original);
+	}
+
+	@Test
+	public void combiningMarks()
+	{
+		check("Cafe\u0301 cafe\u0301s r\u00E9sum\u00E9 A\u030A \u212Bngstr\u00F6m");
+		check("s\u0323\u0307 s\u0307\u0323 \u1E69 q\u0307\u0323");
+		check("\u0301leading mark and trailing e\u0301");
+		check("\u1100\u1161\u11A8 \uAC00\u11A8");
+	}
+
+	@Test
+	public void finalSigma()
+	{
+		check("\u039F\u0394\u03A5\u03A3\u03A3\u0395\u03A5\u03A3 \u03A3 \u0391\u03A3. \u03A3\u0391");
+		check("\u0391\u03A3\u0301 \u0391\u03A3\u0345x \u0391\u03A31");
+	}
+
+	@Test
+	public void turkishI()
+	{
+		String text = "Istanbul \u0130STANBUL \u0131s\u0131k I\u0307 \u0130\u0301 \u0130I";
+		check(text);
+
+		for(String tag : new String[] {"tr", "az", "lt"})
+		{
+			Locale.setDefault(Locale.forLanguageTag(tag));
+			check(text);
+			check("\u00CC \u00CD \u0128 J\u0307 I\u0300");
+		}
+	}
+
+	@Test
+	public void supplementaryLetters()
+	{
+		check("\uD801\uDC00\uD801\uDC01 \uD835\uDC00\uD835\uDC01\uD835\uDC02 \uD840\uDC00x");
+		check("\uD801\uDC00\u0301 \uD801 lone \uDC00 surrogates");
+	}
+
+	@Test
+	public void whitespace()
+	{
+		check("");
+		check("   ");
+		check("\u00A0leading no-break space");
+		check("\u3000\u00A0 words\u2028 and\u0085 lines\n");
+		check("--- 123 !!!");
+	}
+
+	@Test
+	public void randomText()
+	{
+		Random random = new Random(12);
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i < 20000; i++)
+		{
+			text.setLength(0);
+			int pieces = random.nextInt(24);
+			for(int j = 0; j < pieces; j++)
+				text.append(PIECES[random.nextInt(PIECES.length)]);
+
+			check(text.toString(), random);
+		}
+	}
+
+	@Test
+	public void randomTextInTurkish()
+	{
+		Locale.setDefault(Locale.forLanguageTag("tr"));
+		randomText();
+	}
+
+	/**
+	 * Asserts that the tokenizer gives the reference words, with pieces picked
+	 * by a random seeded from the text
+	 */
+	private static void check(String text)
+	{
+		check(text, new Random(text.hashCode()));
+	}
+
+	/**
+	 * Asserts that the tokenizer gives the reference words, whether the text
+	 * is given all at once or in random pieces
+	 */
+	private static void check(String text, Random random)
+	{
+		String[] expected = WordParser.split(WordParser.clean(text));
+		String message = "Words of \"" + escape(text) + "\"";
+		assertArrayEquals(expected, WordTokenizer.parseWords(text), message);
+
+		ArrayList<String> words = new ArrayList<String>();
+		WordTokenizer tokenizer = new WordTokenizer((word, length) -> words.add(new String(word, 0, length)));
+		int start = 0;
+		while(start < text.length())
+		{
+			int end = start + 1 + random.nextInt(4);
+			tokenizer.accept(text.substring(start, Math.min(end, text.length())));
+			start = end;
+		}
+		tokenizer.finish();
+		assertArrayEquals(expected, words.toArray(new String[words.size()]), message + " in pieces");
+	}
+
+	/**
+	 * Writes every character outside printable ASCII as a Java escape
+	 */
+	private static String escape(String text)
+	{
+		StringBuilder escaped = new StringBuilder();
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if(c >= ' ' && c < 0x7F)
+				escaped.append(c);
+			else
+				escaped.append(String.format("\\u%04X", (int) c));
+		}
+		return escaped.toString();
+	}
+}